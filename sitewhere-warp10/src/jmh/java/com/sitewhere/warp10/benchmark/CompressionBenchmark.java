@@ -0,0 +1,107 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sitewhere.warp10.rest.GTSInput;
+import com.sitewhere.warp10.rest.GTSInputRequestBody;
+import com.sitewhere.warp10.rest.GTSInputWriter;
+import com.sitewhere.warp10.rest.GzipRequestBody;
+import com.sitewhere.warp10.rest.SeriesKeyCache;
+
+import okhttp3.RequestBody;
+import okio.Buffer;
+
+/**
+ * Compares the CPU cost and bytes on the wire of plain and gzip compressed
+ * update bodies. Bytes per request are <code>wireBytes / requests</code> from
+ * the auxiliary counters.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({ "1000", "10000" })
+    public int points;
+
+    @Param({ "4", "8" })
+    public int labelCount;
+
+    @Param({ "none", "gzip" })
+    public String compression;
+
+    /** Update body under test */
+    private RequestBody body;
+
+    /** Reusable output */
+    private Buffer wire = new Buffer();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+	List<GTSInput> inputs = Warp10Fixtures.measurements(points, 100, labelCount);
+	RequestBody plain = new GTSInputRequestBody(inputs, new GTSInputWriter(new SeriesKeyCache(1000)));
+	this.body = "gzip".equals(compression) ? new GzipRequestBody(plain) : plain;
+    }
+
+    @Benchmark
+    public long writeBody(WireCounters counters) throws IOException {
+	body.writeTo(wire);
+	long size = wire.size();
+	wire.clear();
+	counters.wireBytes += size;
+	counters.requests++;
+	return size;
+    }
+
+    /**
+     * Totals reported alongside timing results.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class WireCounters {
+
+	public long wireBytes;
+
+	public long requests;
+
+	@Setup(Level.Iteration)
+	public void reset() {
+	    wireBytes = 0;
+	    requests = 0;
+	}
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.benchmark;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sitewhere.spi.SiteWhereException;
+import com.sitewhere.warp10.rest.DataPoint;
+import com.sitewhere.warp10.rest.GTSOutput;
+import com.sitewhere.warp10.rest.GTSOutputReader;
+
+/**
+ * Measures parsing of fetch responses. Each operation parses the full payload,
+ * so points per second is the score multiplied by
+ * <code>series * pointsPerSeries</code> (or <code>pointsPerSeries</code> for
+ * the point array).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({ "10", "100" })
+    public int series;
+
+    @Param({ "100", "1000" })
+    public int pointsPerSeries;
+
+    @Param({ "4" })
+    public int labelCount;
+
+    /** Fetch response */
+    private String response;
+
+    /** Points of a single series */
+    private String pointArray;
+
+    @Setup(Level.Trial)
+    public void setup() {
+	this.response = Warp10Fixtures.fetchResponse(series, pointsPerSeries, labelCount);
+	this.pointArray = Warp10Fixtures.pointArray(pointsPerSeries);
+    }
+
+    @Benchmark
+    public List<GTSOutput> fromOutputFormat() throws SiteWhereException {
+	return GTSOutput.fromOutputFormat(response);
+    }
+
+    @Benchmark
+    public int readStream() throws IOException {
+	int count = 0;
+	try (GTSOutputReader reader = new GTSOutputReader(new StringReader(response))) {
+	    GTSOutput gts;
+	    while ((gts = reader.read()) != null) {
+		count += gts.size();
+	    }
+	}
+	return count;
+    }
+
+    @Benchmark
+    public List<DataPoint> extractDataPoint() {
+	return DataPoint.extractDataPoint(pointArray);
+    }
+}
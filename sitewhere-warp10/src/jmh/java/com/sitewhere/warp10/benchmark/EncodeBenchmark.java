@@ -0,0 +1,112 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.sitewhere.spi.SiteWhereException;
+import com.sitewhere.spi.device.event.IDeviceMeasurement;
+import com.sitewhere.warp10.Warp10MeasurementBatchConverter;
+import com.sitewhere.warp10.rest.GTSInput;
+import com.sitewhere.warp10.rest.GTSInputWriter;
+import com.sitewhere.warp10.rest.SeriesKeyCache;
+
+import okio.Buffer;
+
+/**
+ * Measures encoding of points into the update format, both one string per
+ * point and streamed into a batch buffer, and encoding of device measurements
+ * directly with a batch converter. Each operation encodes the full set of
+ * points.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodeBenchmark {
+
+    @Param({ "1000" })
+    public int points;
+
+    @Param({ "2", "8" })
+    public int labelCount;
+
+    /** Points to encode */
+    private List<GTSInput> inputs;
+
+    /** Writer with a series cache as used by the client */
+    private GTSInputWriter writer;
+
+    /** Device measurements with the same values as the points */
+    private List<IDeviceMeasurement> measurements;
+
+    /** Converter that skips the intermediate points */
+    private Warp10MeasurementBatchConverter converter;
+
+    /** Reusable output */
+    private Buffer batch = new Buffer();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+	this.inputs = Warp10Fixtures.measurements(points, 100, labelCount);
+	this.writer = new GTSInputWriter(new SeriesKeyCache(1000));
+	this.measurements = Warp10Fixtures.deviceMeasurements(points, 100);
+	this.converter = new Warp10MeasurementBatchConverter(new GTSInputWriter());
+    }
+
+    @Benchmark
+    public void toInputFormat(Blackhole blackhole) throws SiteWhereException {
+	for (GTSInput input : inputs) {
+	    blackhole.consume(input.toInputFormat());
+	}
+    }
+
+    @Benchmark
+    public long writeBatch() throws SiteWhereException, IOException {
+	for (GTSInput input : inputs) {
+	    writer.write(input, batch);
+	}
+	long size = batch.size();
+	batch.clear();
+	return size;
+    }
+
+    @Benchmark
+    public long writeMeasurements() throws SiteWhereException, IOException {
+	converter.write(measurements, batch, null);
+	long size = batch.size();
+	batch.clear();
+	return size;
+    }
+}
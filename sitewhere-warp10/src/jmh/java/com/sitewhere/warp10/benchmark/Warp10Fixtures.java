@@ -0,0 +1,189 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.benchmark;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import com.sitewhere.rest.model.device.event.DeviceMeasurement;
+import com.sitewhere.spi.device.event.IDeviceMeasurement;
+import com.sitewhere.warp10.rest.GTSInput;
+import com.sitewhere.warp10.rest.QueryParams;
+
+/**
+ * Generates deterministic payloads that resemble SiteWhere measurement
+ * traffic for use in benchmarks.
+ */
+public class Warp10Fixtures {
+
+    /** Seed so that every run sees the same payloads */
+    private static final long SEED = 42;
+
+    /** Measurement names used for generated series */
+    private static final String[] MEASUREMENTS = { "temperature", "humidity", "pressure", "voltage", "rpm" };
+
+    /**
+     * Generate points spread over a number of devices. Each device reports every
+     * measurement in turn, which matches the interleaving seen on the ingest path.
+     *
+     * @param points
+     * @param devices
+     * @param labelCount
+     * @return
+     * @throws UnsupportedEncodingException
+     */
+    public static List<GTSInput> measurements(int points, int devices, int labelCount)
+	    throws UnsupportedEncodingException {
+	Random random = new Random(SEED);
+	List<String> deviceIds = new ArrayList<>();
+	for (int i = 0; i < devices; i++) {
+	    deviceIds.add(new UUID(random.nextLong(), random.nextLong()).toString());
+	}
+	long timestamp = 1600000000000000L;
+	List<GTSInput> inputs = new ArrayList<>(points);
+	for (int i = 0; i < points; i++) {
+	    GTSInput input = GTSInput.builder();
+	    input.setName(MEASUREMENTS[i % MEASUREMENTS.length]);
+	    input.setTs(timestamp + (i * 1000L));
+	    input.setLabel("deviceId", deviceIds.get((i / MEASUREMENTS.length) % devices));
+	    for (int label = 1; label < labelCount; label++) {
+		input.setLabel("label" + label, "value-" + label + "-" + (i % 3));
+	    }
+	    input.setValue((Long) null);
+	    input.setValue(Math.round(random.nextGaussian() * 1000) / 100.0);
+	    inputs.add(input);
+	}
+	return inputs;
+    }
+
+    /**
+     * Generate device measurements with the same interleaving and values as
+     * {@link #measurements(int, int, int)}.
+     *
+     * @param points
+     * @param devices
+     * @return
+     */
+    public static List<IDeviceMeasurement> deviceMeasurements(int points, int devices) {
+	Random random = new Random(SEED);
+	List<UUID> deviceIds = new ArrayList<>();
+	for (int i = 0; i < devices; i++) {
+	    deviceIds.add(new UUID(random.nextLong(), random.nextLong()));
+	}
+	long timestamp = 1600000000000L;
+	List<IDeviceMeasurement> measurements = new ArrayList<>(points);
+	for (int i = 0; i < points; i++) {
+	    UUID deviceId = deviceIds.get((i / MEASUREMENTS.length) % devices);
+	    DeviceMeasurement measurement = new DeviceMeasurement();
+	    measurement.setName(MEASUREMENTS[i % MEASUREMENTS.length]);
+	    measurement.setEventDate(new Date(timestamp + i));
+	    measurement.setDeviceId(deviceId);
+	    measurement.setDeviceAssignmentId(deviceId);
+	    measurement.setValue(Math.round(random.nextGaussian() * 1000) / 100.0);
+	    measurements.add(measurement);
+	}
+	return measurements;
+    }
+
+    /**
+     * Generate a fetch response in the JSON format returned by Warp 10. Points
+     * alternate between plain values and values with a location and elevation.
+     *
+     * @param series
+     * @param pointsPerSeries
+     * @param labelCount
+     * @return
+     */
+    public static String fetchResponse(int series, int pointsPerSeries, int labelCount) {
+	Random random = new Random(SEED);
+	StringBuilder json = new StringBuilder("[");
+	for (int i = 0; i < series; i++) {
+	    if (i > 0) {
+		json.append(',');
+	    }
+	    json.append("{\"c\":\"").append(MEASUREMENTS[i % MEASUREMENTS.length]).append("\",\"l\":{");
+	    json.append("\"deviceId\":\"").append(new UUID(random.nextLong(), random.nextLong())).append('"');
+	    for (int label = 1; label < labelCount; label++) {
+		json.append(",\"label").append(label).append("\":\"value-").append(label).append('-').append(i % 3)
+			.append('"');
+	    }
+	    json.append("},\"a\":{},\"la\":0,\"v\":");
+	    appendPoints(json, random, pointsPerSeries);
+	    json.append('}');
+	}
+	return json.append(']').toString();
+    }
+
+    /**
+     * Generate the <code>v</code> array of a series as it appears in a fetch
+     * response.
+     *
+     * @param pointsPerSeries
+     * @return
+     */
+    public static String pointArray(int pointsPerSeries) {
+	StringBuilder json = new StringBuilder();
+	appendPoints(json, new Random(SEED), pointsPerSeries);
+	return json.toString();
+    }
+
+    /**
+     * Generate queries for single devices with the given number of label
+     * selectors, including date ranges.
+     *
+     * @param count
+     * @param labelCount
+     * @return
+     */
+    public static List<QueryParams> queries(int count, int labelCount) {
+	Random random = new Random(SEED);
+	List<QueryParams> queries = new ArrayList<>(count);
+	for (int i = 0; i < count; i++) {
+	    QueryParams query = QueryParams.builder();
+	    query.setClassName(MEASUREMENTS[i % MEASUREMENTS.length]);
+	    query.addExactParameter("deviceId", new UUID(random.nextLong(), random.nextLong()).toString());
+	    for (int label = 1; label < labelCount; label++) {
+		query.addParameter("label" + label, "value-" + label + "-.*");
+	    }
+	    long end = 1600000000000L + (i * 60000L);
+	    query.setStartDate(new Date(end - 3600000L));
+	    query.setEndDate(new Date(end));
+	    queries.add(query);
+	}
+	return queries;
+    }
+
+    private static void appendPoints(StringBuilder json, Random random, int points) {
+	long timestamp = 1600000000000000L;
+	json.append('[');
+	for (int i = 0; i < points; i++) {
+	    if (i > 0) {
+		json.append(',');
+	    }
+	    json.append('[').append(timestamp + (i * 1000L)).append(',');
+	    if (i % 2 == 1) {
+		json.append(48.85 + random.nextDouble()).append(',').append(2.35 + random.nextDouble()).append(',')
+			.append(35 + random.nextInt(100)).append(',');
+	    }
+	    json.append(Math.round(random.nextGaussian() * 1000) / 100.0).append(']');
+	}
+	json.append(']');
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.sitewhere.spi.SiteWhereException;
+import com.sitewhere.warp10.rest.LastValueIndex;
+
+import okio.BufferedSink;
+
+/**
+ * Encodes a list of entities directly into the Warp 10 update format without
+ * creating an intermediate {@link com.sitewhere.warp10.rest.GTSInput} for each
+ * point.
+ *
+ * @param <I>
+ */
+public interface Warp10BatchConverter<I> {
+
+    /**
+     * Write update lines for each entity to the sink.
+     *
+     * @param sources
+     * @param sink
+     * @param updates
+     *            collects the points written so that they can be indexed once
+     *            stored (may be null)
+     * @return number of points written
+     * @throws SiteWhereException
+     * @throws IOException
+     */
+    int write(List<? extends I> sources, BufferedSink sink, LastValueIndex.Updates updates)
+	    throws SiteWhereException, IOException;
+}
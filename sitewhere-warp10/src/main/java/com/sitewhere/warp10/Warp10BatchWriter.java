@@ -0,0 +1,428 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sitewhere.spi.SiteWhereException;
+import com.sitewhere.warp10.rest.GTSInput;
+import com.sitewhere.warp10.rest.GTSInputWriter;
+import com.sitewhere.warp10.rest.LastValueIndex;
+import com.sitewhere.warp10.rest.Warp10RestClient;
+
+import okio.Buffer;
+import okio.ByteString;
+
+/**
+ * Buffers {@link GTSInput} points and sends them to Warp 10 as multi-line
+ * update requests. A batch is sent when it reaches the configured point count
+ * or encoded size, or when its oldest point has waited longer than the
+ * configured interval. Points are grouped by series so that only the first
+ * point of each series carries its class and labels, and the rest are sent as
+ * continuation lines. Changed series attributes are sent through the meta
+ * endpoint and written points are added to the last-value index once the batch
+ * containing them has been stored or spooled. If a spool is
+ * configured, batches are spooled rather than sent while the backend is
+ * unavailable or has no request slots free. Batches that fail in flight are
+ * appended to the spool from a dedicated thread rather than from the HTTP
+ * callback. Without a spool, batches that fail are counted and reported when
+ * the writer is stopped.
+ */
+public class Warp10BatchWriter {
+
+    /** Parent client */
+    private Warp10Client client;
+
+    /** REST client used to deliver batches */
+    private Warp10RestClient restClient;
+
+    /** Max points in batch */
+    private int maxPoints;
+
+    /** Max encoded bytes in batch */
+    private long maxBytes;
+
+    /** Max time to wait for sending batch */
+    private long intervalNanos;
+
+    /** Serializer for points */
+    private GTSInputWriter writer;
+
+    /** Tracks attributes sent for each series (optional) */
+    private Warp10MetadataWriter metadataWriter;
+
+    /** Holds batches while the backend is unavailable (optional) */
+    private Warp10Spool spool;
+
+    /** Index of the latest point of each series (optional) */
+    private LastValueIndex lastValues;
+
+    /** Encoded lines waiting to be sent, grouped by series */
+    private Map<ByteString, Buffer> pending = new LinkedHashMap<>();
+
+    /** Changed attributes to send after the pending batch */
+    private Map<ByteString, Map<String, String>> pendingMetadata = new LinkedHashMap<>();
+
+    /** Latest points to index after the pending batch (with index only) */
+    private LastValueIndex.Updates pendingUpdates;
+
+    /** Number of points in pending batch */
+    private int pendingPoints;
+
+    /** Number of encoded bytes in pending batch */
+    private long pendingBytes;
+
+    /** Time first point was added to pending batch */
+    private long pendingSince;
+
+    /** Executor that sends batches when the interval expires */
+    private ScheduledExecutorService scheduler;
+
+    /** Executor that spools batches that failed in flight (with spool only) */
+    private ExecutorService spooler;
+
+    /** Number of batches that failed and were not spooled */
+    private AtomicLong failedBatches = new AtomicLong();
+
+    /** Number of points in batches that failed and were not spooled */
+    private AtomicLong failedPoints = new AtomicLong();
+
+    public Warp10BatchWriter(Warp10Client client, Warp10RestClient restClient) {
+	this.client = client;
+	this.restClient = restClient;
+	this.writer = restClient.getWriter();
+	this.metadataWriter = client.getMetadataWriter();
+	this.spool = client.getSpool();
+	this.lastValues = client.getLastValues();
+	this.pendingUpdates = (lastValues != null) ? lastValues.newUpdates() : null;
+	this.maxPoints = client.getConfiguration().getBatchChunkSize();
+	this.maxBytes = client.getConfiguration().getBatchMaxBytes();
+	this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(client.getConfiguration().getBatchIntervalMs());
+    }
+
+    /**
+     * Start the background task that sends batches when the interval expires.
+     */
+    public void start() {
+	long tick = Math.max(1, TimeUnit.NANOSECONDS.toMillis(intervalNanos) / 4);
+	this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+	    Thread thread = new Thread(runnable, "warp10-batch-writer");
+	    thread.setDaemon(true);
+	    return thread;
+	});
+	scheduler.scheduleWithFixedDelay(new IntervalFlusher(), tick, tick, TimeUnit.MILLISECONDS);
+	if (spool != null) {
+	    this.spooler = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "warp10-batch-spooler");
+		thread.setDaemon(true);
+		return thread;
+	    });
+	}
+    }
+
+    /**
+     * Stop the background task, send any points still pending and wait for
+     * batches in flight to complete. Reports any batches that failed without
+     * being spooled since the writer was started.
+     *
+     * @throws SiteWhereException
+     */
+    public void stop() throws SiteWhereException {
+	if (scheduler != null) {
+	    scheduler.shutdown();
+	    try {
+		scheduler.awaitTermination(30, TimeUnit.SECONDS);
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	    scheduler = null;
+	}
+	flush();
+	try {
+	    if (!restClient.awaitInFlight(30, TimeUnit.SECONDS)) {
+		client.getLogger().warn("Timed out waiting for Warp 10 update batches to complete.");
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+	if (spooler != null) {
+	    spooler.shutdown();
+	    try {
+		if (!spooler.awaitTermination(30, TimeUnit.SECONDS)) {
+		    client.getLogger().warn("Timed out waiting for failed Warp 10 update batches to be spooled.");
+		}
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	    spooler = null;
+	}
+	if (failedBatches.get() > 0) {
+	    client.getLogger().error(String.format("Lost %d Warp 10 update batches (%d points) that failed to send.",
+		    failedBatches.get(), failedPoints.get()));
+	}
+    }
+
+    /**
+     * Add a point to the pending batch. The point is encoded before this method
+     * returns, so the caller may reuse the instance afterward. If adding the point
+     * fills the batch, it is sent from the calling thread.
+     *
+     * @param input
+     * @throws SiteWhereException
+     */
+    public void write(GTSInput input) throws SiteWhereException {
+	Batch ready = null;
+	synchronized (this) {
+	    try {
+		writer.validate(input);
+		ByteString prefix = writer.getSeriesPrefix(input);
+		if (metadataWriter != null) {
+		    Map<String, String> attributes = metadataWriter.track(input, prefix);
+		    if (attributes != null) {
+			pendingMetadata.put(prefix, attributes);
+		    }
+		}
+		Buffer lines = pending.get(prefix);
+		if (lines == null) {
+		    lines = new Buffer();
+		    writer.write(input, prefix, lines);
+		    pending.put(prefix, lines);
+		    pendingBytes += lines.size();
+		} else {
+		    long before = lines.size();
+		    writer.writeContinuation(input, lines);
+		    pendingBytes += lines.size() - before;
+		}
+		if (pendingUpdates != null) {
+		    pendingUpdates.add(input);
+		}
+	    } catch (IOException e) {
+		throw new SiteWhereException("Unable to encode Warp 10 update.", e);
+	    }
+	    if (pendingPoints == 0) {
+		pendingSince = System.nanoTime();
+	    }
+	    pendingPoints++;
+	    if ((pendingPoints >= maxPoints) || (pendingBytes >= maxBytes)) {
+		ready = drain();
+	    }
+	}
+	if (ready != null) {
+	    send(ready);
+	}
+    }
+
+    /**
+     * Send all pending points.
+     *
+     * @throws SiteWhereException
+     */
+    public void flush() throws SiteWhereException {
+	Batch ready;
+	synchronized (this) {
+	    ready = drain();
+	}
+	if (ready != null) {
+	    send(ready);
+	}
+    }
+
+    /**
+     * Detach the pending batch so that it can be sent outside of the lock. Lines
+     * for each series are moved into a single buffer so that every series starts
+     * with a full line followed by its continuation lines.
+     *
+     * @return
+     */
+    protected Batch drain() {
+	if (pendingPoints == 0) {
+	    return null;
+	}
+	Buffer ready = new Buffer();
+	for (Buffer lines : pending.values()) {
+	    ready.write(lines, lines.size());
+	}
+	Batch batch = new Batch(ready, pendingPoints, pendingMetadata, pendingUpdates);
+	this.pending = new LinkedHashMap<>();
+	this.pendingUpdates = (lastValues != null) ? lastValues.newUpdates() : null;
+	this.pendingMetadata = new LinkedHashMap<>();
+	this.pendingPoints = 0;
+	this.pendingBytes = 0;
+	return batch;
+    }
+
+    /**
+     * Send a batch of encoded lines as a single asynchronous update request. The
+     * calling thread only blocks if the client is at its limit of requests in
+     * flight. Changed attributes are sent once the update has succeeded. When a
+     * spool is configured, the batch is spooled instead if the backend is
+     * unavailable or saturated, or if the update fails with a server error.
+     * 
+     * @param batch
+     */
+    protected void send(Batch batch) {
+	if ((spool != null) && (!spool.isAvailable() || (restClient.getAvailableInFlight() == 0))) {
+	    spool(batch);
+	    return;
+	}
+	restClient.ingressAsync(batch.getLines()).whenComplete((responseCode, error) -> {
+	    if ((spool != null) && ((error != null) || (responseCode >= 500))) {
+		spool.markUnavailable();
+		spoolLater(batch);
+		return;
+	    }
+	    if (error != null) {
+		failed(batch);
+		client.getLogger().error("Unable to send Warp 10 update batch.", error);
+	    } else if (responseCode != 200) {
+		failed(batch);
+		client.getLogger().error(
+			String.format("Warp 10 rejected update batch with response code %d.", responseCode));
+	    } else if (batch.getUpdates() != null) {
+		batch.getUpdates().apply();
+	    }
+	    if (!batch.getMetadata().isEmpty()) {
+		if (error == null && responseCode == 200) {
+		    metadataWriter.sendAsync(batch.getMetadata());
+		} else {
+		    metadataWriter.forget(batch.getMetadata());
+		}
+	    }
+	});
+    }
+
+    /**
+     * Count a batch that could not be delivered.
+     * 
+     * @param batch
+     */
+    protected void failed(Batch batch) {
+	failedBatches.incrementAndGet();
+	failedPoints.addAndGet(batch.getPoints());
+    }
+
+    /**
+     * Append a batch to the spool from the spooler thread, keeping disk access
+     * off the HTTP callback thread. Spools directly if the writer is not started.
+     * 
+     * @param batch
+     */
+    protected void spoolLater(Batch batch) {
+	ExecutorService executor = spooler;
+	if (executor != null) {
+	    try {
+		executor.execute(() -> spool(batch));
+		return;
+	    } catch (RejectedExecutionException e) {
+		// Writer is stopping, so spool from this thread.
+	    }
+	}
+	spool(batch);
+    }
+
+    /**
+     * Append a batch to the spool. Attributes are forgotten so that they are
+     * sent again with the next point for each series.
+     * 
+     * @param batch
+     */
+    protected void spool(Batch batch) {
+	if (!spool.append(batch.getLines())) {
+	    failed(batch);
+	    client.getLogger().error("Warp 10 spool is full. Dropping update batch.");
+	} else if (batch.getUpdates() != null) {
+	    batch.getUpdates().apply();
+	}
+	if (!batch.getMetadata().isEmpty()) {
+	    metadataWriter.forget(batch.getMetadata());
+	}
+    }
+
+    /**
+     * Sends the pending batch once its oldest point has waited for the configured
+     * interval.
+     */
+    private class IntervalFlusher implements Runnable {
+
+	@Override
+	public void run() {
+	    Batch ready = null;
+	    synchronized (Warp10BatchWriter.this) {
+		if ((pendingPoints > 0) && (System.nanoTime() - pendingSince >= intervalNanos)) {
+		    ready = drain();
+		}
+	    }
+	    if (ready != null) {
+		send(ready);
+	    }
+	}
+    }
+
+    public long getFailedBatches() {
+	return failedBatches.get();
+    }
+
+    public long getFailedPoints() {
+	return failedPoints.get();
+    }
+
+    /**
+     * Encoded lines along with attributes to send and latest points to index
+     * once they are stored.
+     */
+    protected static class Batch {
+
+	private Buffer lines;
+
+	private int points;
+
+	private Map<ByteString, Map<String, String>> metadata;
+
+	private LastValueIndex.Updates updates;
+
+	public Batch(Buffer lines, int points, Map<ByteString, Map<String, String>> metadata,
+		LastValueIndex.Updates updates) {
+	    this.lines = lines;
+	    this.points = points;
+	    this.metadata = metadata;
+	    this.updates = updates;
+	}
+
+	public Buffer getLines() {
+	    return lines;
+	}
+
+	public int getPoints() {
+	    return points;
+	}
+
+	public Map<ByteString, Map<String, String>> getMetadata() {
+	    return metadata;
+	}
+
+	public LastValueIndex.Updates getUpdates() {
+	    return updates;
+	}
+    }
+}
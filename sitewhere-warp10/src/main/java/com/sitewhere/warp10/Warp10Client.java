@@ -15,26 +15,87 @@
  */
 package com.sitewhere.warp10;
 
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import com.sitewhere.microservice.lifecycle.TenantEngineLifecycleComponent;
 import com.sitewhere.spi.SiteWhereException;
 import com.sitewhere.spi.microservice.lifecycle.ILifecycleProgressMonitor;
+import com.sitewhere.warp10.rest.AggregationQuery;
+import com.sitewhere.warp10.rest.Aggregator;
 import com.sitewhere.warp10.rest.GTSInput;
+import com.sitewhere.warp10.rest.GTSInputPool;
+import com.sitewhere.warp10.rest.GTSInputWriter;
 import com.sitewhere.warp10.rest.GTSOutput;
+import com.sitewhere.warp10.rest.GeoQuery;
+import com.sitewhere.warp10.rest.LastValueIndex;
 import com.sitewhere.warp10.rest.QueryParams;
+import com.sitewhere.warp10.rest.SeriesKeyCache;
+import com.sitewhere.warp10.rest.Warp10CircuitBreaker;
+import com.sitewhere.warp10.rest.Warp10ConcurrencyLimiter;
+import com.sitewhere.warp10.rest.Warp10Endpoints;
+import com.sitewhere.warp10.rest.Warp10Metrics;
 import com.sitewhere.warp10.rest.Warp10RestClient;
+import com.sitewhere.warp10.rest.WarpScript;
+
+import okio.Buffer;
+import okio.ByteString;
 
 /**
  * Client used for connecting to and interacting with an Warp 10 server.
  */
 public class Warp10Client extends TenantEngineLifecycleComponent {
 
+    /** Max idle points kept for reuse */
+    private static final int INPUT_POOL_SIZE = 1024;
+
     /** Warp10 configuration parameters */
     private Warp10Configuration configuration;
 
     private Warp10RestClient warp10RestClient;
 
+    /** Batches points into multi-line update requests */
+    private Warp10BatchWriter batchWriter;
+
+    /** Cache of encoded series prefixes */
+    private SeriesKeyCache seriesCache;
+
+    /** Sends series attributes when they change */
+    private Warp10MetadataWriter metadataWriter;
+
+    /** Classes of known series used to build exact selectors */
+    private Warp10SeriesCatalog seriesCatalog;
+
+    /** Recent fetch results refreshed incrementally */
+    private Warp10FetchCache fetchCache;
+
+    /** Holds updates while the backend is unavailable */
+    private Warp10Spool spool;
+
+    /** Purges points older than the retention period */
+    private Warp10RetentionService retentionService;
+
+    /** Latest point of recently written or fetched series */
+    private LastValueIndex lastValues;
+
+    /** Computes rollups and serves queries from them */
+    private Warp10RollupService rollupService;
+
+    /** Reusable points for the ingest path */
+    private GTSInputPool inputPool = new GTSInputPool(INPUT_POOL_SIZE);
+
     public Warp10Client(Warp10Configuration configuration) {
 	this.configuration = configuration;
     }
@@ -46,21 +107,786 @@ public class Warp10Client extends TenantEngineLifecycleComponent {
     @Override
     public void initialize(ILifecycleProgressMonitor monitor) throws SiteWhereException {
 	super.initialize(monitor);
-	String baseUrl = String.format("http://%s:%d/api/v0", getConfiguration().getHostname(), 8080);
+	String baseUrl = getBaseUrl();
+	this.seriesCache = (getConfiguration().getSeriesCacheSize() > 0)
+		? new SeriesKeyCache(getConfiguration().getSeriesCacheSize())
+		: null;
 	this.warp10RestClient = Warp10RestClient.newBuilder()
 		.withConnectionTo(baseUrl, getConfiguration().getTokenSecret(), getConfiguration().getApplication())
-		.build();
+		.withEndpoints(createEndpoints(getConfiguration().getIngressEndpoints(), baseUrl),
+			createEndpoints(getConfiguration().getEgressEndpoints(), baseUrl))
+		.withHttpClient(Warp10HttpClients.getClient(getConfiguration()))
+		.withGzip(getConfiguration().isGzipCompression())
+		.withIdentityResponses(getConfiguration().isIdentityCompression())
+		.withMaxInFlight(getConfiguration().getMaxInFlightRequests())
+		.withConcurrencyLimiters(createConcurrencyLimiter(), createConcurrencyLimiter())
+		.withCircuitBreaker(createCircuitBreaker())
+		.withWriter(new GTSInputWriter(seriesCache))
+		.withMetrics(new Warp10Metrics(getTenantEngine().getTenantResource().getMetadata().getName())).build();
+	if (getConfiguration().getSeriesCatalogSize() > 0) {
+	    this.seriesCatalog = new Warp10SeriesCatalog(warp10RestClient, getConfiguration().getSeriesCatalogSize(),
+		    TimeUnit.SECONDS.toMillis(getConfiguration().getSeriesCatalogTtlSeconds()));
+	}
+	if (getConfiguration().getFetchCacheMaxBytes() > 0) {
+	    this.fetchCache = new Warp10FetchCache(getConfiguration().getFetchCacheMaxBytes(),
+		    TimeUnit.SECONDS.toMillis(getConfiguration().getFetchCacheTtlSeconds()),
+		    warp10RestClient.getMetrics());
+	}
+	if (getConfiguration().getLastValueIndexSize() > 0) {
+	    this.lastValues = new LastValueIndex(getConfiguration().getLastValueIndexSize(),
+		    TimeUnit.SECONDS.toMillis(getConfiguration().getLastValueTtlSeconds()));
+	}
+	this.metadataWriter = new Warp10MetadataWriter(this, warp10RestClient,
+		Math.max(1, getConfiguration().getMetadataCacheSize()));
+	if (getConfiguration().getSpoolMaxBytes() > 0) {
+	    String tenantToken = getTenantEngine().getTenantResource().getMetadata().getName();
+	    this.spool = new Warp10Spool(this, warp10RestClient,
+		    Paths.get(getConfiguration().getSpoolDirectory(), tenantToken));
+	}
+	if (getConfiguration().getRetentionDays() > 0) {
+	    this.retentionService = new Warp10RetentionService(this, warp10RestClient,
+		    split(getConfiguration().getRetentionClasses()));
+	}
+	if (!split(getConfiguration().getRollupLevels()).isEmpty()) {
+	    this.rollupService = new Warp10RollupService(this, warp10RestClient,
+		    split(getConfiguration().getRollupLevels()), split(getConfiguration().getRollupAggregators()),
+		    split(getConfiguration().getRollupClasses()));
+	}
+	if (getConfiguration().getBatchChunkSize() > 0) {
+	    this.batchWriter = new Warp10BatchWriter(this, warp10RestClient);
+	}
+    }
+
+    /**
+     * Create a limiter for concurrent requests if enabled. Separate limiters are
+     * used for writes and reads.
+     * 
+     * @return
+     */
+    protected Warp10ConcurrencyLimiter createConcurrencyLimiter() {
+	if (getConfiguration().getLimiterMaxLimit() <= 0) {
+	    return null;
+	}
+	return new Warp10ConcurrencyLimiter(getConfiguration().getLimiterInitialLimit(),
+		getConfiguration().getLimiterMinLimit(), getConfiguration().getLimiterMaxLimit(),
+		getConfiguration().getLimiterLatencyThresholdMs(), getConfiguration().getLimiterMaxWaitMs(),
+		TimeUnit.MILLISECONDS, getConfiguration().getLimiterBackoffPercent() / 100.0);
+    }
+
+    /**
+     * Create the circuit breaker if enabled.
+     * 
+     * @return
+     */
+    protected Warp10CircuitBreaker createCircuitBreaker() {
+	if (getConfiguration().getCircuitBreakerFailureThreshold() <= 0) {
+	    return null;
+	}
+	return new Warp10CircuitBreaker(getConfiguration().getCircuitBreakerFailureThreshold(),
+		getConfiguration().getCircuitBreakerOpenMs(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create a group of endpoints from a comma-separated list. The default URL is
+     * used if the list is empty.
+     * 
+     * @param list
+     * @param defaultUrl
+     * @return
+     * @throws SiteWhereException
+     */
+    protected Warp10Endpoints createEndpoints(String list, String defaultUrl) throws SiteWhereException {
+	List<String> urls = new ArrayList<>();
+	for (String entry : split(list)) {
+	    urls.add(getBaseUrl(entry));
+	}
+	if (urls.isEmpty()) {
+	    urls.add(defaultUrl);
+	}
+	return new Warp10Endpoints(urls, Warp10Endpoints.parseBalancing(getConfiguration().getEndpointBalancing()),
+		getConfiguration().getEndpointEjectFailures(), getConfiguration().getEndpointEjectMs(),
+		TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Split a comma-separated setting into its non-empty entries.
+     * 
+     * @param list
+     * @return
+     */
+    protected static List<String> split(String list) {
+	List<String> entries = new ArrayList<>();
+	if (list != null) {
+	    for (String entry : list.split(",")) {
+		if (!entry.trim().isEmpty()) {
+		    entries.add(entry.trim());
+		}
+	    }
+	}
+	return entries;
+    }
+
+    /**
+     * Get the base URL for the Warp 10 API from the configured hostname.
+     * 
+     * @return
+     */
+    protected String getBaseUrl() {
+	return getBaseUrl(getConfiguration().getHostname());
+    }
+
+    /**
+     * Get the base URL for the Warp 10 API on a host. A host that includes a
+     * scheme is used as the complete base URL, otherwise the URL is built from
+     * the host and either its own port or the configured port.
+     * 
+     * @param host
+     * @return
+     */
+    protected String getBaseUrl(String host) {
+	if (host.contains("://")) {
+	    return host.endsWith("/") ? host.substring(0, host.length() - 1) : host;
+	}
+	if (host.lastIndexOf(':') > host.lastIndexOf(']')) {
+	    return String.format("http://%s/api/v0", host);
+	}
+	return String.format("http://%s:%d/api/v0", host, getConfiguration().getPort());
+    }
+
+    /*
+     * @see
+     * com.sitewhere.microservice.lifecycle.LifecycleComponent#start(com.sitewhere.
+     * spi.microservice.lifecycle.ILifecycleProgressMonitor)
+     */
+    @Override
+    public void start(ILifecycleProgressMonitor monitor) throws SiteWhereException {
+	super.start(monitor);
+	warp10RestClient.getTokenManager().start(getLogger());
+	if (spool != null) {
+	    spool.start();
+	}
+	if (batchWriter != null) {
+	    batchWriter.start();
+	}
+	if (retentionService != null) {
+	    retentionService.start();
+	}
+	if (rollupService != null) {
+	    rollupService.start();
+	}
+    }
+
+    /*
+     * @see
+     * com.sitewhere.microservice.lifecycle.LifecycleComponent#stop(com.sitewhere.
+     * spi.microservice.lifecycle.ILifecycleProgressMonitor)
+     */
+    @Override
+    public void stop(ILifecycleProgressMonitor monitor) throws SiteWhereException {
+	if (rollupService != null) {
+	    rollupService.stop();
+	}
+	if (retentionService != null) {
+	    retentionService.stop();
+	}
+	if (batchWriter != null) {
+	    batchWriter.stop();
+	}
+	if (spool != null) {
+	    spool.stop();
+	}
+	warp10RestClient.getTokenManager().stop();
+	warp10RestClient.close();
+	Warp10HttpClients.release(warp10RestClient.getHttpClient());
+	super.stop(monitor);
+    }
+
+    /**
+     * Get a point from the pool. Points are encoded by {@link #insertGTS(GTSInput)}
+     * before it returns, so they can be released right after being inserted.
+     * 
+     * @return
+     */
+    public GTSInput acquireGTS() {
+	return inputPool.acquire();
     }
 
+    /**
+     * Return a point to the pool.
+     * 
+     * @param gtsInput
+     */
+    public void releaseGTS(GTSInput gtsInput) {
+	inputPool.release(gtsInput);
+    }
+
+    /**
+     * Store a point. If batching is enabled, the point is queued for delivery and
+     * {@link HttpURLConnection#HTTP_ACCEPTED} is returned, otherwise it is sent
+     * immediately and the Warp 10 response code is returned. Attributes of the
+     * point are stored through a meta update only when they change for its
+     * series. If a spool is configured, points that cannot be delivered are
+     * spooled and {@link HttpURLConnection#HTTP_ACCEPTED} is returned. Points
+     * that are stored or spooled are added to the last-value index, batched
+     * points only once their batch completes. Batches that fail without a spool
+     * are counted by the batch writer, see {@link #getBatchWriter()}.
+     * 
+     * @param gtsInput
+     * @return
+     * @throws SiteWhereException
+     */
     public int insertGTS(GTSInput gtsInput) throws SiteWhereException {
-	return warp10RestClient.ingress(gtsInput);
+	int responseCode = ingress(gtsInput);
+	if ((lastValues != null) && (batchWriter == null) && ((responseCode == HttpURLConnection.HTTP_OK)
+		|| (responseCode == HttpURLConnection.HTTP_ACCEPTED))) {
+	    lastValues.update(gtsInput);
+	}
+	return responseCode;
+    }
+
+    /**
+     * Queue, send or spool a point.
+     * 
+     * @param gtsInput
+     * @return
+     * @throws SiteWhereException
+     */
+    protected int ingress(GTSInput gtsInput) throws SiteWhereException {
+	if (batchWriter != null) {
+	    batchWriter.write(gtsInput);
+	    return HttpURLConnection.HTTP_ACCEPTED;
+	}
+	if ((spool != null) && !spool.isAvailable()) {
+	    return spool(gtsInput);
+	}
+	int responseCode;
+	try {
+	    responseCode = warp10RestClient.ingress(gtsInput);
+	} catch (SiteWhereException e) {
+	    if (spool == null) {
+		throw e;
+	    }
+	    spool.markUnavailable();
+	    return spool(gtsInput);
+	}
+	if ((spool != null) && (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR)) {
+	    spool.markUnavailable();
+	    return spool(gtsInput);
+	}
+	if (responseCode == HttpURLConnection.HTTP_OK) {
+	    sendMetadata(gtsInput);
+	}
+	return responseCode;
+    }
+
+    /**
+     * Store a list of events, encoding them directly into a single update request
+     * with a batch converter rather than creating a point for each event. If a
+     * spool is configured, events that cannot be delivered are spooled and
+     * {@link HttpURLConnection#HTTP_ACCEPTED} is returned. The last-value index
+     * is updated only once the events have been stored or spooled.
+     * 
+     * @param events
+     * @param converter
+     * @return
+     * @throws SiteWhereException
+     */
+    public <I> int insertEvents(List<? extends I> events, Warp10BatchConverter<I> converter)
+	    throws SiteWhereException {
+	if (events.isEmpty()) {
+	    return HttpURLConnection.HTTP_OK;
+	}
+	Buffer lines = new Buffer();
+	LastValueIndex.Updates updates = (lastValues != null) ? lastValues.newUpdates() : null;
+	try {
+	    converter.write(events, lines, updates);
+	} catch (IOException e) {
+	    throw new SiteWhereException("Unable to encode Warp 10 update.", e);
+	}
+	int responseCode = ingress(lines);
+	if ((updates != null) && ((responseCode == HttpURLConnection.HTTP_OK)
+		|| (responseCode == HttpURLConnection.HTTP_ACCEPTED))) {
+	    updates.apply();
+	}
+	return responseCode;
+    }
+
+    /**
+     * Send encoded lines, spooling them if Warp 10 is unavailable and a spool is
+     * configured.
+     * 
+     * @param lines
+     * @return
+     * @throws SiteWhereException
+     */
+    protected int ingress(Buffer lines) throws SiteWhereException {
+	if ((spool != null) && !spool.isAvailable()) {
+	    return spool(lines);
+	}
+	int responseCode;
+	try {
+	    responseCode = warp10RestClient.ingress(lines);
+	} catch (SiteWhereException e) {
+	    if (spool == null) {
+		throw e;
+	    }
+	    spool.markUnavailable();
+	    return spool(lines);
+	}
+	if ((spool != null) && (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR)) {
+	    spool.markUnavailable();
+	    return spool(lines);
+	}
+	return responseCode;
+    }
+
+    /**
+     * Append a point to the spool for later delivery.
+     * 
+     * @param gtsInput
+     * @return
+     * @throws SiteWhereException
+     */
+    protected int spool(GTSInput gtsInput) throws SiteWhereException {
+	Buffer lines = new Buffer();
+	try {
+	    warp10RestClient.getWriter().write(gtsInput, lines);
+	} catch (IOException e) {
+	    throw new SiteWhereException("Unable to encode Warp 10 update.", e);
+	}
+	return spool(lines);
+    }
+
+    /**
+     * Append encoded lines to the spool for later delivery.
+     * 
+     * @param lines
+     * @return
+     * @throws SiteWhereException
+     */
+    protected int spool(Buffer lines) throws SiteWhereException {
+	if (!spool.append(lines)) {
+	    throw new SiteWhereException("Warp 10 is unavailable and the update spool is full.");
+	}
+	return HttpURLConnection.HTTP_ACCEPTED;
     }
 
+    /**
+     * Create a converter for {@link #insertEvents(List, Warp10BatchConverter)}
+     * that writes measurements.
+     * 
+     * @return
+     */
+    public Warp10MeasurementBatchConverter createMeasurementConverter() {
+	return new Warp10MeasurementBatchConverter(warp10RestClient.getWriter());
+    }
+
+    /**
+     * Create a converter for {@link #insertEvents(List, Warp10BatchConverter)}
+     * that writes locations.
+     * 
+     * @return
+     */
+    public Warp10LocationBatchConverter createLocationConverter() {
+	return new Warp10LocationBatchConverter(warp10RestClient.getWriter());
+    }
+
+    /**
+     * Send the attributes of a stored point if they changed for its series. The
+     * meta update is sent asynchronously since the point has already been
+     * stored, so a failure is only logged and the attributes are sent again with
+     * the next point of the series.
+     * 
+     * @param gtsInput
+     */
+    protected void sendMetadata(GTSInput gtsInput) {
+	if (gtsInput.getAttributes() == null || gtsInput.getAttributes().isEmpty()) {
+	    return;
+	}
+	try {
+	    ByteString prefix = warp10RestClient.getWriter().getSeriesPrefix(gtsInput);
+	    Map<String, String> attributes = metadataWriter.track(gtsInput, prefix);
+	    if (attributes != null) {
+		metadataWriter.sendAsync(Collections.singletonMap(prefix, attributes));
+	    }
+	} catch (IOException e) {
+	    getLogger().error("Unable to encode Warp 10 meta update.", e);
+	}
+    }
+
+    /**
+     * Send points in a single update request without waiting for the response.
+     * The caller blocks only while the configured number of requests are already
+     * in flight.
+     * 
+     * @param gtsInputs
+     * @return future completed with the Warp 10 response code
+     */
+    public CompletableFuture<Integer> insertGTSAsync(Collection<GTSInput> gtsInputs) {
+	return warp10RestClient.ingressAsync(gtsInputs);
+    }
+
+    /**
+     * Find series matching the query without waiting for the response.
+     * 
+     * @param queryParams
+     * @return future completed with the matching series
+     */
+    public CompletableFuture<List<GTSOutput>> findGTSAsync(QueryParams queryParams) {
+	return warp10RestClient.fetchAsync(resolve(queryParams));
+    }
+
+    /**
+     * Find series matching the query. Queries that accept a coarser resolution
+     * are served from the coarsest rollup that fits, if rollups are enabled.
+     * Results for other queries with a start date are cached, so repeating a
+     * query only fetches points newer than those already cached.
+     * 
+     * @param queryParams
+     * @return
+     * @throws SiteWhereException
+     */
     public List<GTSOutput> findGTS(QueryParams queryParams) throws SiteWhereException {
-	return warp10RestClient.fetch(queryParams);
+	if (rollupService != null) {
+	    List<GTSOutput> rolledUp = rollupService.find(queryParams);
+	    if (rolledUp != null) {
+		return rolledUp;
+	    }
+	}
+	QueryParams resolved = resolve(queryParams);
+	if (fetchCache != null) {
+	    return fetchCache.find(resolved, warp10RestClient::fetch);
+	}
+	return warp10RestClient.fetch(resolved);
+    }
+
+    /**
+     * Find the latest point of each series matching the queries. Queries that
+     * identify a single series by class and exact labels are answered from the
+     * last-value index when possible. All other queries are fetched in a single
+     * request, and the series returned are added to the index.
+     * 
+     * @param queries
+     * @return
+     * @throws SiteWhereException
+     */
+    public List<GTSOutput> findLatestGTS(Collection<QueryParams> queries) throws SiteWhereException {
+	List<GTSOutput> latest = new ArrayList<>();
+	List<QueryParams> missing = new ArrayList<>();
+	for (QueryParams queryParams : queries) {
+	    GTSOutput indexed = (lastValues != null) ? lastValues.get(queryParams) : null;
+	    if (indexed != null) {
+		latest.add(indexed);
+	    } else {
+		missing.add(resolve(queryParams));
+	    }
+	}
+	if (!missing.isEmpty()) {
+	    warp10RestClient.latest(missing, series -> {
+		if (lastValues != null) {
+		    lastValues.update(series);
+		}
+		latest.add(series);
+	    });
+	}
+	return latest;
+    }
+
+    /**
+     * Find the latest point of each series matching a query.
+     * 
+     * @param queryParams
+     * @return
+     * @throws SiteWhereException
+     */
+    public List<GTSOutput> findLatestGTS(QueryParams queryParams) throws SiteWhereException {
+	return findLatestGTS(Collections.singletonList(queryParams));
+    }
+
+    /**
+     * Find series matching the query, passing each one to the handler as it is
+     * parsed rather than collecting the whole result in memory.
+     * 
+     * @param queryParams
+     * @param handler
+     * @throws SiteWhereException
+     */
+    public void findGTS(QueryParams queryParams, Consumer<GTSOutput> handler) throws SiteWhereException {
+	warp10RestClient.fetch(resolve(queryParams), handler);
+    }
+
+    /**
+     * Fetch a long time range as consecutive time shards requested in parallel.
+     * Series are returned in time order with their points in ascending timestamp
+     * order, holding only a bounded number of responses in memory. A series is
+     * returned as one fragment for each range in which it has points. Errors are
+     * thrown from the iterator as a {@link CompletionException}.
+     * 
+     * @param queryParams
+     * @return
+     */
+    public Iterator<GTSOutput> findGTSSharded(QueryParams queryParams) {
+	return new Warp10ShardedFetch(warp10RestClient::fetchAsync, resolve(queryParams),
+		getConfiguration().getFetchShardHours(), TimeUnit.HOURS, getConfiguration().getFetchParallelism(),
+		getConfiguration().getFetchPageSize());
+    }
+
+    /**
+     * Fetch a long time range as consecutive time shards requested in parallel,
+     * passing each series fragment to the handler in shard order.
+     * 
+     * @param queryParams
+     * @param handler
+     * @throws SiteWhereException
+     */
+    public void findGTSSharded(QueryParams queryParams, Consumer<GTSOutput> handler) throws SiteWhereException {
+	try {
+	    findGTSSharded(queryParams).forEachRemaining(handler);
+	} catch (CompletionException e) {
+	    if (e.getCause() instanceof SiteWhereException) {
+		throw (SiteWhereException) e.getCause();
+	    }
+	    throw new SiteWhereException("Error executing sharded Warp 10 fetch.", e.getCause());
+	}
+    }
+
+    /**
+     * Fetch a long time range as consecutive time shards requested in parallel
+     * and combine the fragments of each series, so that one series is returned
+     * per class and labels with its points in ascending timestamp order. Unlike
+     * {@link #findGTSSharded(QueryParams)}, the whole result is held in memory.
+     * 
+     * @param queryParams
+     * @return
+     * @throws SiteWhereException
+     */
+    public List<GTSOutput> findMergedGTSSharded(QueryParams queryParams) throws SiteWhereException {
+	try {
+	    return GTSOutput.merge(findGTSSharded(queryParams));
+	} catch (CompletionException e) {
+	    if (e.getCause() instanceof SiteWhereException) {
+		throw (SiteWhereException) e.getCause();
+	    }
+	    throw new SiteWhereException("Error executing sharded Warp 10 fetch.", e.getCause());
+	}
+    }
+
+    /**
+     * Rewrite a query to use exact selectors based on the series catalog. Only
+     * literal labels are rewritten if the catalog is disabled, and the original
+     * query is used if the catalog is unavailable.
+     * 
+     * @param queryParams
+     * @return
+     */
+    protected QueryParams resolve(QueryParams queryParams) {
+	if (seriesCatalog == null) {
+	    return Warp10SeriesCatalog.rewriteLabels(queryParams);
+	}
+	try {
+	    return seriesCatalog.rewrite(queryParams);
+	} catch (SiteWhereException e) {
+	    getLogger().warn("Unable to resolve Warp 10 selector from series catalog.", e);
+	    return queryParams;
+	}
+    }
+
+    /**
+     * Execute a raw delete request.
+     * 
+     * @param query
+     *            query string for the delete endpoint
+     * @return Warp 10 response code
+     * @throws SiteWhereException
+     */
+    public int deleteGTS(String query) throws SiteWhereException {
+	try {
+	    return warp10RestClient.delete(query);
+	} finally {
+	    invalidateDeleted();
+	}
+    }
+
+    /**
+     * Delete points of the series matching a query with timestamps from the start
+     * (inclusive) to the end (exclusive) of the range.
+     * 
+     * @param queryParams
+     *            class and labels of series to delete from
+     * @param start
+     * @param end
+     * @return number of series affected
+     * @throws SiteWhereException
+     */
+    public int deleteGTS(QueryParams queryParams, Date start, Date end) throws SiteWhereException {
+	try {
+	    return warp10RestClient.delete(queryParams.getSelector(), WarpScript.toMicros(start),
+		    WarpScript.toMicros(end) - 1);
+	} finally {
+	    invalidateDeleted();
+	}
+    }
+
+    /**
+     * Discard cached results and indexed last values that may include deleted
+     * points. Called whenever a delete has been attempted, since a failed request
+     * may still have deleted points.
+     */
+    public void invalidateDeleted() {
+	if (fetchCache != null) {
+	    fetchCache.invalidate();
+	}
+	if (lastValues != null) {
+	    lastValues.clear();
+	}
+    }
+
+    /**
+     * Aggregate matching series into time buckets on the server. Only the
+     * aggregated values are returned.
+     * 
+     * @param query
+     * @return
+     * @throws SiteWhereException
+     */
+    public List<GTSOutput> aggregateGTS(AggregationQuery query) throws SiteWhereException {
+	return warp10RestClient.aggregate(query);
+    }
+
+    /**
+     * Aggregate series for a query into buckets of the given span on the server.
+     * 
+     * @param queryParams
+     * @param bucketSpan
+     * @param unit
+     * @param aggregator
+     * @return
+     * @throws SiteWhereException
+     */
+    public List<GTSOutput> aggregateGTS(QueryParams queryParams, long bucketSpan, TimeUnit unit,
+	    Aggregator aggregator) throws SiteWhereException {
+	AggregationQuery query = AggregationQuery.builder();
+	query.setQueryParams(queryParams);
+	query.setBucketSpan(bucketSpan, unit);
+	query.setAggregator(aggregator);
+	return aggregateGTS(query);
+    }
+
+    /**
+     * Find points of matching series that fall within an area. Points are
+     * filtered on the server and series with no points in the area are omitted.
+     * 
+     * @param query
+     * @return
+     * @throws SiteWhereException
+     */
+    public List<GTSOutput> findGTSWithin(GeoQuery query) throws SiteWhereException {
+	if (query.getWkt() == null) {
+	    throw new SiteWhereException("Geo query has no area.");
+	}
+	return warp10RestClient.geo(query);
+    }
+
+    /**
+     * Find points of matching series that fall within a polygon.
+     * 
+     * @param queryParams
+     * @param latitudes
+     * @param longitudes
+     * @return
+     * @throws SiteWhereException
+     */
+    public List<GTSOutput> findGTSWithinPolygon(QueryParams queryParams, double[] latitudes, double[] longitudes)
+	    throws SiteWhereException {
+	GeoQuery query = GeoQuery.builder();
+	query.setQueryParams(queryParams);
+	try {
+	    query.setPolygon(latitudes, longitudes);
+	} catch (IllegalArgumentException e) {
+	    throw new SiteWhereException(e.getMessage(), e);
+	}
+	return findGTSWithin(query);
+    }
+
+    /**
+     * Find points of matching series that fall within a distance of a location.
+     * 
+     * @param queryParams
+     * @param latitude
+     * @param longitude
+     * @param meters
+     * @return
+     * @throws SiteWhereException
+     */
+    public List<GTSOutput> findGTSWithinRadius(QueryParams queryParams, double latitude, double longitude,
+	    double meters) throws SiteWhereException {
+	GeoQuery query = GeoQuery.builder();
+	query.setQueryParams(queryParams);
+	try {
+	    query.setRadius(latitude, longitude, meters);
+	} catch (IllegalArgumentException e) {
+	    throw new SiteWhereException(e.getMessage(), e);
+	}
+	return findGTSWithin(query);
     }
 
     public Warp10Configuration getConfiguration() {
 	return configuration;
     }
+
+    public Warp10RollupService getRollupService() {
+	return rollupService;
+    }
+
+    public LastValueIndex getLastValues() {
+	return lastValues;
+    }
+
+    public Warp10ConcurrencyLimiter getIngressLimiter() {
+	return warp10RestClient.getIngressLimiter();
+    }
+
+    public Warp10ConcurrencyLimiter getEgressLimiter() {
+	return warp10RestClient.getEgressLimiter();
+    }
+
+    public Warp10CircuitBreaker getCircuitBreaker() {
+	return warp10RestClient.getCircuitBreaker();
+    }
+
+    public Warp10Endpoints getIngressEndpoints() {
+	return warp10RestClient.getIngressEndpoints();
+    }
+
+    public Warp10Endpoints getEgressEndpoints() {
+	return warp10RestClient.getEgressEndpoints();
+    }
+
+    public Warp10FetchCache getFetchCache() {
+	return fetchCache;
+    }
+
+    public Warp10MetadataWriter getMetadataWriter() {
+	return metadataWriter;
+    }
+
+    public Warp10BatchWriter getBatchWriter() {
+	return batchWriter;
+    }
+
+    public Warp10SeriesCatalog getSeriesCatalog() {
+	return seriesCatalog;
+    }
+
+    public Warp10RetentionService getRetentionService() {
+	return retentionService;
+    }
+
+    public Warp10Spool getSpool() {
+	return spool;
+    }
+
+    public SeriesKeyCache getSeriesCache() {
+	return seriesCache;
+    }
 }
@@ -37,7 +37,160 @@ public class Warp10Configuration extends JsonConfiguration {
     /** Default token secret */
     private static final String DEFAULT_TOKEN_SECRET = "sitewhere";
 
-    /** Hostname */
+    /** Default max points in batch (batching disabled) */
+    private static final int DEFAULT_BATCH_CHUNK_SIZE = 0;
+
+    /** Default max encoded bytes in batch */
+    private static final int DEFAULT_BATCH_MAX_BYTES = 1024 * 1024;
+
+    /** Default max time to wait for sending batch */
+    private static final int DEFAULT_BATCH_INTERVAL_MS = 100;
+
+    /** Default payload compression */
+    private static final String DEFAULT_COMPRESSION = "none";
+
+    /** Compression setting for gzip payloads */
+    public static final String COMPRESSION_GZIP = "gzip";
+
+    /** Compression setting that also requests uncompressed responses */
+    public static final String COMPRESSION_IDENTITY = "identity";
+
+    /** Default max asynchronous requests in flight */
+    private static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 64;
+
+    /** Default number of series with cached encodings */
+    private static final int DEFAULT_SERIES_CACHE_SIZE = 10000;
+
+    /** Default max idle connections kept in the shared pool */
+    private static final int DEFAULT_MAX_IDLE_CONNECTIONS = 20;
+
+    /** Default time an idle connection is kept alive */
+    private static final int DEFAULT_KEEP_ALIVE_MS = 5 * 60 * 1000;
+
+    /** Default max concurrent HTTP requests */
+    private static final int DEFAULT_MAX_REQUESTS = 128;
+
+    /** Default max concurrent HTTP requests per host */
+    private static final int DEFAULT_MAX_REQUESTS_PER_HOST = 64;
+
+    /** Default connect timeout */
+    private static final int DEFAULT_CONNECT_TIMEOUT_MS = 10 * 1000;
+
+    /** Default read timeout */
+    private static final int DEFAULT_READ_TIMEOUT_MS = 30 * 1000;
+
+    /** Default write timeout */
+    private static final int DEFAULT_WRITE_TIMEOUT_MS = 30 * 1000;
+
+    /** Default HTTP protocol */
+    private static final String DEFAULT_PROTOCOL = "http/1.1";
+
+    /** Default length of time shards for long fetches */
+    private static final int DEFAULT_FETCH_SHARD_HOURS = 24;
+
+    /** Default number of shard requests in flight */
+    private static final int DEFAULT_FETCH_PARALLELISM = 4;
+
+    /** Default max points per series in each shard request */
+    private static final int DEFAULT_FETCH_PAGE_SIZE = 100000;
+
+    /** Default number of selectors in the series catalog (disabled) */
+    private static final int DEFAULT_SERIES_CATALOG_SIZE = 0;
+
+    /** Default time before series catalog entries are reloaded */
+    private static final int DEFAULT_SERIES_CATALOG_TTL_SECONDS = 300;
+
+    /** Default number of series with remembered attributes */
+    private static final int DEFAULT_METADATA_CACHE_SIZE = 10000;
+
+    /** Default max estimated bytes held by the fetch cache */
+    private static final int DEFAULT_FETCH_CACHE_MAX_BYTES = 0;
+
+    /** Default time after which cached fetch results are fetched again in full */
+    private static final int DEFAULT_FETCH_CACHE_TTL_SECONDS = 300;
+
+    /** Default directory for spooled updates */
+    private static final String DEFAULT_SPOOL_DIRECTORY = "/var/lib/sitewhere/warp10-spool";
+
+    /** Default max bytes held by the spool */
+    private static final long DEFAULT_SPOOL_MAX_BYTES = 0;
+
+    /** Default size of each spool segment */
+    private static final int DEFAULT_SPOOL_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    /** Default max bytes replayed in a single update request */
+    private static final int DEFAULT_SPOOL_REPLAY_BATCH_BYTES = 4 * 1024 * 1024;
+
+    /** Default interval between spool replay attempts */
+    private static final int DEFAULT_SPOOL_REPLAY_INTERVAL_MS = 1000;
+
+    /** Default initial limit of concurrent requests */
+    private static final int DEFAULT_LIMITER_INITIAL_LIMIT = 64;
+
+    /** Default lowest limit of concurrent requests */
+    private static final int DEFAULT_LIMITER_MIN_LIMIT = 8;
+
+    /** Default highest limit of concurrent requests */
+    private static final int DEFAULT_LIMITER_MAX_LIMIT = 512;
+
+    /** Default latency above which the limit is decreased */
+    private static final int DEFAULT_LIMITER_LATENCY_THRESHOLD_MS = 5000;
+
+    /** Default percentage of the limit kept when decreasing */
+    private static final int DEFAULT_LIMITER_BACKOFF_PERCENT = 90;
+
+    /** Default max time to wait for a request slot */
+    private static final int DEFAULT_LIMITER_MAX_WAIT_MS = 10000;
+
+    /** Default consecutive failures that open the circuit breaker */
+    private static final int DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD = 20;
+
+    /** Default time the circuit breaker stays open */
+    private static final int DEFAULT_CIRCUIT_BREAKER_OPEN_MS = 5000;
+
+    /** Default endpoint balancing */
+    private static final String DEFAULT_ENDPOINT_BALANCING = "round-robin";
+
+    /** Default consecutive failures after which an endpoint is ejected */
+    private static final int DEFAULT_ENDPOINT_EJECT_FAILURES = 5;
+
+    /** Default time an ejected endpoint is skipped */
+    private static final int DEFAULT_ENDPOINT_EJECT_MS = 30000;
+
+    /** Default days points are kept (purging disabled) */
+    private static final int DEFAULT_RETENTION_DAYS = 0;
+
+    /** Default interval between retention purges */
+    private static final int DEFAULT_RETENTION_INTERVAL_MINUTES = 60;
+
+    /** Default number of purge deletes run in parallel */
+    private static final int DEFAULT_RETENTION_PARALLELISM = 2;
+
+    /** Default max purge deletes started per second */
+    private static final int DEFAULT_RETENTION_MAX_DELETES_PER_SECOND = 5;
+
+    /** Default aggregations stored for each rollup level */
+    private static final String DEFAULT_ROLLUP_AGGREGATORS = "mean,min,max";
+
+    /** Default interval between rollup runs */
+    private static final int DEFAULT_ROLLUP_INTERVAL_SECONDS = 60;
+
+    /** Default time allowed for late points before a bucket is computed */
+    private static final int DEFAULT_ROLLUP_LAG_SECONDS = 60;
+
+    /** Default time covered by rollups when none exist yet */
+    private static final int DEFAULT_ROLLUP_BACKFILL_DAYS = 30;
+
+    /** Default max buckets computed per class and level in one run */
+    private static final int DEFAULT_ROLLUP_MAX_BUCKETS = 1440;
+
+    /** Default number of series with an indexed latest point */
+    private static final int DEFAULT_LAST_VALUE_INDEX_SIZE = 100000;
+
+    /** Default time an indexed latest point is trusted */
+    private static final int DEFAULT_LAST_VALUE_TTL_SECONDS = 60;
+
+    /** Hostname (or base URL if a scheme is included) */
     private String hostname;
 
     /** Port */
@@ -49,6 +202,168 @@ public class Warp10Configuration extends JsonConfiguration {
     /** Token secret */
     private String tokenSecret;
 
+    /** Max points in batch (zero disables batching) */
+    private int batchChunkSize = DEFAULT_BATCH_CHUNK_SIZE;
+
+    /** Max encoded bytes in batch */
+    private int batchMaxBytes = DEFAULT_BATCH_MAX_BYTES;
+
+    /** Max time to wait for sending batch */
+    private int batchIntervalMs = DEFAULT_BATCH_INTERVAL_MS;
+
+    /** Payload compression (none, gzip or identity) */
+    private String compression = DEFAULT_COMPRESSION;
+
+    /** Max asynchronous requests in flight before producers block */
+    private int maxInFlightRequests = DEFAULT_MAX_IN_FLIGHT_REQUESTS;
+
+    /** Number of series with cached encodings (zero disables cache) */
+    private int seriesCacheSize = DEFAULT_SERIES_CACHE_SIZE;
+
+    /** Max idle connections kept in the shared pool */
+    private int maxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+
+    /** Time an idle connection is kept alive */
+    private int keepAliveMs = DEFAULT_KEEP_ALIVE_MS;
+
+    /** Max concurrent HTTP requests */
+    private int maxRequests = DEFAULT_MAX_REQUESTS;
+
+    /** Max concurrent HTTP requests per host */
+    private int maxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+
+    /** Connect timeout (zero for none) */
+    private int connectTimeoutMs = DEFAULT_CONNECT_TIMEOUT_MS;
+
+    /** Read timeout (zero for none) */
+    private int readTimeoutMs = DEFAULT_READ_TIMEOUT_MS;
+
+    /** Write timeout (zero for none) */
+    private int writeTimeoutMs = DEFAULT_WRITE_TIMEOUT_MS;
+
+    /** HTTP protocol (http/1.1, h2 or h2_prior_knowledge) */
+    private String protocol = DEFAULT_PROTOCOL;
+
+    /** Length of time shards for long fetches */
+    private int fetchShardHours = DEFAULT_FETCH_SHARD_HOURS;
+
+    /** Number of shard requests in flight */
+    private int fetchParallelism = DEFAULT_FETCH_PARALLELISM;
+
+    /** Max points per series in each shard request (zero disables paging) */
+    private int fetchPageSize = DEFAULT_FETCH_PAGE_SIZE;
+
+    /** Number of selectors in the series catalog (zero disables catalog) */
+    private int seriesCatalogSize = DEFAULT_SERIES_CATALOG_SIZE;
+
+    /** Time before series catalog entries are reloaded */
+    private int seriesCatalogTtlSeconds = DEFAULT_SERIES_CATALOG_TTL_SECONDS;
+
+    /** Number of series with remembered attributes */
+    private int metadataCacheSize = DEFAULT_METADATA_CACHE_SIZE;
+
+    /** Max estimated bytes held by the fetch cache (zero disables cache) */
+    private int fetchCacheMaxBytes = DEFAULT_FETCH_CACHE_MAX_BYTES;
+
+    /** Time after which cached fetch results are fetched again in full (zero to keep them) */
+    private int fetchCacheTtlSeconds = DEFAULT_FETCH_CACHE_TTL_SECONDS;
+
+    /** Directory for spooled updates (a subdirectory is used for each tenant) */
+    private String spoolDirectory = DEFAULT_SPOOL_DIRECTORY;
+
+    /** Max bytes held by the spool (zero disables spool) */
+    private long spoolMaxBytes = DEFAULT_SPOOL_MAX_BYTES;
+
+    /** Size of each spool segment */
+    private int spoolSegmentBytes = DEFAULT_SPOOL_SEGMENT_BYTES;
+
+    /** Max bytes replayed in a single update request */
+    private int spoolReplayBatchBytes = DEFAULT_SPOOL_REPLAY_BATCH_BYTES;
+
+    /** Interval between spool replay attempts */
+    private int spoolReplayIntervalMs = DEFAULT_SPOOL_REPLAY_INTERVAL_MS;
+
+    /** Initial limit of concurrent writes and, separately, reads */
+    private int limiterInitialLimit = DEFAULT_LIMITER_INITIAL_LIMIT;
+
+    /** Lowest limit of concurrent requests */
+    private int limiterMinLimit = DEFAULT_LIMITER_MIN_LIMIT;
+
+    /** Highest limit of concurrent writes and reads (zero disables limiters) */
+    private int limiterMaxLimit = DEFAULT_LIMITER_MAX_LIMIT;
+
+    /** Latency above which the limit is decreased */
+    private int limiterLatencyThresholdMs = DEFAULT_LIMITER_LATENCY_THRESHOLD_MS;
+
+    /** Percentage of the limit kept when decreasing */
+    private int limiterBackoffPercent = DEFAULT_LIMITER_BACKOFF_PERCENT;
+
+    /** Max time to wait for a request slot before rejecting */
+    private int limiterMaxWaitMs = DEFAULT_LIMITER_MAX_WAIT_MS;
+
+    /** Consecutive failures that open the circuit breaker (zero disables breaker) */
+    private int circuitBreakerFailureThreshold = DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD;
+
+    /** Time the circuit breaker stays open before a trial request */
+    private int circuitBreakerOpenMs = DEFAULT_CIRCUIT_BREAKER_OPEN_MS;
+
+    /** Comma-separated ingress endpoints (hostname is used if empty) */
+    private String ingressEndpoints = "";
+
+    /** Comma-separated egress endpoints (hostname is used if empty) */
+    private String egressEndpoints = "";
+
+    /** Endpoint balancing (round-robin or least-outstanding) */
+    private String endpointBalancing = DEFAULT_ENDPOINT_BALANCING;
+
+    /** Consecutive failures after which an endpoint is ejected (zero disables) */
+    private int endpointEjectFailures = DEFAULT_ENDPOINT_EJECT_FAILURES;
+
+    /** Time an ejected endpoint is skipped */
+    private int endpointEjectMs = DEFAULT_ENDPOINT_EJECT_MS;
+
+    /** Days points are kept before being purged (zero disables purging) */
+    private int retentionDays = DEFAULT_RETENTION_DAYS;
+
+    /** Interval between retention purges */
+    private int retentionIntervalMinutes = DEFAULT_RETENTION_INTERVAL_MINUTES;
+
+    /** Number of purge deletes run in parallel */
+    private int retentionParallelism = DEFAULT_RETENTION_PARALLELISM;
+
+    /** Max purge deletes started per second (zero for no limit) */
+    private int retentionMaxDeletesPerSecond = DEFAULT_RETENTION_MAX_DELETES_PER_SECOND;
+
+    /** Comma-separated class selectors to purge (all classes if empty) */
+    private String retentionClasses = "";
+
+    /** Number of series with an indexed latest point (zero disables the index) */
+    private int lastValueIndexSize = DEFAULT_LAST_VALUE_INDEX_SIZE;
+
+    /** Time an indexed latest point is trusted after it was last changed (zero to keep it) */
+    private int lastValueTtlSeconds = DEFAULT_LAST_VALUE_TTL_SECONDS;
+
+    /** Comma-separated rollup levels such as 1m,1h,1d (rollups disabled if empty) */
+    private String rollupLevels = "";
+
+    /** Comma-separated aggregations stored for each rollup level */
+    private String rollupAggregators = DEFAULT_ROLLUP_AGGREGATORS;
+
+    /** Comma-separated class names to roll up (all classes if empty) */
+    private String rollupClasses = "";
+
+    /** Interval between rollup runs */
+    private int rollupIntervalSeconds = DEFAULT_ROLLUP_INTERVAL_SECONDS;
+
+    /** Time allowed for late points before a bucket is computed */
+    private int rollupLagSeconds = DEFAULT_ROLLUP_LAG_SECONDS;
+
+    /** Time covered by rollups when none exist yet */
+    private int rollupBackfillDays = DEFAULT_ROLLUP_BACKFILL_DAYS;
+
+    /** Max buckets computed per class and level in one run */
+    private int rollupMaxBuckets = DEFAULT_ROLLUP_MAX_BUCKETS;
+
     public Warp10Configuration(ITenantEngineLifecycleComponent component) {
 	super(component);
     }
@@ -59,9 +374,106 @@ public class Warp10Configuration extends JsonConfiguration {
 	this.port = configurableInt("port", configuration, DEFAULT_PORT);
 	this.application = configurableString("application", configuration, DEFAULT_APPLICATION);
 	this.tokenSecret = configurableString("tokenSecret", configuration, DEFAULT_TOKEN_SECRET);
+	this.batchChunkSize = configurableInt("batchChunkSize", configuration, DEFAULT_BATCH_CHUNK_SIZE);
+	this.batchMaxBytes = configurableInt("batchMaxBytes", configuration, DEFAULT_BATCH_MAX_BYTES);
+	this.batchIntervalMs = configurableInt("batchIntervalMs", configuration, DEFAULT_BATCH_INTERVAL_MS);
+	this.compression = configurableString("compression", configuration, DEFAULT_COMPRESSION);
+	this.maxInFlightRequests = configurableInt("maxInFlightRequests", configuration,
+		DEFAULT_MAX_IN_FLIGHT_REQUESTS);
+	this.seriesCacheSize = configurableInt("seriesCacheSize", configuration, DEFAULT_SERIES_CACHE_SIZE);
+	this.maxIdleConnections = configurableInt("maxIdleConnections", configuration, DEFAULT_MAX_IDLE_CONNECTIONS);
+	this.keepAliveMs = configurableInt("keepAliveMs", configuration, DEFAULT_KEEP_ALIVE_MS);
+	this.maxRequests = configurableInt("maxRequests", configuration, DEFAULT_MAX_REQUESTS);
+	this.maxRequestsPerHost = configurableInt("maxRequestsPerHost", configuration, DEFAULT_MAX_REQUESTS_PER_HOST);
+	this.connectTimeoutMs = configurableInt("connectTimeoutMs", configuration, DEFAULT_CONNECT_TIMEOUT_MS);
+	this.readTimeoutMs = configurableInt("readTimeoutMs", configuration, DEFAULT_READ_TIMEOUT_MS);
+	this.writeTimeoutMs = configurableInt("writeTimeoutMs", configuration, DEFAULT_WRITE_TIMEOUT_MS);
+	this.protocol = configurableString("protocol", configuration, DEFAULT_PROTOCOL);
+	this.fetchShardHours = configurableInt("fetchShardHours", configuration, DEFAULT_FETCH_SHARD_HOURS);
+	this.fetchParallelism = configurableInt("fetchParallelism", configuration, DEFAULT_FETCH_PARALLELISM);
+	this.fetchPageSize = configurableInt("fetchPageSize", configuration, DEFAULT_FETCH_PAGE_SIZE);
+	this.seriesCatalogSize = configurableInt("seriesCatalogSize", configuration, DEFAULT_SERIES_CATALOG_SIZE);
+	this.seriesCatalogTtlSeconds = configurableInt("seriesCatalogTtlSeconds", configuration,
+		DEFAULT_SERIES_CATALOG_TTL_SECONDS);
+	this.metadataCacheSize = configurableInt("metadataCacheSize", configuration, DEFAULT_METADATA_CACHE_SIZE);
+	this.fetchCacheMaxBytes = configurableInt("fetchCacheMaxBytes", configuration, DEFAULT_FETCH_CACHE_MAX_BYTES);
+	this.fetchCacheTtlSeconds = configurableInt("fetchCacheTtlSeconds", configuration,
+		DEFAULT_FETCH_CACHE_TTL_SECONDS);
+	this.spoolDirectory = configurableString("spoolDirectory", configuration, DEFAULT_SPOOL_DIRECTORY);
+	this.spoolMaxBytes = configurableLong("spoolMaxBytes", configuration, DEFAULT_SPOOL_MAX_BYTES);
+	this.spoolSegmentBytes = configurableInt("spoolSegmentBytes", configuration, DEFAULT_SPOOL_SEGMENT_BYTES);
+	this.spoolReplayBatchBytes = configurableInt("spoolReplayBatchBytes", configuration,
+		DEFAULT_SPOOL_REPLAY_BATCH_BYTES);
+	this.spoolReplayIntervalMs = configurableInt("spoolReplayIntervalMs", configuration,
+		DEFAULT_SPOOL_REPLAY_INTERVAL_MS);
+	this.limiterInitialLimit = configurableInt("limiterInitialLimit", configuration, DEFAULT_LIMITER_INITIAL_LIMIT);
+	this.limiterMinLimit = configurableInt("limiterMinLimit", configuration, DEFAULT_LIMITER_MIN_LIMIT);
+	this.limiterMaxLimit = configurableInt("limiterMaxLimit", configuration, DEFAULT_LIMITER_MAX_LIMIT);
+	this.limiterLatencyThresholdMs = configurableInt("limiterLatencyThresholdMs", configuration,
+		DEFAULT_LIMITER_LATENCY_THRESHOLD_MS);
+	this.limiterBackoffPercent = configurableInt("limiterBackoffPercent", configuration,
+		DEFAULT_LIMITER_BACKOFF_PERCENT);
+	this.limiterMaxWaitMs = configurableInt("limiterMaxWaitMs", configuration, DEFAULT_LIMITER_MAX_WAIT_MS);
+	this.circuitBreakerFailureThreshold = configurableInt("circuitBreakerFailureThreshold", configuration,
+		DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD);
+	this.circuitBreakerOpenMs = configurableInt("circuitBreakerOpenMs", configuration,
+		DEFAULT_CIRCUIT_BREAKER_OPEN_MS);
+	this.ingressEndpoints = configurableString("ingressEndpoints", configuration, "");
+	this.egressEndpoints = configurableString("egressEndpoints", configuration, "");
+	this.endpointBalancing = configurableString("endpointBalancing", configuration, DEFAULT_ENDPOINT_BALANCING);
+	this.endpointEjectFailures = configurableInt("endpointEjectFailures", configuration,
+		DEFAULT_ENDPOINT_EJECT_FAILURES);
+	this.endpointEjectMs = configurableInt("endpointEjectMs", configuration, DEFAULT_ENDPOINT_EJECT_MS);
+	this.retentionDays = configurableInt("retentionDays", configuration, DEFAULT_RETENTION_DAYS);
+	this.retentionIntervalMinutes = configurableInt("retentionIntervalMinutes", configuration,
+		DEFAULT_RETENTION_INTERVAL_MINUTES);
+	this.retentionParallelism = configurableInt("retentionParallelism", configuration,
+		DEFAULT_RETENTION_PARALLELISM);
+	this.retentionMaxDeletesPerSecond = configurableInt("retentionMaxDeletesPerSecond", configuration,
+		DEFAULT_RETENTION_MAX_DELETES_PER_SECOND);
+	this.retentionClasses = configurableString("retentionClasses", configuration, "");
+	this.lastValueIndexSize = configurableInt("lastValueIndexSize", configuration,
+		DEFAULT_LAST_VALUE_INDEX_SIZE);
+	this.lastValueTtlSeconds = configurableInt("lastValueTtlSeconds", configuration,
+		DEFAULT_LAST_VALUE_TTL_SECONDS);
+	this.rollupLevels = configurableString("rollupLevels", configuration, "");
+	this.rollupAggregators = configurableString("rollupAggregators", configuration,
+		DEFAULT_ROLLUP_AGGREGATORS);
+	this.rollupClasses = configurableString("rollupClasses", configuration, "");
+	this.rollupIntervalSeconds = configurableInt("rollupIntervalSeconds", configuration,
+		DEFAULT_ROLLUP_INTERVAL_SECONDS);
+	this.rollupLagSeconds = configurableInt("rollupLagSeconds", configuration, DEFAULT_ROLLUP_LAG_SECONDS);
+	this.rollupBackfillDays = configurableInt("rollupBackfillDays", configuration,
+		DEFAULT_ROLLUP_BACKFILL_DAYS);
+	this.rollupMaxBuckets = configurableInt("rollupMaxBuckets", configuration, DEFAULT_ROLLUP_MAX_BUCKETS);
 	return warp10;
     }
 
+    /**
+     * Get a byte size that may be larger than an int holds. Negative or
+     * unparseable values are rejected.
+     *
+     * @param fieldName
+     * @param configuration
+     * @param defaultValue
+     * @return
+     * @throws SiteWhereException
+     */
+    protected long configurableLong(String fieldName, JsonNode configuration, long defaultValue)
+	    throws SiteWhereException {
+	String value = configurableString(fieldName, configuration, String.valueOf(defaultValue)).trim();
+	long parsed;
+	try {
+	    parsed = Long.parseLong(value);
+	} catch (NumberFormatException e) {
+	    throw new SiteWhereException("Invalid value '" + value + "' for '" + fieldName + "'.", e);
+	}
+	if (parsed < 0) {
+	    throw new SiteWhereException("Value for '" + fieldName + "' can not be negative.");
+	}
+	return parsed;
+    }
+
     public String getHostname() {
 	return hostname;
     }
@@ -93,4 +505,444 @@ public class Warp10Configuration extends JsonConfiguration {
     public void setTokenSecret(String tokenSecret) {
 	this.tokenSecret = tokenSecret;
     }
+
+    public int getBatchChunkSize() {
+	return batchChunkSize;
+    }
+
+    public void setBatchChunkSize(int batchChunkSize) {
+	this.batchChunkSize = batchChunkSize;
+    }
+
+    public int getBatchMaxBytes() {
+	return batchMaxBytes;
+    }
+
+    public void setBatchMaxBytes(int batchMaxBytes) {
+	this.batchMaxBytes = batchMaxBytes;
+    }
+
+    public int getBatchIntervalMs() {
+	return batchIntervalMs;
+    }
+
+    public void setBatchIntervalMs(int batchIntervalMs) {
+	this.batchIntervalMs = batchIntervalMs;
+    }
+
+    public String getCompression() {
+	return compression;
+    }
+
+    public void setCompression(String compression) {
+	this.compression = compression;
+    }
+
+    public boolean isGzipCompression() {
+	return COMPRESSION_GZIP.equalsIgnoreCase(compression);
+    }
+
+    public boolean isIdentityCompression() {
+	return COMPRESSION_IDENTITY.equalsIgnoreCase(compression);
+    }
+
+    public int getMaxInFlightRequests() {
+	return maxInFlightRequests;
+    }
+
+    public void setMaxInFlightRequests(int maxInFlightRequests) {
+	this.maxInFlightRequests = maxInFlightRequests;
+    }
+
+    public int getSeriesCacheSize() {
+	return seriesCacheSize;
+    }
+
+    public void setSeriesCacheSize(int seriesCacheSize) {
+	this.seriesCacheSize = seriesCacheSize;
+    }
+
+    public int getMaxIdleConnections() {
+	return maxIdleConnections;
+    }
+
+    public void setMaxIdleConnections(int maxIdleConnections) {
+	this.maxIdleConnections = maxIdleConnections;
+    }
+
+    public int getKeepAliveMs() {
+	return keepAliveMs;
+    }
+
+    public void setKeepAliveMs(int keepAliveMs) {
+	this.keepAliveMs = keepAliveMs;
+    }
+
+    public int getMaxRequests() {
+	return maxRequests;
+    }
+
+    public void setMaxRequests(int maxRequests) {
+	this.maxRequests = maxRequests;
+    }
+
+    public int getMaxRequestsPerHost() {
+	return maxRequestsPerHost;
+    }
+
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+	this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    public int getConnectTimeoutMs() {
+	return connectTimeoutMs;
+    }
+
+    public void setConnectTimeoutMs(int connectTimeoutMs) {
+	this.connectTimeoutMs = connectTimeoutMs;
+    }
+
+    public int getReadTimeoutMs() {
+	return readTimeoutMs;
+    }
+
+    public void setReadTimeoutMs(int readTimeoutMs) {
+	this.readTimeoutMs = readTimeoutMs;
+    }
+
+    public int getWriteTimeoutMs() {
+	return writeTimeoutMs;
+    }
+
+    public void setWriteTimeoutMs(int writeTimeoutMs) {
+	this.writeTimeoutMs = writeTimeoutMs;
+    }
+
+    public String getProtocol() {
+	return protocol;
+    }
+
+    public void setProtocol(String protocol) {
+	this.protocol = protocol;
+    }
+
+    public int getFetchShardHours() {
+	return fetchShardHours;
+    }
+
+    public void setFetchShardHours(int fetchShardHours) {
+	this.fetchShardHours = fetchShardHours;
+    }
+
+    public int getFetchParallelism() {
+	return fetchParallelism;
+    }
+
+    public void setFetchParallelism(int fetchParallelism) {
+	this.fetchParallelism = fetchParallelism;
+    }
+
+    public int getFetchPageSize() {
+	return fetchPageSize;
+    }
+
+    public void setFetchPageSize(int fetchPageSize) {
+	this.fetchPageSize = fetchPageSize;
+    }
+
+    public int getSeriesCatalogSize() {
+	return seriesCatalogSize;
+    }
+
+    public void setSeriesCatalogSize(int seriesCatalogSize) {
+	this.seriesCatalogSize = seriesCatalogSize;
+    }
+
+    public int getSeriesCatalogTtlSeconds() {
+	return seriesCatalogTtlSeconds;
+    }
+
+    public void setSeriesCatalogTtlSeconds(int seriesCatalogTtlSeconds) {
+	this.seriesCatalogTtlSeconds = seriesCatalogTtlSeconds;
+    }
+
+    public int getMetadataCacheSize() {
+	return metadataCacheSize;
+    }
+
+    public void setMetadataCacheSize(int metadataCacheSize) {
+	this.metadataCacheSize = metadataCacheSize;
+    }
+
+    public int getFetchCacheMaxBytes() {
+	return fetchCacheMaxBytes;
+    }
+
+    public void setFetchCacheMaxBytes(int fetchCacheMaxBytes) {
+	this.fetchCacheMaxBytes = fetchCacheMaxBytes;
+    }
+
+    public String getSpoolDirectory() {
+	return spoolDirectory;
+    }
+
+    public void setSpoolDirectory(String spoolDirectory) {
+	this.spoolDirectory = spoolDirectory;
+    }
+
+    public long getSpoolMaxBytes() {
+	return spoolMaxBytes;
+    }
+
+    public void setSpoolMaxBytes(long spoolMaxBytes) {
+	this.spoolMaxBytes = spoolMaxBytes;
+    }
+
+    public int getSpoolSegmentBytes() {
+	return spoolSegmentBytes;
+    }
+
+    public void setSpoolSegmentBytes(int spoolSegmentBytes) {
+	this.spoolSegmentBytes = spoolSegmentBytes;
+    }
+
+    public int getSpoolReplayBatchBytes() {
+	return spoolReplayBatchBytes;
+    }
+
+    public void setSpoolReplayBatchBytes(int spoolReplayBatchBytes) {
+	this.spoolReplayBatchBytes = spoolReplayBatchBytes;
+    }
+
+    public int getSpoolReplayIntervalMs() {
+	return spoolReplayIntervalMs;
+    }
+
+    public void setSpoolReplayIntervalMs(int spoolReplayIntervalMs) {
+	this.spoolReplayIntervalMs = spoolReplayIntervalMs;
+    }
+
+    public int getLimiterInitialLimit() {
+	return limiterInitialLimit;
+    }
+
+    public void setLimiterInitialLimit(int limiterInitialLimit) {
+	this.limiterInitialLimit = limiterInitialLimit;
+    }
+
+    public int getLimiterMinLimit() {
+	return limiterMinLimit;
+    }
+
+    public void setLimiterMinLimit(int limiterMinLimit) {
+	this.limiterMinLimit = limiterMinLimit;
+    }
+
+    public int getLimiterMaxLimit() {
+	return limiterMaxLimit;
+    }
+
+    public void setLimiterMaxLimit(int limiterMaxLimit) {
+	this.limiterMaxLimit = limiterMaxLimit;
+    }
+
+    public int getLimiterLatencyThresholdMs() {
+	return limiterLatencyThresholdMs;
+    }
+
+    public void setLimiterLatencyThresholdMs(int limiterLatencyThresholdMs) {
+	this.limiterLatencyThresholdMs = limiterLatencyThresholdMs;
+    }
+
+    public int getLimiterBackoffPercent() {
+	return limiterBackoffPercent;
+    }
+
+    public void setLimiterBackoffPercent(int limiterBackoffPercent) {
+	this.limiterBackoffPercent = limiterBackoffPercent;
+    }
+
+    public int getLimiterMaxWaitMs() {
+	return limiterMaxWaitMs;
+    }
+
+    public void setLimiterMaxWaitMs(int limiterMaxWaitMs) {
+	this.limiterMaxWaitMs = limiterMaxWaitMs;
+    }
+
+    public int getCircuitBreakerFailureThreshold() {
+	return circuitBreakerFailureThreshold;
+    }
+
+    public void setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+	this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+    }
+
+    public int getCircuitBreakerOpenMs() {
+	return circuitBreakerOpenMs;
+    }
+
+    public void setCircuitBreakerOpenMs(int circuitBreakerOpenMs) {
+	this.circuitBreakerOpenMs = circuitBreakerOpenMs;
+    }
+
+    public String getIngressEndpoints() {
+	return ingressEndpoints;
+    }
+
+    public void setIngressEndpoints(String ingressEndpoints) {
+	this.ingressEndpoints = ingressEndpoints;
+    }
+
+    public String getEgressEndpoints() {
+	return egressEndpoints;
+    }
+
+    public void setEgressEndpoints(String egressEndpoints) {
+	this.egressEndpoints = egressEndpoints;
+    }
+
+    public String getEndpointBalancing() {
+	return endpointBalancing;
+    }
+
+    public void setEndpointBalancing(String endpointBalancing) {
+	this.endpointBalancing = endpointBalancing;
+    }
+
+    public int getEndpointEjectFailures() {
+	return endpointEjectFailures;
+    }
+
+    public void setEndpointEjectFailures(int endpointEjectFailures) {
+	this.endpointEjectFailures = endpointEjectFailures;
+    }
+
+    public int getEndpointEjectMs() {
+	return endpointEjectMs;
+    }
+
+    public void setEndpointEjectMs(int endpointEjectMs) {
+	this.endpointEjectMs = endpointEjectMs;
+    }
+
+    public int getRetentionDays() {
+	return retentionDays;
+    }
+
+    public void setRetentionDays(int retentionDays) {
+	this.retentionDays = retentionDays;
+    }
+
+    public int getRetentionIntervalMinutes() {
+	return retentionIntervalMinutes;
+    }
+
+    public void setRetentionIntervalMinutes(int retentionIntervalMinutes) {
+	this.retentionIntervalMinutes = retentionIntervalMinutes;
+    }
+
+    public int getRetentionParallelism() {
+	return retentionParallelism;
+    }
+
+    public void setRetentionParallelism(int retentionParallelism) {
+	this.retentionParallelism = retentionParallelism;
+    }
+
+    public int getRetentionMaxDeletesPerSecond() {
+	return retentionMaxDeletesPerSecond;
+    }
+
+    public void setRetentionMaxDeletesPerSecond(int retentionMaxDeletesPerSecond) {
+	this.retentionMaxDeletesPerSecond = retentionMaxDeletesPerSecond;
+    }
+
+    public String getRetentionClasses() {
+	return retentionClasses;
+    }
+
+    public void setRetentionClasses(String retentionClasses) {
+	this.retentionClasses = retentionClasses;
+    }
+
+    public int getLastValueIndexSize() {
+	return lastValueIndexSize;
+    }
+
+    public void setLastValueIndexSize(int lastValueIndexSize) {
+	this.lastValueIndexSize = lastValueIndexSize;
+    }
+
+    public int getLastValueTtlSeconds() {
+	return lastValueTtlSeconds;
+    }
+
+    public void setLastValueTtlSeconds(int lastValueTtlSeconds) {
+	this.lastValueTtlSeconds = lastValueTtlSeconds;
+    }
+
+    public String getRollupLevels() {
+	return rollupLevels;
+    }
+
+    public void setRollupLevels(String rollupLevels) {
+	this.rollupLevels = rollupLevels;
+    }
+
+    public String getRollupAggregators() {
+	return rollupAggregators;
+    }
+
+    public void setRollupAggregators(String rollupAggregators) {
+	this.rollupAggregators = rollupAggregators;
+    }
+
+    public String getRollupClasses() {
+	return rollupClasses;
+    }
+
+    public void setRollupClasses(String rollupClasses) {
+	this.rollupClasses = rollupClasses;
+    }
+
+    public int getRollupIntervalSeconds() {
+	return rollupIntervalSeconds;
+    }
+
+    public void setRollupIntervalSeconds(int rollupIntervalSeconds) {
+	this.rollupIntervalSeconds = rollupIntervalSeconds;
+    }
+
+    public int getRollupLagSeconds() {
+	return rollupLagSeconds;
+    }
+
+    public void setRollupLagSeconds(int rollupLagSeconds) {
+	this.rollupLagSeconds = rollupLagSeconds;
+    }
+
+    public int getRollupBackfillDays() {
+	return rollupBackfillDays;
+    }
+
+    public void setRollupBackfillDays(int rollupBackfillDays) {
+	this.rollupBackfillDays = rollupBackfillDays;
+    }
+
+    public int getRollupMaxBuckets() {
+	return rollupMaxBuckets;
+    }
+
+    public void setRollupMaxBuckets(int rollupMaxBuckets) {
+	this.rollupMaxBuckets = rollupMaxBuckets;
+    }
+
+    public int getFetchCacheTtlSeconds() {
+	return fetchCacheTtlSeconds;
+    }
+
+    public void setFetchCacheTtlSeconds(int fetchCacheTtlSeconds) {
+	this.fetchCacheTtlSeconds = fetchCacheTtlSeconds;
+    }
 }
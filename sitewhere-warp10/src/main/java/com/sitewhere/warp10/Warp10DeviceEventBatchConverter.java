@@ -0,0 +1,243 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.sitewhere.spi.SiteWhereException;
+import com.sitewhere.spi.device.event.IDeviceEvent;
+import com.sitewhere.warp10.rest.GTSInputWriter;
+import com.sitewhere.warp10.rest.GTSOutput.ValueType;
+import com.sitewhere.warp10.rest.LastValueIndex;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+
+/**
+ * Base class for batch converters that write device events as points of a
+ * series identified by class name and device assignment. Encoded series
+ * prefixes are cached per assignment, and consecutive events of the same
+ * series are written as continuation lines. Each point written is added to the
+ * {@link LastValueIndex.Updates} passed in, if any, to be indexed once the
+ * update has been stored.
+ *
+ * @param <I>
+ */
+public abstract class Warp10DeviceEventBatchConverter<I extends IDeviceEvent> implements Warp10BatchConverter<I> {
+
+    /** Label holding the device id */
+    public static final String LABEL_DEVICE_ID = "deviceId";
+
+    /** Label holding the device assignment id */
+    public static final String LABEL_ASSIGNMENT_ID = "assignmentId";
+
+    /** Default max number of assignments with cached prefixes */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    /** Writer for update lines */
+    private GTSInputWriter writer;
+
+    /** Max number of assignments with cached prefixes */
+    private int capacity;
+
+    /** Series by assignment and class name in access order */
+    private LinkedHashMap<UUID, Map<String, Series>> series;
+
+    public Warp10DeviceEventBatchConverter(GTSInputWriter writer) {
+	this(writer, DEFAULT_CAPACITY);
+    }
+
+    public Warp10DeviceEventBatchConverter(GTSInputWriter writer, int capacity) {
+	this.writer = writer;
+	this.capacity = capacity;
+	this.series = new LinkedHashMap<UUID, Map<String, Series>>(16, 0.75f, true) {
+
+	    private static final long serialVersionUID = 1L;
+
+	    @Override
+	    protected boolean removeEldestEntry(Map.Entry<UUID, Map<String, Series>> eldest) {
+		return size() > Warp10DeviceEventBatchConverter.this.capacity;
+	    }
+	};
+    }
+
+    /*
+     * @see com.sitewhere.warp10.Warp10BatchConverter#write(java.util.List,
+     * okio.BufferedSink, com.sitewhere.warp10.rest.LastValueIndex.Updates)
+     */
+    @Override
+    public int write(List<? extends I> sources, BufferedSink sink, LastValueIndex.Updates updates)
+	    throws SiteWhereException, IOException {
+	Series previous = null;
+	for (int i = 0; i < sources.size(); i++) {
+	    I event = sources.get(i);
+	    if (event.getEventDate() == null) {
+		throw new SiteWhereException("Device event has no event date.");
+	    }
+	    Series current = getSeries(event);
+	    long timestamp = event.getEventDate().getTime() * 1000;
+	    writePoint(event, timestamp, current, current == previous, sink, updates);
+	    previous = current;
+	}
+	return sources.size();
+    }
+
+    /**
+     * Write a single point using {@link GTSInputWriter#beginPoint} followed by
+     * one of the <code>endPoint</code> methods, then pass it to
+     * {@link #index(LastValueIndex.Updates, Series, long, double, double, double, ValueType, long, double)}.
+     *
+     * @param event
+     * @param timestamp
+     *            timestamp in microseconds
+     * @param series
+     * @param continuation
+     *            true if the previous point was in the same series
+     * @param sink
+     * @param updates
+     *            collects points for the last-value index (may be null)
+     * @throws SiteWhereException
+     * @throws IOException
+     */
+    protected abstract void writePoint(I event, long timestamp, Series series, boolean continuation,
+	    BufferedSink sink, LastValueIndex.Updates updates) throws SiteWhereException, IOException;
+
+    /**
+     * Collect a written point for the last-value index if updates are collected.
+     *
+     * @param updates
+     * @param series
+     * @param timestamp
+     * @param latitude
+     * @param longitude
+     * @param elevation
+     * @param type
+     * @param longValue
+     * @param doubleValue
+     */
+    protected void index(LastValueIndex.Updates updates, Series series, long timestamp, double latitude,
+	    double longitude, double elevation, ValueType type, long longValue, double doubleValue) {
+	if (updates != null) {
+	    updates.add(series.getClassName(), series.getLabels(), timestamp, latitude, longitude, elevation, type,
+		    longValue, doubleValue, null);
+	}
+    }
+
+    /**
+     * Get the class name for the series an event belongs to.
+     *
+     * @param event
+     * @return
+     * @throws SiteWhereException
+     */
+    protected abstract String getClassName(I event) throws SiteWhereException;
+
+    /**
+     * Get the series of an event, encoding its <code>CLASS{LABELS}</code> prefix
+     * on first use.
+     *
+     * @param event
+     * @return
+     * @throws SiteWhereException
+     * @throws IOException
+     */
+    protected Series getSeries(I event) throws SiteWhereException, IOException {
+	UUID assignmentId = event.getDeviceAssignmentId();
+	if ((assignmentId == null) || (event.getDeviceId() == null)) {
+	    throw new SiteWhereException("Device event has no device or assignment.");
+	}
+	String className = getClassName(event);
+	synchronized (series) {
+	    Map<String, Series> byClass = series.get(assignmentId);
+	    if (byClass == null) {
+		byClass = new HashMap<>();
+		series.put(assignmentId, byClass);
+	    }
+	    Series found = byClass.get(className);
+	    if (found == null) {
+		Map<String, String> labels = new HashMap<>();
+		labels.put(LABEL_DEVICE_ID, event.getDeviceId().toString());
+		labels.put(LABEL_ASSIGNMENT_ID, assignmentId.toString());
+		found = new Series(className, labels, encodeSeries(className, event));
+		byClass.put(className, found);
+	    }
+	    return found;
+	}
+    }
+
+    /**
+     * Encode the class name and labels for a series.
+     *
+     * @param className
+     * @param event
+     * @return
+     * @throws IOException
+     */
+    protected ByteString encodeSeries(String className, I event) throws IOException {
+	Buffer buffer = new Buffer();
+	GTSInputWriter.writeEncoded(className, buffer);
+	buffer.writeByte('{');
+	buffer.writeUtf8(LABEL_DEVICE_ID).writeByte('=').writeUtf8(event.getDeviceId().toString());
+	buffer.writeByte(',');
+	buffer.writeUtf8(LABEL_ASSIGNMENT_ID).writeByte('=').writeUtf8(event.getDeviceAssignmentId().toString());
+	buffer.writeByte('}');
+	return buffer.readByteString();
+    }
+
+    public GTSInputWriter getWriter() {
+	return writer;
+    }
+
+    public int getCapacity() {
+	return capacity;
+    }
+
+    /**
+     * Class name and labels of a series along with its encoded prefix.
+     */
+    protected static class Series {
+
+	private String className;
+
+	private Map<String, String> labels;
+
+	private ByteString prefix;
+
+	public Series(String className, Map<String, String> labels, ByteString prefix) {
+	    this.className = className;
+	    this.labels = labels;
+	    this.prefix = prefix;
+	}
+
+	public String getClassName() {
+	    return className;
+	}
+
+	public Map<String, String> getLabels() {
+	    return labels;
+	}
+
+	public ByteString getPrefix() {
+	    return prefix;
+	}
+    }
+}
@@ -0,0 +1,390 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.sitewhere.spi.SiteWhereException;
+import com.sitewhere.warp10.rest.GTSOutput;
+import com.sitewhere.warp10.rest.QueryParams;
+import com.sitewhere.warp10.rest.Warp10Metrics;
+
+/**
+ * Memory-bounded cache of fetch results for queries with a start date, keyed by
+ * selector. When a cached selector is requested again with a window that
+ * starts within the cached range, only points newer than the latest cached
+ * point are fetched and merged into the cached series. Points older than the
+ * requested window are dropped, so a moving dashboard window keeps a constant
+ * footprint. Least recently used entries are evicted once the estimated size
+ * of cached points exceeds the limit.
+ * <p>
+ * Points written late with timestamps older than the latest cached point are
+ * not picked up by the tail refresh. To bound that staleness, an entry is
+ * fetched again in full once it is older than the configured time to live.
+ * Entries must be invalidated when points are deleted. Because of this
+ * staleness the cache is only enabled when a size is configured.
+ * <p>
+ * Results are returned as copies, including labels and attributes, so callers
+ * may modify them without affecting cached entries. Lookup outcomes and the
+ * bytes held are recorded in {@link Warp10Metrics} if configured.
+ */
+public class Warp10FetchCache {
+
+    /** Max estimated bytes of cached points */
+    private long maxBytes;
+
+    /** Time after which an entry is fetched again in full (zero to keep it) */
+    private long ttlMs;
+
+    /** Cached results in access order */
+    private LinkedHashMap<String, CachedResult> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Estimated bytes of cached points */
+    private long bytesHeld;
+
+    /** Number of requests answered entirely from the cache */
+    private long hits;
+
+    /** Number of requests answered from the cache after fetching newer points */
+    private long tailRefreshes;
+
+    /** Number of requests that required a full fetch */
+    private long misses;
+
+    /** Number of entries evicted to stay within the size limit */
+    private long evictions;
+
+    /** Records lookup outcomes and size (optional) */
+    private Warp10Metrics metrics;
+
+    public Warp10FetchCache(long maxBytes, long ttlMs, Warp10Metrics metrics) {
+	this.maxBytes = maxBytes;
+	this.ttlMs = ttlMs;
+	this.metrics = metrics;
+    }
+
+    /**
+     * Indicates whether results for a query can be cached. Only queries with a
+     * start date and no paging or explicit range are cached.
+     *
+     * @param queryParams
+     * @return
+     */
+    public boolean isCacheable(QueryParams queryParams) {
+	return queryParams.getStartDate() != null && queryParams.getEndTimestamp() == null
+		&& queryParams.getCount() == null && queryParams.getSkip() == null;
+    }
+
+    /**
+     * Get series matching a query, fetching only what is not already cached.
+     *
+     * @param queryParams
+     * @param fetcher
+     * @return
+     * @throws SiteWhereException
+     */
+    public List<GTSOutput> find(QueryParams queryParams, Fetcher fetcher) throws SiteWhereException {
+	if (!isCacheable(queryParams)) {
+	    return fetcher.fetch(queryParams);
+	}
+	String selector = queryParams.getSelector();
+	long start = toMicros(queryParams.getStartDate().getTime());
+	long end = toMicros(
+		(queryParams.getEndDate() != null) ? queryParams.getEndDate().getTime() : System.currentTimeMillis());
+
+	CachedResult cached;
+	synchronized (this) {
+	    cached = entries.get(selector);
+	}
+
+	CachedResult updated;
+	if (cached == null || cached.getStart() > start || isExpired(cached)) {
+	    updated = new CachedResult(fetcher.fetch(queryParams), start, end);
+	    count(Outcome.MISS);
+	} else if (end > cached.getEnd()) {
+	    long from = Math.max(cached.getLatest(), cached.getStart() - 1);
+	    QueryParams tail = queryParams.copy();
+	    tail.setStartDate(null);
+	    tail.setEndDate(null);
+	    tail.setRange(end, end - from);
+	    updated = cached.merge(fetcher.fetch(tail), start, end);
+	    count(Outcome.TAIL_REFRESH);
+	} else {
+	    count(Outcome.HIT);
+	    return cached.select(start, end);
+	}
+
+	store(selector, cached, updated);
+	return updated.select(start, end);
+    }
+
+    /**
+     * Replace a cached result and evict least recently used results until the
+     * size limit is met. Results larger than the limit are not cached.
+     *
+     * @param selector
+     * @param previous
+     * @param updated
+     */
+    protected synchronized void store(String selector, CachedResult previous, CachedResult updated) {
+	CachedResult current = entries.get(selector);
+	if (current != null && current != previous) {
+	    // Another thread stored a result in the meantime.
+	    return;
+	}
+	if (current != null) {
+	    entries.remove(selector);
+	    bytesHeld -= current.getBytes();
+	}
+	if (updated.getBytes() <= maxBytes) {
+	    entries.put(selector, updated);
+	    bytesHeld += updated.getBytes();
+	    Iterator<CachedResult> lru = entries.values().iterator();
+	    while (bytesHeld > maxBytes && lru.hasNext()) {
+		bytesHeld -= lru.next().getBytes();
+		lru.remove();
+		evictions++;
+		if (metrics != null) {
+		    metrics.fetchCacheEvicted();
+		}
+	    }
+	}
+	if (metrics != null) {
+	    metrics.fetchCacheBytes(bytesHeld);
+	}
+    }
+
+    /**
+     * Indicates whether a result was fully fetched longer ago than the time to
+     * live.
+     *
+     * @param cached
+     * @return
+     */
+    protected boolean isExpired(CachedResult cached) {
+	return ttlMs > 0 && System.currentTimeMillis() - cached.getFetchedAt() >= ttlMs;
+    }
+
+    private synchronized void count(Outcome outcome) {
+	switch (outcome) {
+	case HIT:
+	    hits++;
+	    if (metrics != null) {
+		metrics.fetchCacheHit();
+	    }
+	    break;
+	case TAIL_REFRESH:
+	    tailRefreshes++;
+	    if (metrics != null) {
+		metrics.fetchCacheTailRefresh();
+	    }
+	    break;
+	default:
+	    misses++;
+	    if (metrics != null) {
+		metrics.fetchCacheMiss();
+	    }
+	}
+    }
+
+    /**
+     * Discard all cached results.
+     */
+    public synchronized void invalidate() {
+	entries.clear();
+	bytesHeld = 0;
+	if (metrics != null) {
+	    metrics.fetchCacheBytes(0);
+	}
+    }
+
+    private static long toMicros(long millis) {
+	return TimeUnit.MILLISECONDS.toMicros(millis);
+    }
+
+    /**
+     * Get the fraction of requests served without a full fetch.
+     *
+     * @return
+     */
+    public synchronized double getHitRatio() {
+	long total = hits + tailRefreshes + misses;
+	return (total == 0) ? 0 : (double) (hits + tailRefreshes) / total;
+    }
+
+    public synchronized int size() {
+	return entries.size();
+    }
+
+    public long getMaxBytes() {
+	return maxBytes;
+    }
+
+    public synchronized long getBytesHeld() {
+	return bytesHeld;
+    }
+
+    public synchronized long getHits() {
+	return hits;
+    }
+
+    public synchronized long getTailRefreshes() {
+	return tailRefreshes;
+    }
+
+    public synchronized long getMisses() {
+	return misses;
+    }
+
+    public synchronized long getEvictions() {
+	return evictions;
+    }
+
+    /**
+     * Executes a fetch for the cache.
+     */
+    @FunctionalInterface
+    public interface Fetcher {
+
+	public List<GTSOutput> fetch(QueryParams queryParams) throws SiteWhereException;
+    }
+
+    /**
+     * Outcome of a cache lookup.
+     */
+    private static enum Outcome {
+	HIT, TAIL_REFRESH, MISS
+    }
+
+    /**
+     * Series fetched for a selector along with the range they cover. Instances
+     * are not modified once created.
+     */
+    protected static class CachedResult {
+
+	/** Series indexed by class and labels */
+	private Map<List<Object>, GTSOutput> series = new LinkedHashMap<>();
+
+	/** First timestamp covered */
+	private long start;
+
+	/** Last timestamp covered */
+	private long end;
+
+	/** Latest timestamp of any cached point */
+	private long latest = Long.MIN_VALUE;
+
+	/** Estimated bytes of cached points */
+	private long bytes;
+
+	/** Time of the full fetch the result is based on */
+	private long fetchedAt;
+
+	public CachedResult(List<GTSOutput> fetched, long start, long end) {
+	    this.start = start;
+	    this.end = end;
+	    this.fetchedAt = System.currentTimeMillis();
+	    for (GTSOutput gts : fetched) {
+		add(gts);
+	    }
+	}
+
+	private CachedResult(long start, long end, long fetchedAt) {
+	    this.start = start;
+	    this.end = end;
+	    this.fetchedAt = fetchedAt;
+	}
+
+	private void add(GTSOutput gts) {
+	    series.put(getKey(gts), gts);
+	    latest = Math.max(latest, gts.getLatestTimestamp());
+	    bytes += gts.estimateSize();
+	}
+
+	/**
+	 * Create a result with newer points added to the cached series and points
+	 * before the new start removed. Warp 10 returns the most recent points first,
+	 * so newer points are placed ahead of cached ones.
+	 *
+	 * @param newer
+	 * @param newStart
+	 * @param newEnd
+	 * @return
+	 */
+	public CachedResult merge(List<GTSOutput> newer, long newStart, long newEnd) {
+	    CachedResult merged = new CachedResult(newStart, newEnd, fetchedAt);
+	    Map<List<Object>, GTSOutput> remaining = new LinkedHashMap<>(series);
+	    for (GTSOutput gts : newer) {
+		GTSOutput existing = remaining.remove(getKey(gts));
+		GTSOutput combined = (existing != null) ? GTSOutput.concat(gts, existing) : gts;
+		merged.add(combined.select(newStart, newEnd));
+	    }
+	    for (GTSOutput gts : remaining.values()) {
+		merged.add((gts.size() > 0 && start < newStart) ? gts.select(newStart, newEnd) : gts);
+	    }
+	    return merged;
+	}
+
+	/**
+	 * Get copies of the cached series restricted to a range. Series without
+	 * points in the range are omitted.
+	 *
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public List<GTSOutput> select(long from, long to) {
+	    List<GTSOutput> selected = new ArrayList<>();
+	    for (GTSOutput gts : series.values()) {
+		GTSOutput points = gts.copy(from, to);
+		if (points.size() > 0) {
+		    selected.add(points);
+		}
+	    }
+	    return selected;
+	}
+
+	private static List<Object> getKey(GTSOutput gts) {
+	    return Arrays.asList(gts.getClassName(), gts.getLabels());
+	}
+
+	public long getStart() {
+	    return start;
+	}
+
+	public long getEnd() {
+	    return end;
+	}
+
+	public long getLatest() {
+	    return latest;
+	}
+
+	public long getBytes() {
+	    return bytes;
+	}
+
+	public long getFetchedAt() {
+	    return fetchedAt;
+	}
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import com.sitewhere.spi.SiteWhereException;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * Provides HTTP clients shared by all Warp 10 connections in the microservice.
+ * Tenants with the same connection settings share a single connection pool and
+ * dispatcher rather than each creating their own. Clients are counted by the
+ * number of connections using them and shut down once the last one releases
+ * its client, for instance after a tenant's settings have changed.
+ */
+public class Warp10HttpClients {
+
+    /** Shared clients indexed by connection settings */
+    private static final Map<Settings, SharedClient> CLIENTS = new HashMap<>();
+
+    /**
+     * Get the shared client for the given configuration, creating it on first
+     * use. Each call must be matched by a call to {@link #release(OkHttpClient)}.
+     *
+     * @param configuration
+     * @return
+     * @throws SiteWhereException
+     */
+    public static synchronized OkHttpClient getClient(Warp10Configuration configuration) throws SiteWhereException {
+	Settings settings = new Settings(configuration);
+	SharedClient shared = CLIENTS.get(settings);
+	if (shared == null) {
+	    shared = new SharedClient(createClient(settings));
+	    CLIENTS.put(settings, shared);
+	}
+	shared.users++;
+	return shared.client;
+    }
+
+    /**
+     * Release a client obtained from {@link #getClient(Warp10Configuration)}. The
+     * client is removed and its dispatcher and idle connections are shut down once
+     * no connection uses it.
+     *
+     * @param client
+     */
+    public static synchronized void release(OkHttpClient client) {
+	Iterator<SharedClient> it = CLIENTS.values().iterator();
+	while (it.hasNext()) {
+	    SharedClient shared = it.next();
+	    if (shared.client == client) {
+		if (--shared.users == 0) {
+		    it.remove();
+		    client.dispatcher().executorService().shutdown();
+		    client.connectionPool().evictAll();
+		}
+		return;
+	    }
+	}
+    }
+
+    /**
+     * Create a client with its own connection pool and dispatcher.
+     *
+     * @param settings
+     * @return
+     * @throws SiteWhereException
+     */
+    protected static OkHttpClient createClient(Settings settings) throws SiteWhereException {
+	Dispatcher dispatcher = new Dispatcher();
+	dispatcher.setMaxRequests(settings.maxRequests);
+	dispatcher.setMaxRequestsPerHost(settings.maxRequestsPerHost);
+
+	return new OkHttpClient.Builder()
+		.connectionPool(new ConnectionPool(settings.maxIdleConnections, settings.keepAliveMs,
+			TimeUnit.MILLISECONDS))
+		.dispatcher(dispatcher).connectTimeout(settings.connectTimeoutMs, TimeUnit.MILLISECONDS)
+		.readTimeout(settings.readTimeoutMs, TimeUnit.MILLISECONDS)
+		.writeTimeout(settings.writeTimeoutMs, TimeUnit.MILLISECONDS)
+		.protocols(getProtocols(settings.protocol)).build();
+    }
+
+    /**
+     * Get the protocols to offer for a protocol setting. HTTP/2 over TLS falls
+     * back to HTTP/1.1 if the server does not negotiate it, while cleartext
+     * HTTP/2 requires prior knowledge that the server supports it.
+     *
+     * @param protocol
+     * @return
+     * @throws SiteWhereException
+     */
+    protected static List<Protocol> getProtocols(String protocol) throws SiteWhereException {
+	try {
+	    switch (Protocol.get(protocol)) {
+	    case HTTP_2:
+		return Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1);
+	    case H2_PRIOR_KNOWLEDGE:
+		return Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE);
+	    case HTTP_1_1:
+		return Collections.singletonList(Protocol.HTTP_1_1);
+	    default:
+		throw new SiteWhereException(String.format("Unsupported Warp 10 protocol '%s'.", protocol));
+	    }
+	} catch (IOException e) {
+	    throw new SiteWhereException(String.format("Unknown Warp 10 protocol '%s'.", protocol), e);
+	}
+    }
+
+    /**
+     * Client along with the number of connections using it.
+     */
+    private static class SharedClient {
+
+	private OkHttpClient client;
+
+	private int users;
+
+	public SharedClient(OkHttpClient client) {
+	    this.client = client;
+	}
+    }
+
+    /**
+     * Connection settings that determine which client is shared.
+     */
+    private static class Settings {
+
+	private int maxIdleConnections;
+
+	private int keepAliveMs;
+
+	private int maxRequests;
+
+	private int maxRequestsPerHost;
+
+	private int connectTimeoutMs;
+
+	private int readTimeoutMs;
+
+	private int writeTimeoutMs;
+
+	private String protocol;
+
+	public Settings(Warp10Configuration configuration) {
+	    this.maxIdleConnections = configuration.getMaxIdleConnections();
+	    this.keepAliveMs = configuration.getKeepAliveMs();
+	    this.maxRequests = configuration.getMaxRequests();
+	    this.maxRequestsPerHost = configuration.getMaxRequestsPerHost();
+	    this.connectTimeoutMs = configuration.getConnectTimeoutMs();
+	    this.readTimeoutMs = configuration.getReadTimeoutMs();
+	    this.writeTimeoutMs = configuration.getWriteTimeoutMs();
+	    this.protocol = configuration.getProtocol();
+	}
+
+	@Override
+	public int hashCode() {
+	    return Objects.hash(maxIdleConnections, keepAliveMs, maxRequests, maxRequestsPerHost, connectTimeoutMs,
+		    readTimeoutMs, writeTimeoutMs, protocol);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+	    if (this == obj) {
+		return true;
+	    }
+	    if (!(obj instanceof Settings)) {
+		return false;
+	    }
+	    Settings other = (Settings) obj;
+	    return maxIdleConnections == other.maxIdleConnections && keepAliveMs == other.keepAliveMs
+		    && maxRequests == other.maxRequests && maxRequestsPerHost == other.maxRequestsPerHost
+		    && connectTimeoutMs == other.connectTimeoutMs && readTimeoutMs == other.readTimeoutMs
+		    && writeTimeoutMs == other.writeTimeoutMs && Objects.equals(protocol, other.protocol);
+	}
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10;
+
+import java.io.IOException;
+
+import com.sitewhere.spi.SiteWhereException;
+import com.sitewhere.spi.device.event.IDeviceLocation;
+import com.sitewhere.warp10.rest.GTSInputWriter;
+import com.sitewhere.warp10.rest.GTSOutput.ValueType;
+import com.sitewhere.warp10.rest.LastValueIndex;
+
+import okio.BufferedSink;
+
+/**
+ * Writes each location as a point carrying latitude, longitude and elevation
+ * with a boolean <code>T</code> value, in a single series per assignment.
+ */
+public class Warp10LocationBatchConverter extends Warp10DeviceEventBatchConverter<IDeviceLocation> {
+
+    /** Default class name for location series */
+    public static final String DEFAULT_CLASS_NAME = "location";
+
+    /** Class name for location series */
+    private String className;
+
+    public Warp10LocationBatchConverter(GTSInputWriter writer) {
+	this(writer, DEFAULT_CLASS_NAME, DEFAULT_CAPACITY);
+    }
+
+    public Warp10LocationBatchConverter(GTSInputWriter writer, String className, int capacity) {
+	super(writer, capacity);
+	this.className = className;
+    }
+
+    /*
+     * @see
+     * com.sitewhere.warp10.Warp10DeviceEventBatchConverter#writePoint(com.sitewhere
+     * .spi.device.event.IDeviceEvent, long,
+     * com.sitewhere.warp10.Warp10DeviceEventBatchConverter.Series, boolean,
+     * okio.BufferedSink, com.sitewhere.warp10.rest.LastValueIndex.Updates)
+     */
+    @Override
+    protected void writePoint(IDeviceLocation event, long timestamp, Series series, boolean continuation,
+	    BufferedSink sink, LastValueIndex.Updates updates) throws SiteWhereException, IOException {
+	if ((event.getLatitude() == null) || (event.getLongitude() == null)) {
+	    throw new SiteWhereException("Location has no latitude or longitude.");
+	}
+	double latitude = event.getLatitude().doubleValue();
+	double longitude = event.getLongitude().doubleValue();
+	double elevation = (event.getElevation() != null) ? Math.round(event.getElevation().doubleValue()) : Double.NaN;
+	getWriter().beginPoint(timestamp, latitude, longitude, elevation, continuation ? null : series.getPrefix(),
+		sink);
+	getWriter().endPoint(true, sink);
+	index(updates, series, timestamp, latitude, longitude, elevation, ValueType.BOOLEAN, 1, 0);
+    }
+
+    /*
+     * @see
+     * com.sitewhere.warp10.Warp10DeviceEventBatchConverter#getClassName(com.
+     * sitewhere.spi.device.event.IDeviceEvent)
+     */
+    @Override
+    protected String getClassName(IDeviceLocation event) throws SiteWhereException {
+	return className;
+    }
+
+    public String getClassName() {
+	return className;
+    }
+}
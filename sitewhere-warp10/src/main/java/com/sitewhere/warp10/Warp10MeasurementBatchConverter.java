@@ -0,0 +1,74 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10;
+
+import java.io.IOException;
+
+import com.sitewhere.spi.SiteWhereException;
+import com.sitewhere.spi.device.event.IDeviceMeasurement;
+import com.sitewhere.warp10.rest.GTSInputWriter;
+import com.sitewhere.warp10.rest.GTSOutput.ValueType;
+import com.sitewhere.warp10.rest.LastValueIndex;
+
+import okio.BufferedSink;
+
+/**
+ * Writes each measurement as a double point in a series named after the
+ * measurement.
+ */
+public class Warp10MeasurementBatchConverter extends Warp10DeviceEventBatchConverter<IDeviceMeasurement> {
+
+    public Warp10MeasurementBatchConverter(GTSInputWriter writer) {
+	super(writer);
+    }
+
+    public Warp10MeasurementBatchConverter(GTSInputWriter writer, int capacity) {
+	super(writer, capacity);
+    }
+
+    /*
+     * @see
+     * com.sitewhere.warp10.Warp10DeviceEventBatchConverter#writePoint(com.sitewhere
+     * .spi.device.event.IDeviceEvent, long,
+     * com.sitewhere.warp10.Warp10DeviceEventBatchConverter.Series, boolean,
+     * okio.BufferedSink, com.sitewhere.warp10.rest.LastValueIndex.Updates)
+     */
+    @Override
+    protected void writePoint(IDeviceMeasurement event, long timestamp, Series series, boolean continuation,
+	    BufferedSink sink, LastValueIndex.Updates updates) throws SiteWhereException, IOException {
+	Double value = event.getValue();
+	if (value == null) {
+	    throw new SiteWhereException("Measurement has no value.");
+	}
+	getWriter().beginPoint(timestamp, Double.NaN, Double.NaN, Double.NaN,
+		continuation ? null : series.getPrefix(), sink);
+	getWriter().endPoint(value.doubleValue(), sink);
+	index(updates, series, timestamp, Double.NaN, Double.NaN, Double.NaN, ValueType.DOUBLE, 0, value.doubleValue());
+    }
+
+    /*
+     * @see
+     * com.sitewhere.warp10.Warp10DeviceEventBatchConverter#getClassName(com.
+     * sitewhere.spi.device.event.IDeviceEvent)
+     */
+    @Override
+    protected String getClassName(IDeviceMeasurement event) throws SiteWhereException {
+	if ((event.getName() == null) || event.getName().isEmpty()) {
+	    throw new SiteWhereException("Measurement has no name.");
+	}
+	return event.getName();
+    }
+}
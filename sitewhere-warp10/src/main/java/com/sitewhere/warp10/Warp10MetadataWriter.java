@@ -0,0 +1,181 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.sitewhere.spi.SiteWhereException;
+import com.sitewhere.warp10.rest.GTSInput;
+import com.sitewhere.warp10.rest.GTSInputWriter;
+import com.sitewhere.warp10.rest.Warp10RestClient;
+
+import okio.Buffer;
+import okio.ByteString;
+
+/**
+ * Persists series attributes through the Warp 10 meta endpoint. The attributes
+ * last sent for each series are remembered so that a meta update is only sent
+ * when they change, rather than with every point. Warp 10 ignores meta updates
+ * for series that do not exist yet, so updates must be sent after the points
+ * of the series have been stored.
+ */
+public class Warp10MetadataWriter {
+
+    /** Parent client */
+    private Warp10Client client;
+
+    /** REST client used to deliver updates */
+    private Warp10RestClient restClient;
+
+    /** Max number of series with remembered attributes */
+    private int capacity;
+
+    /** Attributes last sent for each series, in access order */
+    private LinkedHashMap<ByteString, Map<String, String>> sent;
+
+    public Warp10MetadataWriter(Warp10Client client, Warp10RestClient restClient, int capacity) {
+	this.client = client;
+	this.restClient = restClient;
+	this.capacity = capacity;
+	this.sent = new LinkedHashMap<ByteString, Map<String, String>>(16, 0.75f, true) {
+
+	    private static final long serialVersionUID = 1L;
+
+	    @Override
+	    protected boolean removeEldestEntry(Map.Entry<ByteString, Map<String, String>> eldest) {
+		return size() > Warp10MetadataWriter.this.capacity;
+	    }
+	};
+    }
+
+    /**
+     * Check whether the attributes of a point differ from those last sent for its
+     * series. If so, they are remembered as sent and returned so that the caller
+     * can include them in the next meta update.
+     *
+     * @param input
+     * @param prefix
+     *            encoded <code>CLASS{LABELS}</code> of the series
+     * @return copy of changed attributes or <code>null</code> if unchanged
+     */
+    public synchronized Map<String, String> track(GTSInput input, ByteString prefix) {
+	Map<String, String> attributes = input.getAttributes();
+	if (attributes == null || attributes.isEmpty() || attributes.equals(sent.get(prefix))) {
+	    return null;
+	}
+	Map<String, String> copy = new HashMap<>(attributes);
+	sent.put(prefix, copy);
+	return copy;
+    }
+
+    /**
+     * Send attributes for one or more series in a single meta request.
+     *
+     * @param updates
+     *            attributes indexed by encoded series
+     * @return response code
+     * @throws SiteWhereException
+     */
+    public int send(Map<ByteString, Map<String, String>> updates) throws SiteWhereException {
+	int responseCode;
+	try {
+	    responseCode = restClient.meta(encode(updates));
+	} catch (SiteWhereException e) {
+	    forget(updates);
+	    throw e;
+	}
+	if (responseCode != 200) {
+	    forget(updates);
+	}
+	return responseCode;
+    }
+
+    /**
+     * Send attributes for one or more series without waiting for the response.
+     * Failures are logged and the series are forgotten so that their attributes
+     * are sent again with the next point.
+     *
+     * @param updates
+     *            attributes indexed by encoded series
+     * @return future completed with the response code
+     */
+    public CompletableFuture<Integer> sendAsync(Map<ByteString, Map<String, String>> updates) {
+	return restClient.metaAsync(encode(updates)).whenComplete((responseCode, error) -> {
+	    if (error != null) {
+		forget(updates);
+		client.getLogger().error("Unable to send Warp 10 meta update.", error);
+	    } else if (responseCode != 200) {
+		forget(updates);
+		client.getLogger()
+			.error(String.format("Warp 10 rejected meta update with response code %d.", responseCode));
+	    }
+	});
+    }
+
+    /**
+     * Encode meta update lines in the <code>CLASS{LABELS}{ATTRIBUTES}</code> form.
+     *
+     * @param updates
+     * @return
+     */
+    protected Buffer encode(Map<ByteString, Map<String, String>> updates) {
+	Buffer body = new Buffer();
+	try {
+	    for (Map.Entry<ByteString, Map<String, String>> update : updates.entrySet()) {
+		body.write(update.getKey());
+		body.writeByte('{');
+		boolean first = true;
+		for (Map.Entry<String, String> attribute : update.getValue().entrySet()) {
+		    if (!first) {
+			body.writeByte(',');
+		    }
+		    GTSInputWriter.writeEncoded(attribute.getKey(), body);
+		    body.writeByte('=');
+		    GTSInputWriter.writeEncoded(attribute.getValue(), body);
+		    first = false;
+		}
+		body.writeUtf8("}\n");
+	    }
+	} catch (IOException e) {
+	    // Writing to a buffer does not fail.
+	    throw new IllegalStateException(e);
+	}
+	return body;
+    }
+
+    /**
+     * Forget attributes that could not be delivered so that they are sent again.
+     *
+     * @param updates
+     */
+    protected synchronized void forget(Map<ByteString, Map<String, String>> updates) {
+	for (Map.Entry<ByteString, Map<String, String>> update : updates.entrySet()) {
+	    sent.remove(update.getKey(), update.getValue());
+	}
+    }
+
+    public synchronized int size() {
+	return sent.size();
+    }
+
+    public int getCapacity() {
+	return capacity;
+    }
+}
@@ -0,0 +1,282 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sitewhere.spi.SiteWhereException;
+import com.sitewhere.warp10.rest.Warp10RestClient;
+
+/**
+ * Purges points older than the retention period on a schedule. Each run issues
+ * one time-bounded delete per class, covering all timestamps from the epoch up
+ * to the retention cutoff, so that points written late with old timestamps are
+ * purged as well. Since earlier runs have already removed most of that range,
+ * later deletes find few points to remove. Deletes run on a small pool of
+ * workers and are spaced to a max rate so that purges do not compete with
+ * ingest for backend capacity.
+ */
+public class Warp10RetentionService {
+
+    /** Time after which the list of stored classes is found again */
+    private static final long CLASS_REFRESH_MS = TimeUnit.HOURS.toMillis(24);
+
+    /** Parent client */
+    private Warp10Client client;
+
+    /** REST client used for deletes */
+    private Warp10RestClient restClient;
+
+    /** Time points are kept */
+    private long retentionMicros;
+
+    /** Interval between purges */
+    private long intervalMs;
+
+    /** Number of deletes run in parallel */
+    private int parallelism;
+
+    /** Min time between deletes (zero for no limit) */
+    private long deleteSpacingNanos;
+
+    /** Class selectors to purge (all classes if empty) */
+    private List<String> classes;
+
+    /** Runs purges */
+    private ScheduledExecutorService scheduler;
+
+    /** Runs deletes */
+    private ExecutorService workers;
+
+    /** Classes found in the backend when no class selectors are configured */
+    private Set<String> foundClasses;
+
+    /** Time at which classes were last found */
+    private long classesFoundAt;
+
+    /** Time at which the next delete may start */
+    private long nextDeleteAt;
+
+    /** Completed purge runs */
+    private AtomicLong runs = new AtomicLong();
+
+    /** Series affected by all deletes */
+    private AtomicLong deletedSeries = new AtomicLong();
+
+    /** Deletes that failed */
+    private AtomicLong failedDeletes = new AtomicLong();
+
+    /** Series affected by the last run */
+    private volatile long lastRunDeletedSeries;
+
+    /** Deletes issued by the last run */
+    private volatile long lastRunDeletes;
+
+    /** Duration of the last run */
+    private volatile long lastRunDurationMs;
+
+    public Warp10RetentionService(Warp10Client client, Warp10RestClient restClient, List<String> classes) {
+	this.client = client;
+	this.restClient = restClient;
+	this.classes = classes;
+	Warp10Configuration configuration = client.getConfiguration();
+	this.retentionMicros = TimeUnit.DAYS.toMicros(configuration.getRetentionDays());
+	this.intervalMs = TimeUnit.MINUTES.toMillis(configuration.getRetentionIntervalMinutes());
+	this.parallelism = Math.max(1, configuration.getRetentionParallelism());
+	this.deleteSpacingNanos = (configuration.getRetentionMaxDeletesPerSecond() > 0)
+		? TimeUnit.SECONDS.toNanos(1) / configuration.getRetentionMaxDeletesPerSecond()
+		: 0;
+    }
+
+    /**
+     * Start running purges on the configured interval.
+     */
+    public void start() {
+	this.workers = Executors.newFixedThreadPool(parallelism, runnable -> {
+	    Thread thread = new Thread(runnable, "warp10-retention-delete");
+	    thread.setDaemon(true);
+	    return thread;
+	});
+	this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+	    Thread thread = new Thread(runnable, "warp10-retention");
+	    thread.setDaemon(true);
+	    return thread;
+	});
+	scheduler.scheduleWithFixedDelay(() -> {
+	    try {
+		purge();
+	    } catch (Throwable t) {
+		client.getLogger().error("Unable to purge expired Warp 10 data.", t);
+	    }
+	}, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop running purges. A purge in progress is interrupted.
+     */
+    public void stop() {
+	if (scheduler != null) {
+	    scheduler.shutdownNow();
+	    scheduler = null;
+	}
+	if (workers != null) {
+	    workers.shutdownNow();
+	    workers = null;
+	}
+    }
+
+    /**
+     * Delete points older than the retention period from every class.
+     * 
+     * @return number of series affected
+     * @throws SiteWhereException
+     */
+    public long purge() throws SiteWhereException {
+	long started = System.currentTimeMillis();
+	long cutoff = TimeUnit.MILLISECONDS.toMicros(started) - retentionMicros;
+	Collection<String> selectors = classes.isEmpty() ? findClasses() : classes;
+
+	List<Future<Integer>> deletes = new ArrayList<>();
+	for (String selector : selectors) {
+	    deletes.add(workers.submit(() -> delete(selector, cutoff)));
+	}
+	long series = 0;
+	long failures = 0;
+	for (Future<Integer> delete : deletes) {
+	    try {
+		series += delete.get();
+	    } catch (ExecutionException e) {
+		failures++;
+		client.getLogger().warn("Unable to purge expired Warp 10 data.", e.getCause());
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		throw new SiteWhereException("Interrupted while purging expired Warp 10 data.", e);
+	    }
+	}
+	this.lastRunDurationMs = System.currentTimeMillis() - started;
+	this.lastRunDeletedSeries = series;
+	this.lastRunDeletes = deletes.size();
+	runs.incrementAndGet();
+	deletedSeries.addAndGet(series);
+	if ((series > 0) || (failures > 0)) {
+	    client.invalidateDeleted();
+	}
+	failedDeletes.addAndGet(failures);
+	client.getLogger().info(String.format("Purged Warp 10 data older than %d days from %d series in %d ms.",
+		TimeUnit.MICROSECONDS.toDays(retentionMicros), series, lastRunDurationMs));
+	if (failures > 0) {
+	    client.getLogger().warn(String.format("%d of %d Warp 10 purge deletes failed.", failures, deletes.size()));
+	}
+	return series;
+    }
+
+    /**
+     * Delete expired points from the series matching a class selector.
+     * 
+     * @param selector
+     * @param cutoff
+     *            oldest timestamp kept
+     * @return number of series affected
+     * @throws SiteWhereException
+     * @throws InterruptedException
+     */
+    protected int delete(String selector, long cutoff) throws SiteWhereException, InterruptedException {
+	throttle();
+	return restClient.delete(selector + "{}", 0, cutoff - 1);
+    }
+
+    /**
+     * Find the exact selectors of all classes with stored series. Since listing
+     * every series is expensive, the classes are kept between runs and only
+     * found again after the refresh interval, subject to the delete rate limit.
+     * 
+     * @return
+     * @throws SiteWhereException
+     */
+    protected Set<String> findClasses() throws SiteWhereException {
+	long now = System.currentTimeMillis();
+	if ((foundClasses != null) && (now - classesFoundAt < CLASS_REFRESH_MS)) {
+	    return foundClasses;
+	}
+	try {
+	    throttle();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new SiteWhereException("Interrupted while finding Warp 10 classes.", e);
+	}
+	Set<String> found = new TreeSet<>();
+	restClient.find("~.*{}", gts -> found.add("=" + gts.getClassName()));
+	this.foundClasses = found;
+	this.classesFoundAt = now;
+	return found;
+    }
+
+    /**
+     * Wait until the next delete may start.
+     * 
+     * @throws InterruptedException
+     */
+    protected void throttle() throws InterruptedException {
+	if (deleteSpacingNanos == 0) {
+	    return;
+	}
+	long wait;
+	synchronized (this) {
+	    long now = System.nanoTime();
+	    long startAt = Math.max(now, nextDeleteAt);
+	    nextDeleteAt = startAt + deleteSpacingNanos;
+	    wait = startAt - now;
+	}
+	if (wait > 0) {
+	    TimeUnit.NANOSECONDS.sleep(wait);
+	}
+    }
+
+    public long getRuns() {
+	return runs.get();
+    }
+
+    public long getDeletedSeries() {
+	return deletedSeries.get();
+    }
+
+    public long getFailedDeletes() {
+	return failedDeletes.get();
+    }
+
+    public long getLastRunDeletedSeries() {
+	return lastRunDeletedSeries;
+    }
+
+    public long getLastRunDeletes() {
+	return lastRunDeletes;
+    }
+
+    public long getLastRunDurationMs() {
+	return lastRunDurationMs;
+    }
+}
@@ -0,0 +1,528 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sitewhere.spi.SiteWhereException;
+import com.sitewhere.warp10.rest.AggregationQuery;
+import com.sitewhere.warp10.rest.Aggregator;
+import com.sitewhere.warp10.rest.GTSOutput;
+import com.sitewhere.warp10.rest.QueryParams;
+import com.sitewhere.warp10.rest.Warp10RestClient;
+import com.sitewhere.warp10.rest.WarpScript;
+
+/**
+ * Maintains rollup series holding aggregates of raw series over fixed buckets,
+ * and serves queries that accept a coarser resolution from them. Rollups are
+ * computed on the Warp 10 server by a script that fetches a window of raw
+ * points, bucketizes them and stores the result under a derived class named
+ * <code>CLASS.rollup.LEVEL.AGGREGATOR</code>. A watermark per class and level
+ * marks the end of the last computed bucket; after a restart it is recovered
+ * from the latest stored rollup point. Queries are served from the coarsest
+ * rollup that fits the requested resolution and range, with points newer than
+ * the watermark aggregated from the raw series on demand.
+ */
+public class Warp10RollupService {
+
+    /** Separates the source class from the rollup suffix in derived classes */
+    public static final String ROLLUP_MARKER = ".rollup.";
+
+    /** Parent client */
+    private Warp10Client client;
+
+    /** REST client used for scripts and fetches */
+    private Warp10RestClient restClient;
+
+    /** Rollup levels from finest to coarsest */
+    private List<Level> levels;
+
+    /** Aggregations stored for each level */
+    private List<Aggregator> aggregators;
+
+    /** Classes to roll up (all classes if empty) */
+    private List<String> classes;
+
+    /** Interval between rollup runs */
+    private long intervalMs;
+
+    /** Time allowed for late points before a bucket is computed */
+    private long lagMicros;
+
+    /** Time covered by rollups when no rollup exists yet */
+    private long backfillMicros;
+
+    /** Max buckets computed per class and level in one run */
+    private int maxBuckets;
+
+    /** Computed range of each class and level */
+    private Map<String, Watermark> watermarks = new ConcurrentHashMap<>();
+
+    /** Runs rollups */
+    private ScheduledExecutorService scheduler;
+
+    /** Completed rollup runs */
+    private AtomicLong runs = new AtomicLong();
+
+    /** Rollup windows computed */
+    private AtomicLong windows = new AtomicLong();
+
+    /** Rollup windows that failed */
+    private AtomicLong failedWindows = new AtomicLong();
+
+    /** Queries served from rollups */
+    private AtomicLong routedQueries = new AtomicLong();
+
+    /** Duration of the last run */
+    private volatile long lastRunDurationMs;
+
+    public Warp10RollupService(Warp10Client client, Warp10RestClient restClient, List<String> levels,
+	    List<String> aggregators, List<String> classes) throws SiteWhereException {
+	this.client = client;
+	this.restClient = restClient;
+	this.levels = new ArrayList<>();
+	for (String level : levels) {
+	    this.levels.add(Level.parse(level));
+	}
+	this.levels.sort(Comparator.comparingLong(Level::getSpan));
+	this.aggregators = new ArrayList<>();
+	for (String aggregator : aggregators) {
+	    try {
+		this.aggregators.add(Aggregator.valueOf(aggregator.toUpperCase(Locale.ROOT)));
+	    } catch (IllegalArgumentException e) {
+		throw new SiteWhereException("Invalid rollup aggregator: " + aggregator);
+	    }
+	}
+	if (this.aggregators.isEmpty()) {
+	    throw new SiteWhereException("At least one rollup aggregator is required.");
+	}
+	this.classes = classes;
+	Warp10Configuration configuration = client.getConfiguration();
+	this.intervalMs = TimeUnit.SECONDS.toMillis(configuration.getRollupIntervalSeconds());
+	this.lagMicros = TimeUnit.SECONDS.toMicros(configuration.getRollupLagSeconds());
+	this.backfillMicros = TimeUnit.DAYS.toMicros(configuration.getRollupBackfillDays());
+	this.maxBuckets = Math.max(1, configuration.getRollupMaxBuckets());
+    }
+
+    /**
+     * Start computing rollups on the configured interval.
+     */
+    public void start() {
+	this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+	    Thread thread = new Thread(runnable, "warp10-rollup");
+	    thread.setDaemon(true);
+	    return thread;
+	});
+	scheduler.scheduleWithFixedDelay(() -> {
+	    try {
+		rollup();
+	    } catch (Throwable t) {
+		client.getLogger().error("Unable to compute Warp 10 rollups.", t);
+	    }
+	}, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop computing rollups. A run in progress is interrupted.
+     */
+    public void stop() {
+	if (scheduler != null) {
+	    scheduler.shutdownNow();
+	    scheduler = null;
+	}
+    }
+
+    /**
+     * Advance every rollup of every class by up to the max number of buckets.
+     * 
+     * @return number of windows computed
+     * @throws SiteWhereException
+     */
+    public int rollup() throws SiteWhereException {
+	long started = System.currentTimeMillis();
+	long now = TimeUnit.MILLISECONDS.toMicros(started);
+	Collection<String> sources = classes.isEmpty() ? findClasses() : classes;
+
+	int computed = 0;
+	int failures = 0;
+	for (String className : sources) {
+	    for (Level level : levels) {
+		try {
+		    if (advance(className, level, now)) {
+			computed++;
+		    }
+		} catch (SiteWhereException e) {
+		    failures++;
+		    client.getLogger().warn(String.format("Unable to compute %s rollup of Warp 10 class %s.",
+			    level.getName(), className), e);
+		}
+	    }
+	}
+	this.lastRunDurationMs = System.currentTimeMillis() - started;
+	runs.incrementAndGet();
+	windows.addAndGet(computed);
+	failedWindows.addAndGet(failures);
+	if (failures > 0) {
+	    client.getLogger().warn(String.format("%d Warp 10 rollup windows failed.", failures));
+	}
+	return computed;
+    }
+
+    /**
+     * Compute the next window of a rollup if a complete bucket is available.
+     * 
+     * @param className
+     * @param level
+     * @param now
+     *            current time in microseconds
+     * @return true if a window was computed
+     * @throws SiteWhereException
+     */
+    protected boolean advance(String className, Level level, long now) throws SiteWhereException {
+	Watermark watermark = getWatermark(className, level, now);
+	long target = level.floor(now - lagMicros);
+	long from = watermark.getUntil();
+	if (from >= target) {
+	    return false;
+	}
+	long to = Math.min(target, from + (maxBuckets * level.getSpan()));
+	restClient.execUpdate(
+		(readToken, writeToken) -> buildScript(readToken, writeToken, className, level, from, to));
+	watermark.setUntil(to);
+	return true;
+    }
+
+    /**
+     * Build the script that stores each aggregation of the raw points in the
+     * window <code>]from, to]</code>, one point per bucket.
+     * 
+     * @param readToken
+     * @param writeToken
+     * @param className
+     * @param level
+     * @param from
+     * @param to
+     * @return
+     */
+    protected String buildScript(String readToken, String writeToken, String className, Level level, long from,
+	    long to) {
+	QueryParams window = QueryParams.builder();
+	window.setClassName("=" + className);
+	window.setRange(to, to - from);
+	WarpScript script = WarpScript.builder().fetch(readToken, window).string("raw").append("STORE");
+	for (Aggregator aggregator : aggregators) {
+	    script.append("[ $raw").append(aggregator.getBucketizer()).number(to).number(level.getSpan())
+		    .number((to - from) / level.getSpan()).append("] BUCKETIZE");
+	    script.append("<% DROP").string("+" + getSuffix(level, aggregator)).append("RENAME %> LMAP");
+	    script.string(writeToken).append("UPDATE");
+	}
+	return script.toString();
+    }
+
+    /**
+     * Get the computed range of a rollup. The first time a rollup is used, its
+     * watermark is recovered from the latest stored rollup point, or starts at
+     * the backfill period if no rollup has been stored.
+     * 
+     * @param className
+     * @param level
+     * @param now
+     * @return
+     * @throws SiteWhereException
+     */
+    protected Watermark getWatermark(String className, Level level, long now) throws SiteWhereException {
+	String key = className + ROLLUP_MARKER + level.getName();
+	Watermark watermark = watermarks.get(key);
+	if (watermark == null) {
+	    QueryParams stored = QueryParams.builder();
+	    stored.setClassName("=" + className + getSuffix(level, aggregators.get(0)));
+	    long[] latest = { Long.MIN_VALUE };
+	    restClient.latest(Collections.singletonList(stored),
+		    gts -> latest[0] = Math.max(latest[0], gts.getLatestTimestamp()));
+	    long since = level.floor(now - backfillMicros);
+	    watermark = new Watermark(since, Math.max(since, latest[0]));
+	    watermarks.put(key, watermark);
+	}
+	return watermark;
+    }
+
+    /**
+     * Find series for a query from the coarsest rollup whose span is within the
+     * requested resolution and which covers the start of the requested range.
+     * Buckets newer than the rollup watermark are aggregated from the raw series
+     * and placed before the stored buckets, keeping points newest first. Series
+     * are returned under the rollup class name.
+     * 
+     * @param queryParams
+     * @return series or <code>null</code> if the query cannot be served from a
+     *         rollup
+     * @throws SiteWhereException
+     */
+    public List<GTSOutput> find(QueryParams queryParams) throws SiteWhereException {
+	if (queryParams.getResolution() == null || queryParams.getStartDate() == null
+		|| queryParams.getEndTimestamp() != null || queryParams.getCount() != null
+		|| queryParams.getSkip() != null || !aggregators.contains(queryParams.getAggregator())) {
+	    return null;
+	}
+	String className = queryParams.getClassName();
+	if (className.startsWith("=")) {
+	    className = className.substring(1);
+	}
+	if (className.isEmpty() || className.startsWith("~")) {
+	    return null;
+	}
+	long start = WarpScript.toMicros(queryParams.getStartDate());
+	long end = (queryParams.getEndDate() != null) ? WarpScript.toMicros(queryParams.getEndDate())
+		: TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+	for (int i = levels.size() - 1; i >= 0; i--) {
+	    Level level = levels.get(i);
+	    if (level.getSpan() > queryParams.getResolution()) {
+		continue;
+	    }
+	    Watermark watermark = watermarks.get(className + ROLLUP_MARKER + level.getName());
+	    if ((watermark != null) && (start >= watermark.getSince()) && (watermark.getUntil() > start)) {
+		routedQueries.incrementAndGet();
+		return find(queryParams, className, level, start, end, watermark.getUntil());
+	    }
+	}
+	return null;
+    }
+
+    /**
+     * Fetch the stored part of a rollup and aggregate buckets past the watermark.
+     * 
+     * @param queryParams
+     * @param className
+     * @param level
+     * @param start
+     * @param end
+     * @param until
+     * @return
+     * @throws SiteWhereException
+     */
+    protected List<GTSOutput> find(QueryParams queryParams, String className, Level level, long start, long end,
+	    long until) throws SiteWhereException {
+	long storedEnd = Math.min(end, until);
+	String rollupClassName = className + getSuffix(level, queryParams.getAggregator());
+	QueryParams stored = queryParams.copy();
+	stored.setClassName("=" + rollupClassName);
+	stored.setStartDate(null);
+	stored.setEndDate(null);
+	stored.setRange(storedEnd, storedEnd - start + 1);
+	List<GTSOutput> series = restClient.fetch(stored);
+	if (end <= until) {
+	    return series;
+	}
+
+	AggregationQuery recent = AggregationQuery.builder();
+	QueryParams raw = queryParams.copy();
+	raw.setClassName("=" + className);
+	raw.setStartDate(null);
+	raw.setEndDate(null);
+	raw.setRange(end, end - until);
+	recent.setQueryParams(raw);
+	recent.setBucketSpan(level.getSpan());
+	recent.setAggregator(queryParams.getAggregator());
+	Map<Map<String, String>, GTSOutput> recentByLabels = new HashMap<>();
+	for (GTSOutput gts : restClient.aggregate(recent)) {
+	    recentByLabels.put(gts.getLabels(), gts);
+	}
+
+	// Points are newest first, so recent buckets go before stored ones.
+	List<GTSOutput> combined = new ArrayList<>();
+	for (GTSOutput gts : series) {
+	    GTSOutput tail = recentByLabels.remove(gts.getLabels());
+	    combined.add((tail != null) ? GTSOutput.concat(tail.rename(rollupClassName), gts) : gts);
+	}
+	for (GTSOutput tail : recentByLabels.values()) {
+	    combined.add(tail.rename(rollupClassName));
+	}
+	return combined;
+    }
+
+    /**
+     * Find the names of all classes with stored series, excluding rollups.
+     * 
+     * @return
+     * @throws SiteWhereException
+     */
+    protected Set<String> findClasses() throws SiteWhereException {
+	Set<String> found = new TreeSet<>();
+	restClient.find("~.*{}", gts -> {
+	    if (!gts.getClassName().contains(ROLLUP_MARKER)) {
+		found.add(gts.getClassName());
+	    }
+	});
+	return found;
+    }
+
+    /**
+     * Get the suffix appended to a class name for a rollup.
+     * 
+     * @param level
+     * @param aggregator
+     * @return
+     */
+    protected static String getSuffix(Level level, Aggregator aggregator) {
+	return ROLLUP_MARKER + level.getName() + "." + aggregator.name().toLowerCase(Locale.ROOT);
+    }
+
+    public List<Level> getLevels() {
+	return levels;
+    }
+
+    public List<Aggregator> getAggregators() {
+	return aggregators;
+    }
+
+    public long getRuns() {
+	return runs.get();
+    }
+
+    public long getWindows() {
+	return windows.get();
+    }
+
+    public long getFailedWindows() {
+	return failedWindows.get();
+    }
+
+    public long getRoutedQueries() {
+	return routedQueries.get();
+    }
+
+    public long getLastRunDurationMs() {
+	return lastRunDurationMs;
+    }
+
+    /**
+     * Bucket span of a rollup, named with a count and a unit such as
+     * <code>1m</code>, <code>1h</code> or <code>1d</code>.
+     */
+    public static class Level {
+
+	private String name;
+
+	private long span;
+
+	public Level(String name, long span) {
+	    this.name = name;
+	    this.span = span;
+	}
+
+	/**
+	 * Parse a level name with a unit of <code>s</code>, <code>m</code>,
+	 * <code>h</code> or <code>d</code>.
+	 * 
+	 * @param name
+	 * @return
+	 * @throws SiteWhereException
+	 */
+	public static Level parse(String name) throws SiteWhereException {
+	    TimeUnit unit;
+	    switch (name.isEmpty() ? ' ' : name.charAt(name.length() - 1)) {
+	    case 's':
+		unit = TimeUnit.SECONDS;
+		break;
+	    case 'm':
+		unit = TimeUnit.MINUTES;
+		break;
+	    case 'h':
+		unit = TimeUnit.HOURS;
+		break;
+	    case 'd':
+		unit = TimeUnit.DAYS;
+		break;
+	    default:
+		throw new SiteWhereException("Invalid rollup level: " + name);
+	    }
+	    try {
+		long count = Long.parseLong(name.substring(0, name.length() - 1));
+		if (count <= 0) {
+		    throw new SiteWhereException("Invalid rollup level: " + name);
+		}
+		return new Level(name, unit.toMicros(count));
+	    } catch (NumberFormatException e) {
+		throw new SiteWhereException("Invalid rollup level: " + name, e);
+	    }
+	}
+
+	/**
+	 * Round a timestamp down to a bucket boundary.
+	 * 
+	 * @param timestamp
+	 * @return
+	 */
+	public long floor(long timestamp) {
+	    return Math.floorDiv(timestamp, span) * span;
+	}
+
+	public String getName() {
+	    return name;
+	}
+
+	/**
+	 * Get the bucket span in microseconds.
+	 * 
+	 * @return
+	 */
+	public long getSpan() {
+	    return span;
+	}
+    }
+
+    /**
+     * Range of buckets computed for a rollup. Buckets ending after
+     * <code>since</code> and up to <code>until</code> are stored.
+     */
+    protected static class Watermark {
+
+	private long since;
+
+	private volatile long until;
+
+	public Watermark(long since, long until) {
+	    this.since = since;
+	    this.until = until;
+	}
+
+	public long getSince() {
+	    return since;
+	}
+
+	public long getUntil() {
+	    return until;
+	}
+
+	public void setUntil(long until) {
+	    this.until = until;
+	}
+    }
+}
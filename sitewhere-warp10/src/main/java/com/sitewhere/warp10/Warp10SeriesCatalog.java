@@ -0,0 +1,209 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import com.sitewhere.spi.SiteWhereException;
+import com.sitewhere.warp10.rest.QueryParams;
+import com.sitewhere.warp10.rest.Warp10RestClient;
+
+/**
+ * Caches the classes of the series matching a selector, as learned from the
+ * Warp 10 find endpoint, so that queries can be rewritten to use exact
+ * selectors. Exact selectors allow Warp 10 to look up series directly rather
+ * than matching every class in its directory against a regular expression.
+ * <p>
+ * Series created after a selector was cached are not seen until the entry
+ * expires, so the time to live bounds how long a new class may be missed. Each
+ * selector not yet cached also costs a find request. The catalog is therefore
+ * disabled unless a size is configured. Without it, only labels are rewritten
+ * with {@link #rewriteLabels(QueryParams)}.
+ */
+public class Warp10SeriesCatalog {
+
+    /** Characters with special meaning in a regular expression */
+    private static final Pattern REGEX_CHARACTERS = Pattern.compile("[\\\\.\\[\\]{}()*+?^$|]");
+
+    /** Prefix for regular expression class selectors */
+    private static final String REGEX_PREFIX = "~";
+
+    /** Client used for find requests */
+    private Warp10RestClient client;
+
+    /** Max number of cached selectors */
+    private int capacity;
+
+    /** Time after which cached classes are reloaded */
+    private long ttlMs;
+
+    /** Classes for each selector in access order */
+    private LinkedHashMap<String, CatalogEntry> entries;
+
+    /** Number of lookups answered from the cache */
+    private AtomicLong hits = new AtomicLong();
+
+    /** Number of lookups that required a find request */
+    private AtomicLong misses = new AtomicLong();
+
+    public Warp10SeriesCatalog(Warp10RestClient client, int capacity, long ttlMs) {
+	this.client = client;
+	this.capacity = capacity;
+	this.ttlMs = ttlMs;
+	this.entries = new LinkedHashMap<String, CatalogEntry>(16, 0.75f, true) {
+
+	    private static final long serialVersionUID = 1L;
+
+	    @Override
+	    protected boolean removeEldestEntry(Map.Entry<String, CatalogEntry> eldest) {
+		return size() > Warp10SeriesCatalog.this.capacity;
+	    }
+	};
+    }
+
+    /**
+     * Rewrite a query to use exact selectors where possible. Label expressions
+     * without regular expression characters are matched exactly, and a class
+     * expression is replaced by the class name if only one class has series
+     * matching the labels. The original query is not modified.
+     *
+     * @param queryParams
+     * @return
+     * @throws SiteWhereException
+     */
+    public QueryParams rewrite(QueryParams queryParams) throws SiteWhereException {
+	QueryParams rewritten = rewriteLabels(queryParams);
+	if (rewritten.getClassName().startsWith(REGEX_PREFIX)) {
+	    Set<String> classes = getClasses(rewritten.getSelector());
+	    if (classes.size() == 1) {
+		String className = classes.iterator().next();
+		if (isLiteral(className)) {
+		    rewritten.setClassName(className);
+		}
+	    }
+	}
+	return rewritten;
+    }
+
+    /**
+     * Rewrite label expressions without regular expression characters to match
+     * exactly. This does not depend on the series in Warp 10, so it needs no
+     * catalog. The original query is not modified.
+     *
+     * @param queryParams
+     * @return
+     */
+    public static QueryParams rewriteLabels(QueryParams queryParams) {
+	QueryParams rewritten = queryParams.copy();
+	rewritten.getParameters().clear();
+	for (Map.Entry<String, String> label : queryParams.getParameters().entrySet()) {
+	    if (isLiteral(label.getValue())) {
+		rewritten.addExactParameter(label.getKey(), label.getValue());
+	    } else {
+		rewritten.addParameter(label.getKey(), label.getValue());
+	    }
+	}
+	return rewritten;
+    }
+
+    /**
+     * Get the classes of series matching a selector, loading them if not cached
+     * or expired.
+     *
+     * @param selector
+     * @return
+     * @throws SiteWhereException
+     */
+    public Set<String> getClasses(String selector) throws SiteWhereException {
+	long now = System.currentTimeMillis();
+	CatalogEntry entry;
+	synchronized (this) {
+	    entry = entries.get(selector);
+	}
+	if (entry != null && now - entry.getLoadedAt() < ttlMs) {
+	    hits.incrementAndGet();
+	    return entry.getClasses();
+	}
+	misses.incrementAndGet();
+	Set<String> classes = new HashSet<>();
+	client.find(selector, gts -> classes.add(gts.getClassName()));
+	synchronized (this) {
+	    entries.put(selector, new CatalogEntry(classes, now));
+	}
+	return classes;
+    }
+
+    /**
+     * Discard all cached selectors.
+     */
+    public synchronized void invalidate() {
+	entries.clear();
+    }
+
+    /**
+     * Indicates whether a value contains no regular expression characters.
+     *
+     * @param value
+     * @return
+     */
+    protected static boolean isLiteral(String value) {
+	return !REGEX_CHARACTERS.matcher(value).find();
+    }
+
+    public synchronized int size() {
+	return entries.size();
+    }
+
+    public int getCapacity() {
+	return capacity;
+    }
+
+    public long getHits() {
+	return hits.get();
+    }
+
+    public long getMisses() {
+	return misses.get();
+    }
+
+    /**
+     * Classes matching a selector and the time they were loaded.
+     */
+    private static class CatalogEntry {
+
+	private Set<String> classes;
+
+	private long loadedAt;
+
+	public CatalogEntry(Set<String> classes, long loadedAt) {
+	    this.classes = classes;
+	    this.loadedAt = loadedAt;
+	}
+
+	public Set<String> getClasses() {
+	    return classes;
+	}
+
+	public long getLoadedAt() {
+	    return loadedAt;
+	}
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.sitewhere.warp10.rest.GTSOutput;
+import com.sitewhere.warp10.rest.QueryParams;
+
+/**
+ * Splits a query over a long time range into consecutive time shards that are
+ * fetched in parallel and returned in time order, with the points of each
+ * series in ascending timestamp order. Each request is limited to
+ * <code>pageSize</code> points per series. Since Warp 10 returns the most
+ * recent points when a request hits that limit, a full response is discarded
+ * and its time range is split in two halves that are requested oldest first.
+ * Split halves count against the parallelism like new shards, so at most
+ * <code>parallelism</code> pages are in flight or held in memory at any time. A
+ * series is returned once for each range in which it has points, use
+ * {@link GTSOutput#merge(Iterator)} to combine the fragments of each series.
+ * <p>
+ * Errors, including error responses from Warp 10, are thrown from
+ * {@link #hasNext()} and {@link #next()} as a {@link CompletionException}
+ * wrapping the cause.
+ */
+public class Warp10ShardedFetch implements Iterator<GTSOutput> {
+
+    /** Start of range used when only an end date is given (2000-01-01) */
+    private static final long INITIAL_TIMESTAMP = TimeUnit.MILLISECONDS.toMicros(946684800000L);
+
+    /** Executes a single page request */
+    private Function<QueryParams, CompletableFuture<List<GTSOutput>>> fetcher;
+
+    /** Query being split */
+    private QueryParams query;
+
+    /** Length of each shard in microseconds */
+    private long shardSpan;
+
+    /** Max page requests in flight */
+    private int parallelism;
+
+    /** Max points per series in a page (zero for no paging) */
+    private int pageSize;
+
+    /** Start of the next shard to request (exclusive) */
+    private long nextShardStart;
+
+    /** End of the whole range (inclusive) */
+    private long rangeEnd;
+
+    /** Indicates the query has no time range and is not sharded */
+    private boolean unsharded;
+
+    /** Page requests in the order results are returned */
+    private Deque<Page> pages = new ArrayDeque<>();
+
+    /** Number of queued pages that have been requested */
+    private int started;
+
+    /** Series of the page being returned */
+    private Iterator<GTSOutput> current = Collections.emptyIterator();
+
+    public Warp10ShardedFetch(Function<QueryParams, CompletableFuture<List<GTSOutput>>> fetcher, QueryParams query,
+	    long shardSpan, TimeUnit unit, int parallelism, int pageSize) {
+	this.fetcher = fetcher;
+	this.query = query;
+	this.shardSpan = Math.max(1, unit.toMicros(shardSpan));
+	this.parallelism = Math.max(1, parallelism);
+	this.pageSize = pageSize;
+	if ((query.getEndTimestamp() != null) && (query.getTimespan() != null) && (query.getTimespan() > 0)) {
+	    this.nextShardStart = query.getEndTimestamp() - query.getTimespan();
+	    this.rangeEnd = query.getEndTimestamp();
+	} else if (query.getStartDate() == null && query.getEndDate() == null) {
+	    this.unsharded = true;
+	} else {
+	    // Start is made exclusive, so back up one unit to include it.
+	    this.nextShardStart = ((query.getStartDate() != null) ? toMicros(query.getStartDate().getTime())
+		    : INITIAL_TIMESTAMP) - 1;
+	    this.rangeEnd = toMicros(
+		    (query.getEndDate() != null) ? query.getEndDate().getTime() : System.currentTimeMillis());
+	}
+	request();
+    }
+
+    /*
+     * @see java.util.Iterator#hasNext()
+     */
+    @Override
+    public boolean hasNext() {
+	while (!current.hasNext()) {
+	    Page page = pages.pollFirst();
+	    if (page == null) {
+		return false;
+	    }
+	    if (page.isStarted()) {
+		started--;
+	    }
+	    List<GTSOutput> results = page.start().join();
+	    if (isFull(results) && page.isSplittable()) {
+		pages.addFirst(page.newer());
+		pages.addFirst(page.older());
+		request();
+		continue;
+	    }
+	    request();
+	    current = results.stream().map(GTSOutput::reverse).iterator();
+	}
+	return true;
+    }
+
+    /*
+     * @see java.util.Iterator#next()
+     */
+    @Override
+    public GTSOutput next() {
+	if (!hasNext()) {
+	    throw new NoSuchElementException();
+	}
+	return current.next();
+    }
+
+    /**
+     * Start requests for queued pages, including halves of split pages, then for
+     * upcoming shards until the parallelism limit is reached.
+     */
+    protected void request() {
+	if (unsharded) {
+	    pages.addLast(new Page(0, 0));
+	    unsharded = false;
+	    nextShardStart = rangeEnd = 0;
+	}
+	for (Page page : pages) {
+	    if (started >= parallelism) {
+		return;
+	    }
+	    if (!page.isStarted()) {
+		page.start();
+		started++;
+	    }
+	}
+	while (started < parallelism && nextShardStart < rangeEnd) {
+	    long shardEnd = Math.min(nextShardStart + shardSpan, rangeEnd);
+	    Page page = new Page(shardEnd, shardEnd - nextShardStart);
+	    pages.addLast(page);
+	    page.start();
+	    started++;
+	    nextShardStart = shardEnd;
+	}
+    }
+
+    /**
+     * Indicates whether any series in a page reached the page size, in which case
+     * more points may follow.
+     *
+     * @param results
+     * @return
+     */
+    protected boolean isFull(List<GTSOutput> results) {
+	if (pageSize <= 0) {
+	    return false;
+	}
+	for (GTSOutput gts : results) {
+	    if (gts.size() >= pageSize) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    private static long toMicros(long millis) {
+	return TimeUnit.MILLISECONDS.toMicros(millis);
+    }
+
+    /**
+     * Request for the points of a time range, sent once started.
+     */
+    private class Page {
+
+	/** End of range (inclusive) */
+	private long end;
+
+	/** Length of range in microseconds (zero for the unsharded query) */
+	private long span;
+
+	/** Pending result (null until started) */
+	private CompletableFuture<List<GTSOutput>> result;
+
+	public Page(long end, long span) {
+	    this.end = end;
+	    this.span = span;
+	}
+
+	/**
+	 * Send the request if not already sent.
+	 *
+	 * @return pending result
+	 */
+	public CompletableFuture<List<GTSOutput>> start() {
+	    if (result == null) {
+		QueryParams paged = query.copy();
+		if (span > 0) {
+		    paged.setRange(end, span);
+		    if (pageSize > 0) {
+			paged.setCount(pageSize);
+			paged.setSkip(null);
+		    }
+		}
+		this.result = fetcher.apply(paged);
+	    }
+	    return result;
+	}
+
+	public boolean isStarted() {
+	    return result != null;
+	}
+
+	/**
+	 * Indicates whether the range can be split further.
+	 *
+	 * @return
+	 */
+	public boolean isSplittable() {
+	    return span > 1;
+	}
+
+	/**
+	 * Request the older half of the range.
+	 *
+	 * @return
+	 */
+	public Page older() {
+	    return new Page(end - span + span / 2, span / 2);
+	}
+
+	/**
+	 * Request the newer half of the range.
+	 *
+	 * @return
+	 */
+	public Page newer() {
+	    return new Page(end, span - span / 2);
+	}
+    }
+}
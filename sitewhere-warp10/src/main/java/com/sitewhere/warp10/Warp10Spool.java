@@ -0,0 +1,661 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sitewhere.spi.SiteWhereException;
+import com.sitewhere.warp10.rest.Warp10RestClient;
+
+import okio.Buffer;
+
+/**
+ * Write-ahead spool for encoded update lines that could not be delivered
+ * because Warp 10 was unavailable or saturated. Batches are appended to a log
+ * of memory-mapped segment files so that ingest does not wait on the backend,
+ * and a background task replays them in large update requests once the backend
+ * accepts requests again. Segments are deleted once fully replayed, and batches
+ * are dropped rather than spooled when the log reaches its size limit.
+ * <p>
+ * Each segment starts with the offset of its first unreplayed record, followed
+ * by records made of a length and the encoded lines. The length is written
+ * after the lines so that a partially written record is never replayed.
+ */
+public class Warp10Spool {
+
+    /** Suffix for segment files */
+    private static final String SEGMENT_SUFFIX = ".spool";
+
+    /** Size of segment header holding the replay offset */
+    private static final int HEADER_BYTES = 8;
+
+    /** Size of record length */
+    private static final int LENGTH_BYTES = 4;
+
+    /** Parent client */
+    private Warp10Client client;
+
+    /** REST client used to replay batches */
+    private Warp10RestClient restClient;
+
+    /** Directory holding segment files */
+    private Path directory;
+
+    /** Max bytes held by all segments */
+    private long maxBytes;
+
+    /** Size of each segment */
+    private int segmentBytes;
+
+    /** Max bytes replayed in a single update request */
+    private int replayBatchBytes;
+
+    /** Interval between replay attempts */
+    private long replayIntervalMs;
+
+    /** Segments in order, the last one receiving appends */
+    private Deque<Segment> segments = new ArrayDeque<>();
+
+    /** Sequence number of the next segment */
+    private long nextSequence;
+
+    /** Bytes held by all segment files */
+    private long diskBytes;
+
+    /** Indicates whether the last request to the backend succeeded */
+    private volatile boolean available = true;
+
+    /** Executor that replays spooled batches */
+    private ScheduledExecutorService scheduler;
+
+    /** Batches appended */
+    private AtomicLong appendedBatches = new AtomicLong();
+
+    /** Bytes appended */
+    private AtomicLong appendedBytes = new AtomicLong();
+
+    /** Batches replayed */
+    private AtomicLong replayedBatches = new AtomicLong();
+
+    /** Bytes replayed */
+    private AtomicLong replayedBytes = new AtomicLong();
+
+    /** Batches dropped because the spool was full or the backend rejected them */
+    private AtomicLong droppedBatches = new AtomicLong();
+
+    /** Bytes dropped because the spool was full or the backend rejected them */
+    private AtomicLong droppedBytes = new AtomicLong();
+
+    /** Rate of the last replay pass */
+    private volatile double replayBytesPerSecond;
+
+    public Warp10Spool(Warp10Client client, Warp10RestClient restClient, Path directory) {
+	this.client = client;
+	this.restClient = restClient;
+	this.directory = directory;
+	this.maxBytes = client.getConfiguration().getSpoolMaxBytes();
+	this.segmentBytes = client.getConfiguration().getSpoolSegmentBytes();
+	this.replayBatchBytes = client.getConfiguration().getSpoolReplayBatchBytes();
+	this.replayIntervalMs = client.getConfiguration().getSpoolReplayIntervalMs();
+    }
+
+    /**
+     * Open segments left by a previous run and start the background replay task.
+     *
+     * @throws SiteWhereException
+     */
+    public void start() throws SiteWhereException {
+	open();
+	this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+	    Thread thread = new Thread(runnable, "warp10-spool-replay");
+	    thread.setDaemon(true);
+	    return thread;
+	});
+	scheduler.scheduleWithFixedDelay(new Replayer(), replayIntervalMs, replayIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the replay task and flush segments to disk. Batches not yet replayed
+     * are kept for the next run.
+     */
+    public void stop() {
+	if (scheduler != null) {
+	    scheduler.shutdown();
+	    try {
+		scheduler.awaitTermination(30, TimeUnit.SECONDS);
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	    scheduler = null;
+	}
+	synchronized (this) {
+	    for (Segment segment : segments) {
+		segment.close();
+	    }
+	    segments.clear();
+	}
+    }
+
+    /**
+     * Open existing segments in sequence order.
+     *
+     * @throws SiteWhereException
+     */
+    protected synchronized void open() throws SiteWhereException {
+	this.diskBytes = 0;
+	this.nextSequence = 0;
+	try {
+	    Files.createDirectories(directory);
+	    List<Path> paths = new ArrayList<>();
+	    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+		for (Path path : stream) {
+		    paths.add(path);
+		}
+	    }
+	    Collections.sort(paths);
+	    for (Path path : paths) {
+		Segment segment = Segment.open(path, getSequence(path));
+		diskBytes += segment.getCapacity();
+		nextSequence = segment.getSequence() + 1;
+		if (segment.isReplayed()) {
+		    delete(segment);
+		} else {
+		    segments.add(segment);
+		}
+	    }
+	} catch (IOException e) {
+	    throw new SiteWhereException("Unable to open Warp 10 spool in '" + directory + "'.", e);
+	}
+	if (!segments.isEmpty()) {
+	    client.getLogger().info(String.format("Found %d bytes of spooled Warp 10 updates to replay.",
+		    getPendingBytes()));
+	    this.available = false;
+	}
+    }
+
+    /**
+     * Append encoded lines to the spool, consuming the buffer. The batch is
+     * dropped if it would take the spool over its size limit.
+     *
+     * @param lines
+     * @return true if the batch was spooled
+     */
+    public boolean append(Buffer lines) {
+	byte[] data = lines.readByteArray();
+	synchronized (this) {
+	    try {
+		Segment segment = segments.peekLast();
+		if ((segment == null) || !segment.hasRoomFor(data.length)) {
+		    segment = roll(data.length);
+		}
+		if (segment == null) {
+		    dropped(data.length);
+		    return false;
+		}
+		segment.append(data);
+		// Keep new batches behind this one until the replay task drains it
+		this.available = false;
+	    } catch (IOException e) {
+		client.getLogger().error("Unable to write to Warp 10 spool.", e);
+		dropped(data.length);
+		return false;
+	    }
+	}
+	appendedBatches.incrementAndGet();
+	appendedBytes.addAndGet(data.length);
+	return true;
+    }
+
+    /**
+     * Count a batch that was dropped.
+     *
+     * @param bytes
+     */
+    protected void dropped(long bytes) {
+	droppedBatches.incrementAndGet();
+	droppedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Start a new segment large enough for a record of the given length.
+     *
+     * @param length
+     * @return new segment or null if the spool is full
+     * @throws IOException
+     */
+    protected Segment roll(int length) throws IOException {
+	int capacity = Math.max(segmentBytes, HEADER_BYTES + LENGTH_BYTES + length);
+	Segment current = segments.peekLast();
+	if ((current != null) && current.isReplayed()) {
+	    segments.removeLast();
+	    delete(current);
+	}
+	if (diskBytes + capacity > maxBytes) {
+	    return null;
+	}
+	if (current != null) {
+	    current.force();
+	}
+	Path path = directory.resolve(String.format("%020d%s", nextSequence, SEGMENT_SUFFIX));
+	Segment segment = Segment.create(path, nextSequence++, capacity);
+	diskBytes += capacity;
+	segments.add(segment);
+	return segment;
+    }
+
+    /**
+     * Read spooled records up to the replay batch size.
+     *
+     * @return records to replay or null if the spool is empty
+     */
+    protected synchronized Replay read() {
+	Buffer lines = new Buffer();
+	Segment last = null;
+	int offset = 0;
+	for (Segment segment : segments) {
+	    offset = segment.read(lines, replayBatchBytes - lines.size());
+	    last = segment;
+	    if ((offset < segment.getWriteOffset()) || (lines.size() >= replayBatchBytes)) {
+		break;
+	    }
+	}
+	return (lines.size() > 0) ? new Replay(lines, last, offset) : null;
+    }
+
+    /**
+     * Read the next batch to replay or, if nothing is pending, mark the backend
+     * available while still holding the lock used by {@link #append(Buffer)}.
+     *
+     * @return
+     */
+    protected synchronized Replay readOrMarkAvailable() {
+	Replay replay = read();
+	if (replay == null) {
+	    this.available = true;
+	}
+	return replay;
+    }
+
+    /**
+     * Mark records as replayed, deleting segments that no longer hold any
+     * records unless they are still receiving appends.
+     *
+     * @param replay
+     */
+    protected synchronized void commit(Replay replay) {
+	if (!segments.contains(replay.getSegment())) {
+	    return;
+	}
+	while (!segments.isEmpty()) {
+	    Segment segment = segments.peekFirst();
+	    if (segment != replay.getSegment()) {
+		segments.removeFirst();
+		delete(segment);
+		continue;
+	    }
+	    segment.setReadOffset(replay.getOffset());
+	    if (segment.isReplayed() && (segment != segments.peekLast())) {
+		segments.removeFirst();
+		delete(segment);
+	    }
+	    break;
+	}
+    }
+
+    /**
+     * Unmap and delete a segment file.
+     *
+     * @param segment
+     */
+    protected void delete(Segment segment) {
+	segment.close();
+	diskBytes -= segment.getCapacity();
+	try {
+	    Files.deleteIfExists(segment.getPath());
+	} catch (IOException e) {
+	    client.getLogger().warn("Unable to delete Warp 10 spool segment '" + segment.getPath() + "'.", e);
+	}
+    }
+
+    /**
+     * Get sequence number from a segment file name.
+     *
+     * @param path
+     * @return
+     */
+    protected static long getSequence(Path path) {
+	String name = path.getFileName().toString();
+	return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Indicates whether batches should be sent to the backend rather than
+     * spooled. Cleared when a request fails and set again once the replay task
+     * finds the spool empty, so that new batches are not sent ahead of older
+     * spooled ones.
+     *
+     * @return
+     */
+    public boolean isAvailable() {
+	return available;
+    }
+
+    /**
+     * Record that the backend could not accept a request.
+     */
+    public void markUnavailable() {
+	this.available = false;
+    }
+
+    /**
+     * Get number of bytes waiting to be replayed.
+     *
+     * @return
+     */
+    public synchronized long getPendingBytes() {
+	long pending = 0;
+	for (Segment segment : segments) {
+	    pending += segment.getWriteOffset() - segment.getReadOffset();
+	}
+	return pending;
+    }
+
+    public synchronized long getDiskBytes() {
+	return diskBytes;
+    }
+
+    public synchronized int getSegmentCount() {
+	return segments.size();
+    }
+
+    public long getAppendedBatches() {
+	return appendedBatches.get();
+    }
+
+    public long getAppendedBytes() {
+	return appendedBytes.get();
+    }
+
+    public long getReplayedBatches() {
+	return replayedBatches.get();
+    }
+
+    public long getReplayedBytes() {
+	return replayedBytes.get();
+    }
+
+    public long getDroppedBatches() {
+	return droppedBatches.get();
+    }
+
+    public long getDroppedBytes() {
+	return droppedBytes.get();
+    }
+
+    public double getReplayBytesPerSecond() {
+	return replayBytesPerSecond;
+    }
+
+    public Path getDirectory() {
+	return directory;
+    }
+
+    /**
+     * Replays spooled batches until the spool is empty or a request fails. The
+     * backend is marked available again only once the spool is empty.
+     */
+    private class Replayer implements Runnable {
+
+	@Override
+	public void run() {
+	    long started = System.nanoTime();
+	    long replayed = 0;
+	    while (true) {
+		Replay replay = readOrMarkAvailable();
+		if (replay == null) {
+		    break;
+		}
+		long size = replay.getLines().size();
+		int responseCode;
+		try {
+		    responseCode = restClient.ingress(replay.getLines());
+		} catch (SiteWhereException e) {
+		    client.getLogger().debug("Warp 10 still unavailable for spool replay.", e);
+		    markUnavailable();
+		    break;
+		} catch (Throwable t) {
+		    client.getLogger().error("Unhandled exception replaying Warp 10 spool.", t);
+		    break;
+		}
+		if (responseCode >= 500) {
+		    markUnavailable();
+		    break;
+		}
+		if (responseCode != 200) {
+		    client.getLogger().error(String.format(
+			    "Warp 10 rejected spooled batch with response code %d. Dropping %d bytes.",
+			    responseCode, size));
+		    dropped(size);
+		} else {
+		    replayedBatches.incrementAndGet();
+		    replayedBytes.addAndGet(size);
+		    replayed += size;
+		}
+		commit(replay);
+	    }
+	    if (replayed > 0) {
+		double seconds = (System.nanoTime() - started) / 1e9;
+		replayBytesPerSecond = replayed / Math.max(seconds, 1e-9);
+	    }
+	}
+    }
+
+    /**
+     * Records read for replay along with the position up to which they were read.
+     */
+    protected static class Replay {
+
+	private Buffer lines;
+
+	private Segment segment;
+
+	private int offset;
+
+	public Replay(Buffer lines, Segment segment, int offset) {
+	    this.lines = lines;
+	    this.segment = segment;
+	    this.offset = offset;
+	}
+
+	public Buffer getLines() {
+	    return lines;
+	}
+
+	public Segment getSegment() {
+	    return segment;
+	}
+
+	public int getOffset() {
+	    return offset;
+	}
+    }
+
+    /**
+     * Memory-mapped segment file.
+     */
+    protected static class Segment {
+
+	private Path path;
+
+	private long sequence;
+
+	private FileChannel channel;
+
+	private MappedByteBuffer buffer;
+
+	private int writeOffset;
+
+	private Segment(Path path, long sequence, FileChannel channel, int capacity) throws IOException {
+	    this.path = path;
+	    this.sequence = sequence;
+	    this.channel = channel;
+	    this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+	}
+
+	/**
+	 * Create an empty segment.
+	 *
+	 * @param path
+	 * @param sequence
+	 * @param capacity
+	 * @return
+	 * @throws IOException
+	 */
+	public static Segment create(Path path, long sequence, int capacity) throws IOException {
+	    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+		    StandardOpenOption.WRITE);
+	    Segment segment = new Segment(path, sequence, channel, capacity);
+	    segment.setReadOffset(HEADER_BYTES);
+	    segment.writeOffset = HEADER_BYTES;
+	    return segment;
+	}
+
+	/**
+	 * Open an existing segment, finding the end of its complete records.
+	 *
+	 * @param path
+	 * @param sequence
+	 * @return
+	 * @throws IOException
+	 */
+	public static Segment open(Path path, long sequence) throws IOException {
+	    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	    Segment segment = new Segment(path, sequence, channel, (int) channel.size());
+	    int offset = HEADER_BYTES;
+	    while (offset + LENGTH_BYTES <= segment.getCapacity()) {
+		int length = segment.buffer.getInt(offset);
+		if ((length <= 0) || (offset + LENGTH_BYTES + length > segment.getCapacity())) {
+		    break;
+		}
+		offset += LENGTH_BYTES + length;
+	    }
+	    segment.writeOffset = offset;
+	    if ((segment.getReadOffset() < HEADER_BYTES) || (segment.getReadOffset() > offset)) {
+		segment.setReadOffset(HEADER_BYTES);
+	    }
+	    return segment;
+	}
+
+	public boolean hasRoomFor(int length) {
+	    return writeOffset + LENGTH_BYTES + length <= getCapacity();
+	}
+
+	/**
+	 * Append a record. The length is written last so the record only becomes
+	 * visible once complete.
+	 *
+	 * @param data
+	 */
+	public void append(byte[] data) {
+	    buffer.position(writeOffset + LENGTH_BYTES);
+	    buffer.put(data);
+	    buffer.putInt(writeOffset, data.length);
+	    writeOffset += LENGTH_BYTES + data.length;
+	}
+
+	/**
+	 * Copy whole records from the replay offset into a buffer. At least one
+	 * record is copied even if it is larger than the limit.
+	 *
+	 * @param lines
+	 * @param limit
+	 * @return offset after the last record copied
+	 */
+	public int read(Buffer lines, long limit) {
+	    int offset = getReadOffset();
+	    long copied = 0;
+	    while (offset < writeOffset) {
+		int length = buffer.getInt(offset);
+		if ((copied > 0) && (copied + length > limit)) {
+		    break;
+		}
+		byte[] data = new byte[length];
+		buffer.position(offset + LENGTH_BYTES);
+		buffer.get(data);
+		lines.write(data);
+		copied += length;
+		offset += LENGTH_BYTES + length;
+	    }
+	    return offset;
+	}
+
+	public void force() {
+	    buffer.force();
+	}
+
+	public void close() {
+	    try {
+		buffer.force();
+		channel.close();
+	    } catch (IOException e) {
+		// Ignore errors closing segments.
+	    }
+	}
+
+	public boolean isReplayed() {
+	    return getReadOffset() >= writeOffset;
+	}
+
+	public int getReadOffset() {
+	    return (int) buffer.getLong(0);
+	}
+
+	public void setReadOffset(int offset) {
+	    buffer.putLong(0, offset);
+	}
+
+	public int getWriteOffset() {
+	    return writeOffset;
+	}
+
+	public int getCapacity() {
+	    return buffer.capacity();
+	}
+
+	public Path getPath() {
+	    return path;
+	}
+
+	public long getSequence() {
+	    return sequence;
+	}
+    }
+}
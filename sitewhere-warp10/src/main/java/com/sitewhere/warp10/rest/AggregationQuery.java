@@ -0,0 +1,131 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.rest;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.sitewhere.spi.SiteWhereException;
+
+/**
+ * Query that aggregates matching series into fixed time buckets on the Warp 10
+ * server so that only the aggregated values are returned. Series may also be
+ * reduced into one series per distinct value of a set of labels.
+ */
+public class AggregationQuery {
+
+    /** Series and time range to aggregate */
+    private QueryParams queryParams = QueryParams.builder();
+
+    /** Width of each bucket in microseconds */
+    private long bucketSpan;
+
+    /** Aggregation applied to each bucket */
+    private Aggregator aggregator = Aggregator.MEAN;
+
+    /** Labels to group by when reducing (null to keep series separate) */
+    private List<String> reduceBy;
+
+    public static AggregationQuery builder() {
+	return new AggregationQuery();
+    }
+
+    /**
+     * Check that the query can be executed.
+     *
+     * @throws SiteWhereException
+     */
+    public void validate() throws SiteWhereException {
+	if ((reduceBy != null) && (aggregator.getReducer() == null)) {
+	    throw new SiteWhereException(
+		    String.format("Aggregator %s does not support reducing series by labels.", aggregator));
+	}
+    }
+
+    /**
+     * Build the WarpScript for the query.
+     *
+     * @param token
+     * @return
+     */
+    public String toWarpScript(String token) {
+	WarpScript script = WarpScript.builder();
+	script.append("[").fetch(token, queryParams);
+	script.append(aggregator.getBucketizer()).number(getLastBucket()).number(bucketSpan).number(0)
+		.append("] BUCKETIZE");
+	if (reduceBy != null) {
+	    script.append("[ SWAP").strings(reduceBy).append(aggregator.getReducer()).append("] REDUCE");
+	}
+	return script.toString();
+    }
+
+    /**
+     * Get the end of the last bucket so that buckets are aligned on multiples of
+     * the bucket span. Returns zero to let Warp 10 align on the last point when
+     * no date range or explicit range is given.
+     *
+     * @return
+     */
+    protected long getLastBucket() {
+	long micros;
+	if (queryParams.getEndTimestamp() != null && queryParams.getTimespan() != null) {
+	    micros = queryParams.getEndTimestamp();
+	} else if (queryParams.getStartDate() == null && queryParams.getEndDate() == null) {
+	    return 0;
+	} else {
+	    Date end = (queryParams.getEndDate() != null) ? queryParams.getEndDate() : new Date();
+	    micros = WarpScript.toMicros(end);
+	}
+	return ((micros + bucketSpan - 1) / bucketSpan) * bucketSpan;
+    }
+
+    public QueryParams getQueryParams() {
+	return queryParams;
+    }
+
+    public void setQueryParams(QueryParams queryParams) {
+	this.queryParams = queryParams;
+    }
+
+    public long getBucketSpan() {
+	return bucketSpan;
+    }
+
+    public void setBucketSpan(long bucketSpan) {
+	this.bucketSpan = bucketSpan;
+    }
+
+    public void setBucketSpan(long duration, TimeUnit unit) {
+	this.bucketSpan = unit.toMicros(duration);
+    }
+
+    public Aggregator getAggregator() {
+	return aggregator;
+    }
+
+    public void setAggregator(Aggregator aggregator) {
+	this.aggregator = aggregator;
+    }
+
+    public List<String> getReduceBy() {
+	return reduceBy;
+    }
+
+    public void setReduceBy(List<String> reduceBy) {
+	this.reduceBy = reduceBy;
+    }
+}
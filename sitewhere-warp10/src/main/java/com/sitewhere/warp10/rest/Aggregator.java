@@ -0,0 +1,59 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.rest;
+
+/**
+ * Aggregations that can be computed by Warp 10 over each time bucket.
+ */
+public enum Aggregator {
+
+    /**
+     * Bucket means are averaged without weighting when series are reduced, so a
+     * series with few points in a bucket counts as much as one with many
+     */
+    MEAN("bucketizer.mean", "reducer.mean"),
+
+    MIN("bucketizer.min", "reducer.min"),
+
+    MAX("bucketizer.max", "reducer.max"),
+
+    SUM("bucketizer.sum", "reducer.sum"),
+
+    /** Per-series counts are summed when series are reduced */
+    COUNT("bucketizer.count", "reducer.sum"),
+
+    /** Cannot be reduced since Warp 10 has no reducer for the latest value */
+    LAST("bucketizer.last", null);
+
+    /** Function applied to the points in a bucket */
+    private String bucketizer;
+
+    /** Function applied across series when reducing (null if not supported) */
+    private String reducer;
+
+    private Aggregator(String bucketizer, String reducer) {
+	this.bucketizer = bucketizer;
+	this.reducer = reducer;
+    }
+
+    public String getBucketizer() {
+	return bucketizer;
+    }
+
+    public String getReducer() {
+	return reducer;
+    }
+}
@@ -15,6 +15,7 @@
  */
 package com.sitewhere.warp10.rest;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
@@ -22,10 +23,11 @@ import java.time.ZonedDateTime;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 import com.sitewhere.spi.SiteWhereException;
 
+import okio.Buffer;
+
 public class GTSInput {
 
     private Long ts;
@@ -40,8 +42,12 @@ public class GTSInput {
     private Double doubleValue;
     private Boolean booleanValue;
 
+    /** Serializer used for the string form */
+    private static final GTSInputWriter WRITER = new GTSInputWriter();
+
     private GTSInput() {
 	this.labels = new HashMap<>();
+	this.attributes = new HashMap<>();
     }
 
     /**
@@ -107,8 +113,7 @@ public class GTSInput {
     }
 
     public void setLabel(String key, String value) throws UnsupportedEncodingException {
-	this.labels.put(URLEncoder.encode(key, String.valueOf(StandardCharsets.UTF_8)),
-		URLEncoder.encode(value, String.valueOf(StandardCharsets.UTF_8)));
+	this.labels.put(encode(key), encode(value));
     }
 
     public void setValue(String value) {
@@ -128,17 +133,42 @@ public class GTSInput {
     }
 
     public void setAttributes(Map<String, String> attributes) {
-	this.attributes = attributes;
+	this.attributes.clear();
+	if (attributes != null) {
+	    this.attributes.putAll(attributes);
+	}
     }
 
     public String getLabel(String key) {
 	return labels.getOrDefault(key, "");
     }
 
-    public String toInputFormat() throws SiteWhereException {
+    /**
+     * Clear all fields back to the defaults used by {@link #builder()} so that the
+     * instance can be reused.
+     */
+    public void reset() {
+	this.ts = null;
+	this.lat = 0D;
+	this.lon = 0D;
+	this.elev = 0L;
+	this.name = null;
+	this.labels.clear();
+	this.attributes.clear();
+	this.stringValue = null;
+	this.longValue = 0L;
+	this.doubleValue = null;
+	this.booleanValue = null;
+    }
 
-	return formatOptionalLongValue(ts) + "/" + formatOptionalLatLon() + "/" + formatOptionalLongValue(elev) + " "
-		+ formatMandatoryFieldName() + "{" + formatLabels() + "} " + formatValue();
+    public String toInputFormat() throws SiteWhereException {
+	Buffer line = new Buffer();
+	try {
+	    WRITER.write(this, line);
+	    return line.readUtf8(line.size() - 1);
+	} catch (IOException e) {
+	    throw new SiteWhereException(e);
+	}
     }
 
     @Override
@@ -196,68 +226,18 @@ public class GTSInput {
 	return attributes;
     }
 
-    private String formatMandatoryFieldName() throws SiteWhereException {
-	if (name == null) {
-	    throw new SiteWhereException("name");
-	}
-
-	return name;
-    }
-
-    private String formatOptionalLatLon() {
-	String latLon = "";
-	if (lat != null && lon != null) {
-	    latLon = lat + ":" + lon;
-	}
-	return latLon;
-    }
-
-    private String formatLabels() throws SiteWhereException {
-	if (labels != null && !labels.isEmpty()) {
-	    return labels.entrySet().stream().map(entry -> entry.getKey() + '=' + entry.getValue())
-		    .collect(Collectors.joining(","));
-	}
-	throw new SiteWhereException("labels");
-    }
-
-    @SuppressWarnings("unused")
-    private String formatAttributes() throws SiteWhereException {
-	if (attributes != null && !attributes.isEmpty()) {
-	    return "{" + attributes.entrySet().stream().map(entry -> entry.getKey() + '=' + entry.getValue())
-		    .collect(Collectors.joining(",")) + "}";
-	}
-	return "";
-    }
-
-    private String formatOptionalLongValue(Long possibleNullValue) {
-	if (possibleNullValue == null) {
-	    return "";
-	}
-	return possibleNullValue.toString();
-    }
-
-    @SuppressWarnings("unused")
-    private String formatOptionalDoubleValue(Double possibleNullValue) {
-	if (possibleNullValue == null) {
-	    return "";
-	}
-	return possibleNullValue.toString();
-    }
-
-    private String formatValue() throws SiteWhereException {
-	if (longValue != null) {
-	    return longValue.toString();
-	} else if (doubleValue != null) {
-	    return doubleValue.toString();
-	} else if (booleanValue != null) {
-	    return booleanValue ? "T" : "F";
-	} else if (stringValue != null) {
-	    try {
-		return "'" + URLEncoder.encode(stringValue, String.valueOf(StandardCharsets.UTF_8)) + "'";
-	    } catch (UnsupportedEncodingException e) {
-		throw new SiteWhereException(e);
-	    }
+    /**
+     * URL encode a label key or value, skipping the encoder when no characters
+     * need to be escaped.
+     *
+     * @param value
+     * @return
+     * @throws UnsupportedEncodingException
+     */
+    static String encode(String value) throws UnsupportedEncodingException {
+	if (GTSInputWriter.isUnreserved(value)) {
+	    return value;
 	}
-	throw new SiteWhereException("value");
+	return URLEncoder.encode(value, String.valueOf(StandardCharsets.UTF_8));
     }
-}
\ No newline at end of file
+}
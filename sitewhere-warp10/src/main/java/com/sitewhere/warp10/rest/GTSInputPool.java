@@ -0,0 +1,56 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.rest;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded pool of reusable {@link GTSInput} instances for the ingest path.
+ * Instances are reset when released and new ones are created whenever the
+ * pool is empty.
+ */
+public class GTSInputPool {
+
+    /** Idle instances */
+    private BlockingQueue<GTSInput> idle;
+
+    public GTSInputPool(int capacity) {
+	this.idle = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    }
+
+    /**
+     * Get an instance initialized with the same defaults as
+     * {@link GTSInput#builder()}.
+     *
+     * @return
+     */
+    public GTSInput acquire() {
+	GTSInput input = idle.poll();
+	return (input != null) ? input : GTSInput.builder();
+    }
+
+    /**
+     * Return an instance to the pool. The caller must not use the instance after
+     * it has been released.
+     *
+     * @param input
+     */
+    public void release(GTSInput input) {
+	input.reset();
+	idle.offer(input);
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.rest;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import com.sitewhere.spi.SiteWhereException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+
+/**
+ * Request body for the Warp 10 update endpoint. Points are serialized straight
+ * into the request sink when the body is written, with consecutive points from
+ * the same series written as continuation lines. Already encoded batches are
+ * copied by sharing buffer segments, so the body may be written more than once
+ * if a request has to be retried.
+ */
+public class GTSInputRequestBody extends RequestBody {
+
+    /** Content type for update requests */
+    public static final MediaType TEXT_PLAIN = MediaType.parse("text/plain; charset=utf-8");
+
+    /** Points to be serialized */
+    private Collection<GTSInput> inputs;
+
+    /** Already encoded lines */
+    private Buffer encoded;
+
+    /** Serializer for points */
+    private GTSInputWriter writer;
+
+    public GTSInputRequestBody(Collection<GTSInput> inputs, GTSInputWriter writer) {
+	this.inputs = inputs;
+	this.writer = writer;
+    }
+
+    public GTSInputRequestBody(Buffer encoded) {
+	this.encoded = encoded;
+    }
+
+    /*
+     * @see okhttp3.RequestBody#contentType()
+     */
+    @Override
+    public MediaType contentType() {
+	return TEXT_PLAIN;
+    }
+
+    /*
+     * @see okhttp3.RequestBody#contentLength()
+     */
+    @Override
+    public long contentLength() throws IOException {
+	return (encoded != null) ? encoded.size() : -1;
+    }
+
+    /**
+     * Get the number of points in the body. Encoded batches are counted by their
+     * line endings.
+     * 
+     * @return
+     */
+    public long getPointCount() {
+	if (inputs != null) {
+	    return inputs.size();
+	}
+	long count = 0;
+	long index = -1;
+	while ((index = encoded.indexOf((byte) '\n', index + 1)) != -1) {
+	    count++;
+	}
+	return count;
+    }
+
+    /*
+     * @see okhttp3.RequestBody#writeTo(okio.BufferedSink)
+     */
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+	if (encoded != null) {
+	    encoded.copyTo(sink.buffer(), 0, encoded.size());
+	    sink.emitCompleteSegments();
+	    return;
+	}
+	try {
+	    ByteString previous = null;
+	    for (GTSInput input : inputs) {
+		writer.validate(input);
+		ByteString prefix = writer.getSeriesPrefix(input);
+		if (prefix.equals(previous)) {
+		    writer.writeContinuation(input, sink);
+		} else {
+		    writer.write(input, prefix, sink);
+		}
+		previous = prefix;
+		sink.emitCompleteSegments();
+	    }
+	} catch (SiteWhereException e) {
+	    throw new IOException("Unable to serialize GTS input.", e);
+	}
+    }
+}
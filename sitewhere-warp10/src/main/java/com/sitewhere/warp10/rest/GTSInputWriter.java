@@ -0,0 +1,459 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.rest;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.sitewhere.spi.SiteWhereException;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+
+/**
+ * Writes {@link GTSInput} points in the Warp 10 input format directly to a
+ * {@link BufferedSink} without building intermediate strings. If a
+ * {@link SeriesKeyCache} is supplied, the class and labels of each series are
+ * encoded once and reused for later points.
+ */
+public class GTSInputWriter {
+
+    /** Hex digits used for percent encoding */
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+
+    /** Smallest magnitude for which a double prints without an exponent */
+    private static final double PLAIN_DOUBLE_MIN = 1e-3;
+
+    /** Largest magnitude for which a double prints without an exponent */
+    private static final double PLAIN_DOUBLE_LIMIT = 1e7;
+
+    /** Max fraction digits written without an intermediate string */
+    private static final int MAX_FRACTION_DIGITS = 9;
+
+    /** Powers of ten up to the max fraction digits */
+    private static final long[] POWERS_OF_TEN = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+	    100000000L, 1000000000L };
+
+    /** Largest magnitude of a long that converts to a double exactly */
+    private static final long MAX_EXACT_LONG = 1L << 53;
+
+    /** Cache of encoded series prefixes (optional) */
+    private SeriesKeyCache seriesCache;
+
+    public GTSInputWriter() {
+    }
+
+    public GTSInputWriter(SeriesKeyCache seriesCache) {
+	this.seriesCache = seriesCache;
+    }
+
+    /**
+     * Write a single point followed by a newline.
+     *
+     * @param input
+     * @param sink
+     * @throws SiteWhereException
+     * @throws IOException
+     */
+    public void write(GTSInput input, BufferedSink sink) throws SiteWhereException, IOException {
+	validate(input);
+	writeLocation(input, sink);
+	sink.writeByte(' ');
+	writeSeries(input, sink);
+	sink.writeByte(' ');
+	writeValue(input, sink);
+	sink.writeByte('\n');
+    }
+
+    /**
+     * Write a single point followed by a newline using an already encoded
+     * <code>CLASS{LABELS}</code> prefix.
+     *
+     * @param input
+     * @param prefix
+     * @param sink
+     * @throws SiteWhereException
+     * @throws IOException
+     */
+    public void write(GTSInput input, ByteString prefix, BufferedSink sink) throws SiteWhereException, IOException {
+	validate(input);
+	writeLocation(input, sink);
+	sink.writeByte(' ');
+	sink.write(prefix);
+	sink.writeByte(' ');
+	writeValue(input, sink);
+	sink.writeByte('\n');
+    }
+
+    /**
+     * Write a point as a continuation line (<code>=TS/LAT:LON/ELEV VALUE</code>)
+     * which reuses the class and labels of the previous line.
+     *
+     * @param input
+     * @param sink
+     * @throws SiteWhereException
+     * @throws IOException
+     */
+    public void writeContinuation(GTSInput input, BufferedSink sink) throws SiteWhereException, IOException {
+	validate(input);
+	sink.writeByte('=');
+	writeLocation(input, sink);
+	sink.writeByte(' ');
+	writeValue(input, sink);
+	sink.writeByte('\n');
+    }
+
+    /**
+     * Verify that all mandatory fields are present so that nothing is written for
+     * an invalid point.
+     *
+     * @param input
+     * @throws SiteWhereException
+     */
+    public void validate(GTSInput input) throws SiteWhereException {
+	if (input.getName() == null) {
+	    throw new SiteWhereException("name");
+	}
+	if (input.getLabels() == null || input.getLabels().isEmpty()) {
+	    throw new SiteWhereException("labels");
+	}
+	if (input.getLongValue() == null && input.getDoubleValue() == null && input.getBooleanValue() == null
+		&& input.getStringValue() == null) {
+	    throw new SiteWhereException("value");
+	}
+    }
+
+    /**
+     * Write the <code>TS/LAT:LON/ELEV</code> section of a point.
+     *
+     * @param input
+     * @param sink
+     * @throws IOException
+     */
+    protected void writeLocation(GTSInput input, BufferedSink sink) throws IOException {
+	if (input.getTs() != null) {
+	    sink.writeDecimalLong(input.getTs());
+	}
+	sink.writeByte('/');
+	if (input.getLat() != null && input.getLon() != null) {
+	    writeDouble(input.getLat(), sink);
+	    sink.writeByte(':');
+	    writeDouble(input.getLon(), sink);
+	}
+	sink.writeByte('/');
+	if (input.getElev() != null) {
+	    sink.writeDecimalLong(input.getElev());
+	}
+    }
+
+    /**
+     * Write the <code>CLASS{LABELS}</code> section of a point, using the cached
+     * encoding for the series if available.
+     *
+     * @param input
+     * @param sink
+     * @throws IOException
+     */
+    protected void writeSeries(GTSInput input, BufferedSink sink) throws IOException {
+	if (seriesCache == null) {
+	    encodeSeries(input, sink);
+	    return;
+	}
+	sink.write(getSeriesPrefix(input));
+    }
+
+    /**
+     * Get the encoded <code>CLASS{LABELS}</code> section for a point, encoding
+     * and caching it on first use.
+     *
+     * @param input
+     * @return
+     * @throws IOException
+     */
+    public ByteString getSeriesPrefix(GTSInput input) throws IOException {
+	ByteString prefix = (seriesCache != null) ? seriesCache.get(input.getName(), input.getLabels()) : null;
+	if (prefix == null) {
+	    Buffer encoded = new Buffer();
+	    encodeSeries(input, encoded);
+	    prefix = encoded.readByteString();
+	    if (seriesCache != null) {
+		seriesCache.put(input.getName(), input.getLabels(), prefix);
+	    }
+	}
+	return prefix;
+    }
+
+    /**
+     * Encode the <code>CLASS{LABELS}</code> section of a point.
+     *
+     * @param input
+     * @param sink
+     * @throws IOException
+     */
+    protected void encodeSeries(GTSInput input, BufferedSink sink) throws IOException {
+	sink.writeUtf8(input.getName());
+	sink.writeByte('{');
+	boolean first = true;
+	for (Map.Entry<String, String> label : input.getLabels().entrySet()) {
+	    if (!first) {
+		sink.writeByte(',');
+	    }
+	    sink.writeUtf8(label.getKey());
+	    sink.writeByte('=');
+	    sink.writeUtf8(label.getValue());
+	    first = false;
+	}
+	sink.writeByte('}');
+    }
+
+    /**
+     * Write the value section of a point.
+     *
+     * @param input
+     * @param sink
+     * @throws IOException
+     */
+    protected void writeValue(GTSInput input, BufferedSink sink) throws IOException {
+	if (input.getLongValue() != null) {
+	    sink.writeDecimalLong(input.getLongValue());
+	} else if (input.getDoubleValue() != null) {
+	    writeDouble(input.getDoubleValue(), sink);
+	} else if (input.getBooleanValue() != null) {
+	    sink.writeByte(input.getBooleanValue() ? 'T' : 'F');
+	} else {
+	    sink.writeByte('\'');
+	    writeEncoded(input.getStringValue(), sink);
+	    sink.writeByte('\'');
+	}
+    }
+
+    /**
+     * Start a point from primitive fields, writing
+     * <code>TS/LAT:LON/ELEV CLASS{LABELS} </code> or, for a continuation of the
+     * previous series, <code>=TS/LAT:LON/ELEV </code>. The line must be completed
+     * by one of the <code>endPoint</code> methods.
+     *
+     * @param timestamp
+     *            timestamp in microseconds
+     * @param latitude
+     *            latitude or NaN if there is no location
+     * @param longitude
+     *            longitude or NaN if there is no location
+     * @param elevation
+     *            elevation or NaN if there is none
+     * @param prefix
+     *            encoded series, or null to continue the previous series
+     * @param sink
+     * @throws IOException
+     */
+    public void beginPoint(long timestamp, double latitude, double longitude, double elevation, ByteString prefix,
+	    BufferedSink sink) throws IOException {
+	if (prefix == null) {
+	    sink.writeByte('=');
+	}
+	sink.writeDecimalLong(timestamp);
+	sink.writeByte('/');
+	if (!Double.isNaN(latitude) && !Double.isNaN(longitude)) {
+	    writeDouble(latitude, sink);
+	    sink.writeByte(':');
+	    writeDouble(longitude, sink);
+	}
+	sink.writeByte('/');
+	if (!Double.isNaN(elevation)) {
+	    sink.writeDecimalLong(Math.round(elevation));
+	}
+	sink.writeByte(' ');
+	if (prefix != null) {
+	    sink.write(prefix);
+	    sink.writeByte(' ');
+	}
+    }
+
+    /**
+     * Complete a point with a double value.
+     *
+     * @param value
+     * @param sink
+     * @throws IOException
+     */
+    public void endPoint(double value, BufferedSink sink) throws IOException {
+	writeDouble(value, sink);
+	sink.writeByte('\n');
+    }
+
+    /**
+     * Complete a point with a long value.
+     *
+     * @param value
+     * @param sink
+     * @throws IOException
+     */
+    public void endPoint(long value, BufferedSink sink) throws IOException {
+	sink.writeDecimalLong(value);
+	sink.writeByte('\n');
+    }
+
+    /**
+     * Complete a point with a boolean value.
+     *
+     * @param value
+     * @param sink
+     * @throws IOException
+     */
+    public void endPoint(boolean value, BufferedSink sink) throws IOException {
+	sink.writeByte(value ? 'T' : 'F');
+	sink.writeByte('\n');
+    }
+
+    /**
+     * Write a double that parses back to the same value. Values that
+     * {@link Double#toString(double)} prints without an exponent (magnitudes from
+     * 10<sup>-3</sup> up to 10<sup>7</sup>) and that need up to nine fraction
+     * digits are written as plain decimals with the fewest digits needed,
+     * avoiding its intermediate string. All other values use
+     * {@link Double#toString(double)}.
+     *
+     * @param value
+     * @param sink
+     * @throws IOException
+     */
+    protected void writeDouble(double value, BufferedSink sink) throws IOException {
+	double magnitude = Math.abs(value);
+	boolean plain = (magnitude >= PLAIN_DOUBLE_MIN) || (value == 0 && 1 / value > 0);
+	if (plain && (magnitude < PLAIN_DOUBLE_LIMIT)) {
+	    for (int digits = 0; digits <= MAX_FRACTION_DIGITS; digits++) {
+		long unscaled = Math.round(value * POWERS_OF_TEN[digits]);
+		if ((Math.abs(unscaled) < MAX_EXACT_LONG) && ((double) unscaled / POWERS_OF_TEN[digits] == value)) {
+		    writeDecimal(unscaled, digits, sink);
+		    return;
+		}
+	    }
+	}
+	sink.writeUtf8(Double.toString(value));
+    }
+
+    /**
+     * Write an unscaled value with the given number of fraction digits, always
+     * including a decimal point so the value is parsed as a double.
+     *
+     * @param unscaled
+     * @param digits
+     * @param sink
+     * @throws IOException
+     */
+    private static void writeDecimal(long unscaled, int digits, BufferedSink sink) throws IOException {
+	if (unscaled < 0) {
+	    sink.writeByte('-');
+	    unscaled = -unscaled;
+	}
+	sink.writeDecimalLong(unscaled / POWERS_OF_TEN[digits]);
+	sink.writeByte('.');
+	if (digits == 0) {
+	    sink.writeByte('0');
+	    return;
+	}
+	long fraction = unscaled % POWERS_OF_TEN[digits];
+	for (int digit = digits - 1; digit >= 0; digit--) {
+	    sink.writeByte('0' + (int) ((fraction / POWERS_OF_TEN[digit]) % 10));
+	}
+    }
+
+    /**
+     * Write a string using the same encoding as
+     * {@link java.net.URLEncoder#encode(String, String)} with UTF-8.
+     *
+     * @param value
+     * @param sink
+     * @throws IOException
+     */
+    public static void writeEncoded(String value, BufferedSink sink) throws IOException {
+	int length = value.length();
+	for (int i = 0; i < length; i++) {
+	    char c = value.charAt(i);
+	    if (isUnreserved(c)) {
+		sink.writeByte(c);
+	    } else if (c == ' ') {
+		sink.writeByte('+');
+	    } else {
+		int codePoint = c;
+		if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+		    codePoint = Character.toCodePoint(c, value.charAt(++i));
+		} else if (Character.isSurrogate(c)) {
+		    codePoint = '?';
+		}
+		writePercentEncoded(codePoint, sink);
+	    }
+	}
+    }
+
+    /**
+     * Indicates whether a string can be written without percent encoding.
+     *
+     * @param value
+     * @return
+     */
+    public static boolean isUnreserved(String value) {
+	for (int i = 0; i < value.length(); i++) {
+	    if (!isUnreserved(value.charAt(i))) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Indicates whether a character is left unchanged by URL encoding.
+     *
+     * @param c
+     * @return
+     */
+    protected static boolean isUnreserved(char c) {
+	return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-'
+		|| c == '*' || c == '_';
+    }
+
+    /**
+     * Write the UTF-8 bytes of a code point as percent-encoded triplets.
+     *
+     * @param codePoint
+     * @param sink
+     * @throws IOException
+     */
+    protected static void writePercentEncoded(int codePoint, BufferedSink sink) throws IOException {
+	if (codePoint < 0x80) {
+	    writePercentByte(codePoint, sink);
+	} else if (codePoint < 0x800) {
+	    writePercentByte(0xC0 | (codePoint >> 6), sink);
+	    writePercentByte(0x80 | (codePoint & 0x3F), sink);
+	} else if (codePoint < 0x10000) {
+	    writePercentByte(0xE0 | (codePoint >> 12), sink);
+	    writePercentByte(0x80 | ((codePoint >> 6) & 0x3F), sink);
+	    writePercentByte(0x80 | (codePoint & 0x3F), sink);
+	} else {
+	    writePercentByte(0xF0 | (codePoint >> 18), sink);
+	    writePercentByte(0x80 | ((codePoint >> 12) & 0x3F), sink);
+	    writePercentByte(0x80 | ((codePoint >> 6) & 0x3F), sink);
+	    writePercentByte(0x80 | (codePoint & 0x3F), sink);
+	}
+    }
+
+    private static void writePercentByte(int b, BufferedSink sink) throws IOException {
+	sink.writeByte('%');
+	sink.writeByte(HEX[(b >> 4) & 0xF]);
+	sink.writeByte(HEX[b & 0xF]);
+    }
+}
@@ -15,78 +15,567 @@
  */
 package com.sitewhere.warp10.rest;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
-import com.google.gson.Gson;
+import com.sitewhere.spi.SiteWhereException;
+import com.sitewhere.warp10.rest.SeriesKeyCache.SeriesKey;
 
+/**
+ * Series returned by Warp 10. Points are stored in primitive arrays, one per
+ * column, and are only converted to {@link DataPoint} objects when accessed
+ * through {@link #getPoints()}.
+ */
 public class GTSOutput {
 
+    /** Initial capacity of point arrays */
+    private static final int INITIAL_CAPACITY = 16;
+
     private String className;
     private Map<String, String> labels;
     private Map<String, String> attributes;
     private String id;
+
+    /** Number of points */
+    private int size;
+
+    /** Point timestamps */
+    private long[] timestamps = new long[0];
+
+    /** Point latitudes (null if no point has a location, NaN if missing) */
+    private double[] latitudes;
+
+    /** Point longitudes (null if no point has a location, NaN if missing) */
+    private double[] longitudes;
+
+    /** Point elevations (null if no point has an elevation, NaN if missing) */
+    private double[] elevations;
+
+    /** Type of values in the series */
+    private ValueType valueType;
+
+    /** Values for LONG series, or 0/1 for BOOLEAN series */
+    private long[] longValues;
+
+    /** Values for DOUBLE series */
+    private double[] doubleValues;
+
+    /** Points of a DOUBLE series added as LONG values (null if none) */
+    private BitSet longPoints;
+
+    /** Values for STRING series */
+    private String[] stringValues;
+
+    /** Lazily created view of the points */
     private List<DataPoint> points;
 
-    public static List<GTSOutput> fromOutputFormat(String output) {
+    public GTSOutput() {
+    }
+
+    void setSeries(String className, Map<String, String> labels, Map<String, String> attributes, String id) {
+	this.className = className;
+	this.labels = labels;
+	this.attributes = attributes;
+	this.id = id;
+    }
+
+    /**
+     * Parse a fetch response held in memory.
+     *
+     * @param output
+     * @return
+     * @throws SiteWhereException
+     *             if the response is malformed or truncated
+     */
+    public static List<GTSOutput> fromOutputFormat(String output) throws SiteWhereException {
 
 	if (output == null || output.equals(""))
 	    return new ArrayList<>();
 
-	final String regex = "\\{(\"c\"):(?<c>.*?),(\"l\"):(?<l>\\{.*?\\}),(\"a\"):(?<a>\\{.*?\\}),((\"i\"):(?<i>\".*?\"),)?(\"la\"):(?<la>.*?),(\"v\"):(?<v>\\[\\[.*?]])\\}";
+	try (GTSOutputReader reader = new GTSOutputReader(new StringReader(output))) {
+	    return reader.readAll();
+	} catch (IOException | IllegalStateException | NumberFormatException e) {
+	    throw new SiteWhereException("Unable to parse Warp 10 response.", e);
+	}
+    }
 
-	@SuppressWarnings("unused")
-	Gson gson = new Gson();
+    /**
+     * Parse a series in the <code>CLASS{LABELS}{ATTRIBUTES}</code> form returned
+     * by the find endpoint. Names and values are URL decoded.
+     *
+     * @param selector
+     * @return
+     * @throws IllegalArgumentException
+     *             if the selector is malformed
+     */
+    public static GTSOutput fromSelector(String selector) {
+	int labelsStart = selector.indexOf('{');
+	int labelsEnd = selector.indexOf('}', labelsStart);
+	if (labelsStart < 0 || labelsEnd < 0) {
+	    throw new IllegalArgumentException("Invalid series selector: " + selector);
+	}
+	Map<String, String> attributes = new HashMap<>();
+	int attributesStart = selector.indexOf('{', labelsEnd);
+	if (attributesStart >= 0) {
+	    int attributesEnd = selector.indexOf('}', attributesStart);
+	    attributes = parsePairs(selector.substring(attributesStart + 1,
+		    (attributesEnd >= 0) ? attributesEnd : selector.length()));
+	}
+	GTSOutput gts = new GTSOutput();
+	gts.setSeries(decode(selector.substring(0, labelsStart)),
+		parsePairs(selector.substring(labelsStart + 1, labelsEnd)), attributes, "");
+	return gts;
+    }
 
-	Matcher matcher = Pattern.compile(regex, Pattern.MULTILINE).matcher(output);
+    private static Map<String, String> parsePairs(String pairs) {
+	Map<String, String> parsed = new HashMap<>();
+	for (String pair : pairs.split(",")) {
+	    int equals = pair.indexOf('=');
+	    if (equals > 0) {
+		parsed.put(decode(pair.substring(0, equals)), decode(pair.substring(equals + 1)));
+	    }
+	}
+	return parsed;
+    }
 
-	List<GTSOutput> outputs = new ArrayList<>();
+    static String decode(String value) {
+	try {
+	    return URLDecoder.decode(value, "UTF-8");
+	} catch (UnsupportedEncodingException e) {
+	    throw new IllegalStateException(e);
+	}
+    }
+
+    /**
+     * Append a point. Location and elevation are NaN if missing. A LONG series
+     * that receives a DOUBLE value becomes a DOUBLE series, while any other
+     * mismatch causes values to be kept as strings. LONG values in a DOUBLE series
+     * keep their exact value and textual form.
+     *
+     * @param timestamp
+     * @param latitude
+     * @param longitude
+     * @param elevation
+     * @param type
+     * @param value
+     *            textual form of the value
+     */
+    void addPoint(long timestamp, double latitude, double longitude, double elevation, ValueType type,
+	    String value) {
+	addLocation(timestamp, latitude, longitude, elevation);
+	adaptValueType(type);
+	switch (valueType) {
+	case LONG:
+	    longValues[size] = Long.parseLong(value);
+	    break;
+	case DOUBLE:
+	    if (type == ValueType.LONG) {
+		setLongPoint(size, Long.parseLong(value));
+	    } else {
+		doubleValues[size] = Double.parseDouble(value);
+	    }
+	    break;
+	case BOOLEAN:
+	    longValues[size] = Boolean.parseBoolean(value) ? 1 : 0;
+	    break;
+	default:
+	    stringValues[size] = value;
+	}
+	size++;
+    }
+
+    /**
+     * Append a copy of a point from another series without converting its value
+     * to text.
+     *
+     * @param source
+     * @param index
+     */
+    void addPoint(GTSOutput source, int index) {
+	addLocation(source.timestamps[index], source.getLatitude(index), source.getLongitude(index),
+		source.getElevation(index));
+	adaptValueType(source.valueType);
+	switch (valueType) {
+	case LONG:
+	case BOOLEAN:
+	    longValues[size] = source.longValues[index];
+	    break;
+	case DOUBLE:
+	    if (source.isLongPoint(index)) {
+		setLongPoint(size, source.longValues[index]);
+	    } else {
+		doubleValues[size] = source.getDoubleValue(index);
+	    }
+	    break;
+	default:
+	    stringValues[size] = source.getValue(index);
+	}
+	size++;
+    }
+
+    /**
+     * Append a point from primitive fields. Only the value field matching the type
+     * is used, with booleans passed as a long of 1 or 0.
+     *
+     * @param timestamp
+     * @param latitude
+     * @param longitude
+     * @param elevation
+     * @param type
+     * @param longValue
+     * @param doubleValue
+     * @param stringValue
+     */
+    void addPoint(long timestamp, double latitude, double longitude, double elevation, ValueType type,
+	    long longValue, double doubleValue, String stringValue) {
+	addLocation(timestamp, latitude, longitude, elevation);
+	adaptValueType(type);
+	switch (valueType) {
+	case LONG:
+	case BOOLEAN:
+	    longValues[size] = longValue;
+	    break;
+	case DOUBLE:
+	    if (type == ValueType.LONG) {
+		setLongPoint(size, longValue);
+	    } else {
+		doubleValues[size] = doubleValue;
+	    }
+	    break;
+	default:
+	    stringValues[size] = stringValue;
+	}
+	size++;
+    }
+
+    /**
+     * Store the timestamp, location and elevation of the point being added.
+     *
+     * @param timestamp
+     * @param latitude
+     * @param longitude
+     * @param elevation
+     */
+    private void addLocation(long timestamp, double latitude, double longitude, double elevation) {
+	if (size == timestamps.length) {
+	    grow();
+	}
+	if (!Double.isNaN(latitude) || !Double.isNaN(longitude)) {
+	    if (latitudes == null) {
+		latitudes = newColumn();
+		longitudes = newColumn();
+	    }
+	    latitudes[size] = latitude;
+	    longitudes[size] = longitude;
+	}
+	if (!Double.isNaN(elevation)) {
+	    if (elevations == null) {
+		elevations = newColumn();
+	    }
+	    elevations[size] = elevation;
+	}
+	timestamps[size] = timestamp;
+    }
+
+    /**
+     * Convert the value column if the type of the point being added does not
+     * match the series.
+     *
+     * @param type
+     */
+    private void adaptValueType(ValueType type) {
+	if (valueType == null) {
+	    valueType = type;
+	    allocateValues(timestamps.length);
+	} else if (valueType == ValueType.LONG && type == ValueType.DOUBLE) {
+	    doubleValues = new double[timestamps.length];
+	    for (int i = 0; i < size; i++) {
+		doubleValues[i] = longValues[i];
+	    }
+	    longPoints = new BitSet();
+	    longPoints.set(0, size);
+	    valueType = ValueType.DOUBLE;
+	} else if (valueType != type && valueType != ValueType.STRING
+		&& !(valueType == ValueType.DOUBLE && type == ValueType.LONG)) {
+	    String[] converted = new String[timestamps.length];
+	    for (int i = 0; i < size; i++) {
+		converted[i] = getValue(i);
+	    }
+	    stringValues = converted;
+	    longValues = null;
+	    doubleValues = null;
+	    longPoints = null;
+	    valueType = ValueType.STRING;
+	}
+    }
+
+    /**
+     * Store a LONG value in a DOUBLE series, keeping the exact value alongside
+     * its double approximation.
+     *
+     * @param index
+     * @param value
+     */
+    private void setLongPoint(int index, long value) {
+	if (longValues == null) {
+	    longValues = new long[timestamps.length];
+	}
+	if (longPoints == null) {
+	    longPoints = new BitSet();
+	}
+	longValues[index] = value;
+	doubleValues[index] = value;
+	longPoints.set(index);
+    }
+
+    /**
+     * Indicates whether a point was added as a LONG value.
+     *
+     * @param index
+     * @return
+     */
+    private boolean isLongPoint(int index) {
+	return (valueType == ValueType.LONG) || ((longPoints != null) && longPoints.get(index));
+    }
+
+    private void allocateValues(int capacity) {
+	switch (valueType) {
+	case LONG:
+	case BOOLEAN:
+	    longValues = new long[capacity];
+	    break;
+	case DOUBLE:
+	    doubleValues = new double[capacity];
+	    break;
+	default:
+	    stringValues = new String[capacity];
+	}
+    }
+
+    private double[] newColumn() {
+	double[] column = new double[timestamps.length];
+	Arrays.fill(column, Double.NaN);
+	return column;
+    }
+
+    private void grow() {
+	int capacity = Math.max(INITIAL_CAPACITY, timestamps.length + (timestamps.length >> 1));
+	resize(capacity);
+    }
+
+    /**
+     * Release unused capacity once all points have been added.
+     */
+    void trimToSize() {
+	if (size < timestamps.length) {
+	    resize(size);
+	}
+    }
 
-	while (matcher.find()) {
-	    GTSOutput gts = new GTSOutput();
+    private void resize(int capacity) {
+	int previous = timestamps.length;
+	timestamps = Arrays.copyOf(timestamps, capacity);
+	if (latitudes != null) {
+	    latitudes = resize(latitudes, previous, capacity);
+	    longitudes = resize(longitudes, previous, capacity);
+	}
+	if (elevations != null) {
+	    elevations = resize(elevations, previous, capacity);
+	}
+	if (longValues != null) {
+	    longValues = Arrays.copyOf(longValues, capacity);
+	}
+	if (doubleValues != null) {
+	    doubleValues = Arrays.copyOf(doubleValues, capacity);
+	}
+	if (stringValues != null) {
+	    stringValues = Arrays.copyOf(stringValues, capacity);
+	}
+    }
 
-	    gts.className = stripExtraQuotes(matcher.group("c"));
-	    gts.labels = populateMap(matcher.group("l"));
-	    gts.attributes = populateMap(matcher.group("a"));
-	    gts.id = stripExtraQuotes(matcher.group("i"));
-	    gts.points = DataPoint.extractDataPoint(matcher.group("v"));
+    private static double[] resize(double[] column, int previous, int capacity) {
+	double[] resized = Arrays.copyOf(column, capacity);
+	if (capacity > previous) {
+	    Arrays.fill(resized, previous, capacity, Double.NaN);
+	}
+	return resized;
+    }
 
-	    outputs.add(gts);
+    /**
+     * Create a series with the points of this series whose timestamps fall within
+     * a range. Point order is preserved.
+     *
+     * @param start
+     *            first timestamp included
+     * @param end
+     *            last timestamp included
+     * @return
+     */
+    public GTSOutput select(long start, long end) {
+	GTSOutput selected = new GTSOutput();
+	selected.setSeries(className, labels, attributes, id);
+	for (int i = 0; i < size; i++) {
+	    if (timestamps[i] >= start && timestamps[i] <= end) {
+		selected.addPoint(this, i);
+	    }
 	}
+	selected.trimToSize();
+	return selected;
+    }
 
-	return outputs;
+    /**
+     * Create an independent copy of the points with timestamps in a range. Unlike
+     * {@link #select(long, long)}, labels and attributes are copied as well, so
+     * the copy can be modified without affecting this series.
+     *
+     * @param start
+     *            first timestamp included
+     * @param end
+     *            last timestamp included
+     * @return
+     */
+    public GTSOutput copy(long start, long end) {
+	GTSOutput copy = select(start, end);
+	copy.setSeries(className, (labels != null) ? new HashMap<>(labels) : null,
+		(attributes != null) ? new HashMap<>(attributes) : null, id);
+	return copy;
     }
 
-    private static String stripExtraQuotes(String string) {
-	if (string != null) {
-	    return string.replaceAll("\"", "");
+    /**
+     * Create a series with the points of this series in reverse order.
+     *
+     * @return
+     */
+    public GTSOutput reverse() {
+	GTSOutput reversed = new GTSOutput();
+	reversed.setSeries(className, labels, attributes, id);
+	for (int i = size - 1; i >= 0; i--) {
+	    reversed.addPoint(this, i);
 	}
-	return "";
+	reversed.trimToSize();
+	return reversed;
     }
 
-    private static Map<String, String> populateMap(String source) {
-	source = source.replace("{", "").replace("}", "");
+    /**
+     * Create a series with the points, labels and attributes of this series under
+     * another class name.
+     *
+     * @param className
+     * @return
+     */
+    public GTSOutput rename(String className) {
+	GTSOutput renamed = new GTSOutput();
+	renamed.setSeries(className, labels, attributes, id);
+	for (int i = 0; i < size; i++) {
+	    renamed.addPoint(this, i);
+	}
+	renamed.trimToSize();
+	return renamed;
+    }
 
-	String[] groups = source.split(",");
+    /**
+     * Create a series with the points of the first series followed by those of
+     * the second. Class, labels and attributes are taken from the first series.
+     *
+     * @param first
+     * @param second
+     * @return
+     */
+    public static GTSOutput concat(GTSOutput first, GTSOutput second) {
+	return concat(Arrays.asList(first, second));
+    }
+
+    /**
+     * Create a series with the points of each part in turn. Class, labels and
+     * attributes are taken from the first part.
+     *
+     * @param parts
+     * @return
+     */
+    public static GTSOutput concat(List<GTSOutput> parts) {
+	GTSOutput first = parts.get(0);
+	GTSOutput combined = new GTSOutput();
+	combined.setSeries(first.className, first.labels, first.attributes, first.id);
+	for (GTSOutput part : parts) {
+	    for (int i = 0; i < part.size; i++) {
+		combined.addPoint(part, i);
+	    }
+	}
+	combined.trimToSize();
+	return combined;
+    }
 
-	if (!source.equals("") && groups.length > 0) {
-	    return Stream.of(groups).collect(Collectors.toMap(GTSOutput::extractMapKey, GTSOutput::extractMapValue));
+    /**
+     * Combine fragments of the same series, as returned for each time range of a
+     * sharded fetch, into a single series per class and labels. Series are
+     * returned in the order they first appear and points keep the order of the
+     * fragments.
+     *
+     * @param fragments
+     * @return
+     */
+    public static List<GTSOutput> merge(Iterator<GTSOutput> fragments) {
+	Map<SeriesKey, List<GTSOutput>> parts = new LinkedHashMap<>();
+	while (fragments.hasNext()) {
+	    GTSOutput gts = fragments.next();
+	    parts.computeIfAbsent(new SeriesKey(gts.className, gts.labels), key -> new ArrayList<>()).add(gts);
+	}
+	List<GTSOutput> merged = new ArrayList<>(parts.size());
+	for (List<GTSOutput> series : parts.values()) {
+	    merged.add((series.size() == 1) ? series.get(0) : concat(series));
 	}
-	return new HashMap<>();
+	return merged;
     }
 
-    private static String extractMapValue(String item) {
-	return stripExtraQuotes(item.split(":")[1]);
+    /**
+     * Get the most recent timestamp in the series.
+     *
+     * @return latest timestamp or {@link Long#MIN_VALUE} if there are no points
+     */
+    public long getLatestTimestamp() {
+	long latest = Long.MIN_VALUE;
+	for (int i = 0; i < size; i++) {
+	    latest = Math.max(latest, timestamps[i]);
+	}
+	return latest;
     }
 
-    private static String extractMapKey(String item) {
-	return stripExtraQuotes(item.split(":")[0]);
+    /**
+     * Estimate the number of bytes of heap held by the points of the series.
+     *
+     * @return
+     */
+    public long estimateSize() {
+	long bytes = 8L * timestamps.length;
+	if (latitudes != null) {
+	    bytes += 16L * latitudes.length;
+	}
+	if (elevations != null) {
+	    bytes += 8L * elevations.length;
+	}
+	if (longValues != null) {
+	    bytes += 8L * longValues.length;
+	}
+	if (doubleValues != null) {
+	    bytes += 8L * doubleValues.length;
+	}
+	if (stringValues != null) {
+	    for (int i = 0; i < size; i++) {
+		bytes += 48 + 2L * stringValues[i].length();
+	    }
+	}
+	return bytes;
     }
 
     public String getClassName() {
@@ -105,7 +594,157 @@ public class GTSOutput {
 	return id;
     }
 
+    /**
+     * Get the number of points in the series.
+     *
+     * @return
+     */
+    public int size() {
+	return size;
+    }
+
+    /**
+     * Get the type of values in the series, or <code>null</code> if the series
+     * has no points.
+     *
+     * @return
+     */
+    public ValueType getValueType() {
+	return valueType;
+    }
+
+    public long getTimestamp(int index) {
+	return timestamps[index];
+    }
+
+    /**
+     * Get point timestamps. The array may be longer than {@link #size()} and must
+     * not be modified.
+     *
+     * @return
+     */
+    public long[] getTimestamps() {
+	return timestamps;
+    }
+
+    public boolean hasLocation(int index) {
+	return latitudes != null && !Double.isNaN(latitudes[index]);
+    }
+
+    public double getLatitude(int index) {
+	return (latitudes != null) ? latitudes[index] : Double.NaN;
+    }
+
+    public double getLongitude(int index) {
+	return (longitudes != null) ? longitudes[index] : Double.NaN;
+    }
+
+    public boolean hasElevation(int index) {
+	return elevations != null && !Double.isNaN(elevations[index]);
+    }
+
+    public double getElevation(int index) {
+	return (elevations != null) ? elevations[index] : Double.NaN;
+    }
+
+    /**
+     * Get a value as a long. Only valid for LONG and BOOLEAN series.
+     *
+     * @param index
+     * @return
+     */
+    public long getLongValue(int index) {
+	return longValues[index];
+    }
+
+    /**
+     * Get a value as a double. Valid for LONG and DOUBLE series.
+     *
+     * @param index
+     * @return
+     */
+    public double getDoubleValue(int index) {
+	return (valueType == ValueType.DOUBLE) ? doubleValues[index] : longValues[index];
+    }
+
+    /**
+     * Get a value as a boolean. Only valid for BOOLEAN series.
+     *
+     * @param index
+     * @return
+     */
+    public boolean getBooleanValue(int index) {
+	return longValues[index] != 0;
+    }
+
+    /**
+     * Get the textual form of a value. Doubles are formatted with
+     * {@link Double#toString(double)} rather than returned as they appeared in the
+     * response, so <code>0.0001</code> is returned as <code>1.0E-4</code>.
+     *
+     * @param index
+     * @return
+     */
+    public String getValue(int index) {
+	switch (valueType) {
+	case LONG:
+	    return Long.toString(longValues[index]);
+	case DOUBLE:
+	    return isLongPoint(index) ? Long.toString(longValues[index]) : Double.toString(doubleValues[index]);
+	case BOOLEAN:
+	    return String.valueOf(longValues[index] != 0);
+	default:
+	    return stringValues[index];
+	}
+    }
+
+    /**
+     * Get a view of the points. Each {@link DataPoint} is created when accessed.
+     *
+     * @return
+     */
     public List<DataPoint> getPoints() {
+	if (points == null) {
+	    points = new AbstractList<DataPoint>() {
+
+		@Override
+		public DataPoint get(int index) {
+		    if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		    }
+		    return toDataPoint(index);
+		}
+
+		@Override
+		public int size() {
+		    return size;
+		}
+	    };
+	}
 	return points;
     }
+
+    /**
+     * Create a data point for the point at the given index.
+     *
+     * @param index
+     * @return
+     */
+    protected DataPoint toDataPoint(int index) {
+	DataPoint point = DataPoint.of(getValue(index), timestamps[index]);
+	if (hasLocation(index)) {
+	    point.atLatitude(latitudes[index]).atLongitude(longitudes[index]);
+	}
+	if (hasElevation(index)) {
+	    point.atElevation(elevations[index]);
+	}
+	return point;
+    }
+
+    /**
+     * Types of values held by a series.
+     */
+    public static enum ValueType {
+	LONG, DOUBLE, BOOLEAN, STRING
+    }
 }
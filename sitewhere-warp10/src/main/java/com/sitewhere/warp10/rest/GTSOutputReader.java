@@ -0,0 +1,253 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.rest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Incrementally parses the Warp 10 JSON output format, returning one
+ * {@link GTSOutput} at a time so that only a single series is held in memory.
+ * Nested arrays are flattened, which allows the same reader to be used for
+ * both fetch responses and stacks returned by the exec endpoint.
+ */
+public class GTSOutputReader implements Closeable {
+
+    /** Underlying JSON reader */
+    private JsonReader json;
+
+    /** Values of the point currently being parsed */
+    private String[] fields = new String[5];
+
+    /** Type of the last value of the point currently being parsed */
+    private GTSOutput.ValueType valueType;
+
+    public GTSOutputReader(Reader reader) {
+	this.json = new JsonReader(reader);
+	json.setLenient(true);
+    }
+
+    /**
+     * Read the next series from the stream.
+     *
+     * @return next series or <code>null</code> if the stream is exhausted
+     * @throws IOException
+     */
+    public GTSOutput read() throws IOException {
+	while (true) {
+	    JsonToken token = json.peek();
+	    switch (token) {
+	    case BEGIN_ARRAY:
+		json.beginArray();
+		break;
+	    case END_ARRAY:
+		json.endArray();
+		break;
+	    case BEGIN_OBJECT:
+		return readSeries();
+	    case END_DOCUMENT:
+		return null;
+	    default:
+		json.skipValue();
+	    }
+	}
+    }
+
+    /**
+     * Read all remaining series from the stream.
+     *
+     * @return
+     * @throws IOException
+     */
+    public List<GTSOutput> readAll() throws IOException {
+	List<GTSOutput> outputs = new ArrayList<>();
+	GTSOutput output;
+	while ((output = read()) != null) {
+	    outputs.add(output);
+	}
+	return outputs;
+    }
+
+    /**
+     * Read a single series object.
+     *
+     * @return
+     * @throws IOException
+     */
+    protected GTSOutput readSeries() throws IOException {
+	String className = "";
+	String id = "";
+	Map<String, String> labels = new HashMap<>();
+	Map<String, String> attributes = new HashMap<>();
+	GTSOutput gts = new GTSOutput();
+
+	json.beginObject();
+	while (json.hasNext()) {
+	    String name = json.nextName();
+	    if ("c".equals(name)) {
+		className = json.nextString();
+	    } else if ("l".equals(name)) {
+		readMap(labels);
+	    } else if ("a".equals(name)) {
+		readMap(attributes);
+	    } else if ("i".equals(name)) {
+		id = json.nextString();
+	    } else if ("v".equals(name)) {
+		readPoints(gts);
+	    } else {
+		json.skipValue();
+	    }
+	}
+	json.endObject();
+	gts.setSeries(className, labels, attributes, id);
+	gts.trimToSize();
+	return gts;
+    }
+
+    /**
+     * Read a JSON object of string values into a map.
+     *
+     * @param target
+     * @throws IOException
+     */
+    protected void readMap(Map<String, String> target) throws IOException {
+	json.beginObject();
+	while (json.hasNext()) {
+	    target.put(json.nextName(), readScalar());
+	}
+	json.endObject();
+    }
+
+    /**
+     * Read the array of points for a series. Each point is an array of timestamp,
+     * optional latitude/longitude, optional elevation and value.
+     *
+     * @param gts
+     * @throws IOException
+     */
+    protected void readPoints(GTSOutput gts) throws IOException {
+	json.beginArray();
+	while (json.hasNext()) {
+	    json.beginArray();
+	    long timestamp = json.nextLong();
+	    int count = 0;
+	    while (json.hasNext()) {
+		String field = readScalar();
+		if (count < fields.length) {
+		    fields[count++] = field;
+		}
+	    }
+	    json.endArray();
+	    addPoint(gts, timestamp, count);
+	}
+	json.endArray();
+    }
+
+    /**
+     * Add the values collected for the current point to the series. Points
+     * without a value are skipped.
+     *
+     * @param gts
+     * @param timestamp
+     * @param count
+     */
+    protected void addPoint(GTSOutput gts, long timestamp, int count) {
+	switch (count) {
+	case 1:
+	    gts.addPoint(timestamp, Double.NaN, Double.NaN, Double.NaN, valueType, fields[0]);
+	    break;
+	case 2:
+	    gts.addPoint(timestamp, Double.NaN, Double.NaN, Double.parseDouble(fields[0]), valueType, fields[1]);
+	    break;
+	case 3:
+	    gts.addPoint(timestamp, Double.parseDouble(fields[0]), Double.parseDouble(fields[1]), Double.NaN,
+		    valueType, fields[2]);
+	    break;
+	case 4:
+	    gts.addPoint(timestamp, Double.parseDouble(fields[0]), Double.parseDouble(fields[1]),
+		    Double.parseDouble(fields[2]), valueType, fields[3]);
+	    break;
+	default:
+	}
+    }
+
+    /**
+     * Read a scalar value in its textual form.
+     *
+     * @return
+     * @throws IOException
+     */
+    protected String readScalar() throws IOException {
+	switch (json.peek()) {
+	case BOOLEAN:
+	    valueType = GTSOutput.ValueType.BOOLEAN;
+	    return String.valueOf(json.nextBoolean());
+	case NULL:
+	    json.nextNull();
+	    valueType = GTSOutput.ValueType.STRING;
+	    return "";
+	case STRING:
+	    valueType = GTSOutput.ValueType.STRING;
+	    return json.nextString();
+	case NUMBER:
+	    String number = json.nextString();
+	    valueType = isIntegral(number) ? GTSOutput.ValueType.LONG : GTSOutput.ValueType.DOUBLE;
+	    return number;
+	default:
+	    json.skipValue();
+	    valueType = GTSOutput.ValueType.STRING;
+	    return "";
+	}
+    }
+
+    /**
+     * Indicates whether a JSON number has no fraction or exponent and fits in a
+     * long.
+     *
+     * @param number
+     * @return
+     */
+    protected static boolean isIntegral(String number) {
+	for (int i = 0; i < number.length(); i++) {
+	    char c = number.charAt(i);
+	    if (c == '.' || c == 'e' || c == 'E') {
+		return false;
+	    }
+	}
+	try {
+	    Long.parseLong(number);
+	    return true;
+	} catch (NumberFormatException e) {
+	    return false;
+	}
+    }
+
+    /*
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() throws IOException {
+	json.close();
+    }
+}
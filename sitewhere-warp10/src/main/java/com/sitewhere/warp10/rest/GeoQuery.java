@@ -0,0 +1,161 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.rest;
+
+/**
+ * Query that keeps only the points of matching series that fall within an area,
+ * filtering on the Warp 10 server so that points outside the area are never
+ * returned. Series with no points in the area are dropped. The area is a WKT
+ * shape which Warp 10 approximates with geo cells, so the precision controls
+ * how closely points near the boundary are matched.
+ */
+public class GeoQuery {
+
+    /** Mean earth radius in meters */
+    private static final double EARTH_RADIUS = 6371008.8;
+
+    /** Number of vertices used to approximate a circle */
+    private static final int CIRCLE_VERTICES = 32;
+
+    /** Default precision of the cell approximation of the area */
+    public static final double DEFAULT_PRECISION = 0.01;
+
+    /** Series and time range to filter */
+    private QueryParams queryParams = QueryParams.builder();
+
+    /** Area in WKT format */
+    private String wkt;
+
+    /** Precision of the cell approximation as a fraction of the area size */
+    private double precision = DEFAULT_PRECISION;
+
+    /**
+     * Indicates whether cells must lie entirely inside the area. If false, cells
+     * that overlap the boundary are included so no point in the area is missed.
+     */
+    private boolean inside;
+
+    public static GeoQuery builder() {
+	return new GeoQuery();
+    }
+
+    /**
+     * Build the WarpScript for the query.
+     *
+     * @param token
+     * @return
+     */
+    public String toWarpScript(String token) {
+	WarpScript script = WarpScript.builder();
+	script.append("[").fetch(token, queryParams);
+	script.string(wkt).decimal(precision).append(Boolean.toString(inside)).append("GEO.WKT");
+	script.append("mapper.geo.within 0 0 0 ] MAP NONEMPTY");
+	return script.toString();
+    }
+
+    /**
+     * Set the area to a polygon. The polygon is closed automatically.
+     *
+     * @param latitudes
+     * @param longitudes
+     * @throws IllegalArgumentException
+     */
+    public void setPolygon(double[] latitudes, double[] longitudes) {
+	if ((latitudes.length != longitudes.length) || (latitudes.length < 3)) {
+	    throw new IllegalArgumentException("Polygon requires at least three vertices.");
+	}
+	StringBuilder wkt = new StringBuilder("POLYGON ((");
+	for (int i = 0; i < latitudes.length; i++) {
+	    appendVertex(wkt, latitudes[i], longitudes[i]).append(", ");
+	}
+	appendVertex(wkt, latitudes[0], longitudes[0]).append("))");
+	this.wkt = wkt.toString();
+    }
+
+    /**
+     * Set the area to a circle, approximated by a polygon that encloses it so
+     * that no point within the radius is missed.
+     *
+     * @param latitude
+     * @param longitude
+     * @param meters
+     * @throws IllegalArgumentException
+     */
+    public void setRadius(double latitude, double longitude, double meters) {
+	if (meters <= 0) {
+	    throw new IllegalArgumentException("Radius must be positive.");
+	}
+	double distance = meters / EARTH_RADIUS / Math.cos(Math.PI / CIRCLE_VERTICES);
+	double lat = Math.toRadians(latitude);
+	double lon = Math.toRadians(longitude);
+	double[] latitudes = new double[CIRCLE_VERTICES];
+	double[] longitudes = new double[CIRCLE_VERTICES];
+	for (int i = 0; i < CIRCLE_VERTICES; i++) {
+	    double bearing = 2 * Math.PI * i / CIRCLE_VERTICES;
+	    double vertexLat = Math.asin(Math.sin(lat) * Math.cos(distance)
+		    + Math.cos(lat) * Math.sin(distance) * Math.cos(bearing));
+	    double vertexLon = lon + Math.atan2(Math.sin(bearing) * Math.sin(distance) * Math.cos(lat),
+		    Math.cos(distance) - Math.sin(lat) * Math.sin(vertexLat));
+	    latitudes[i] = Math.toDegrees(vertexLat);
+	    longitudes[i] = Math.toDegrees(vertexLon);
+	}
+	setPolygon(latitudes, longitudes);
+    }
+
+    /**
+     * Append a vertex in WKT order (longitude first).
+     *
+     * @param wkt
+     * @param latitude
+     * @param longitude
+     * @return
+     */
+    private static StringBuilder appendVertex(StringBuilder wkt, double latitude, double longitude) {
+	return wkt.append(longitude).append(' ').append(latitude);
+    }
+
+    public QueryParams getQueryParams() {
+	return queryParams;
+    }
+
+    public void setQueryParams(QueryParams queryParams) {
+	this.queryParams = queryParams;
+    }
+
+    public String getWkt() {
+	return wkt;
+    }
+
+    public void setWkt(String wkt) {
+	this.wkt = wkt;
+    }
+
+    public double getPrecision() {
+	return precision;
+    }
+
+    public void setPrecision(double precision) {
+	this.precision = precision;
+    }
+
+    public boolean isInside() {
+	return inside;
+    }
+
+    public void setInside(boolean inside) {
+	this.inside = inside;
+    }
+}
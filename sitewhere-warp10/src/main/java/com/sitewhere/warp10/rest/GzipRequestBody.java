@@ -0,0 +1,68 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.rest;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * Wraps a request body so that it is gzip compressed as it is written. Warp 10
+ * expects compressed update bodies to use the <code>application/gzip</code>
+ * content type.
+ */
+public class GzipRequestBody extends RequestBody {
+
+    /** Content type for compressed bodies */
+    public static final MediaType APPLICATION_GZIP = MediaType.parse("application/gzip");
+
+    /** Uncompressed body */
+    private RequestBody body;
+
+    public GzipRequestBody(RequestBody body) {
+	this.body = body;
+    }
+
+    /*
+     * @see okhttp3.RequestBody#contentType()
+     */
+    @Override
+    public MediaType contentType() {
+	return APPLICATION_GZIP;
+    }
+
+    /*
+     * @see okhttp3.RequestBody#contentLength()
+     */
+    @Override
+    public long contentLength() throws IOException {
+	return -1;
+    }
+
+    /*
+     * @see okhttp3.RequestBody#writeTo(okio.BufferedSink)
+     */
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+	BufferedSink gzipSink = Okio.buffer(new GzipSink(sink));
+	body.writeTo(gzipSink);
+	gzipSink.close();
+    }
+}
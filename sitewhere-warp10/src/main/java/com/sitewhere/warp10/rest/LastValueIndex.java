@@ -0,0 +1,431 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.rest;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sitewhere.warp10.rest.GTSOutput.ValueType;
+import com.sitewhere.warp10.rest.SeriesKeyCache.SeriesKey;
+
+/**
+ * Bounded LRU index of the latest point of each series, keyed by class name and
+ * encoded labels. The index is updated in place as points are written and from
+ * latest-value fetches, keeping a point only if it is at least as recent as the
+ * one already held. Lookups return a single-point {@link GTSOutput} which is
+ * shared until the series receives a newer point. Since other writers may store
+ * newer points without this instance knowing, a point is only trusted for a
+ * limited time after it was last changed.
+ */
+public class LastValueIndex {
+
+    /** Max number of indexed series */
+    private int capacity;
+
+    /** Time a point is trusted after it was last changed (zero for no limit) */
+    private long ttlNanos;
+
+    /** Latest points in access order */
+    private LinkedHashMap<SeriesKey, LastValue> values;
+
+    /** Number of lookups answered from the index */
+    private AtomicLong hits = new AtomicLong();
+
+    /** Number of lookups that were not indexed */
+    private AtomicLong misses = new AtomicLong();
+
+    public LastValueIndex(int capacity, long ttlMs) {
+	this.capacity = capacity;
+	this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+	this.values = new LinkedHashMap<SeriesKey, LastValue>(16, 0.75f, true) {
+
+	    private static final long serialVersionUID = 1L;
+
+	    @Override
+	    protected boolean removeEldestEntry(Map.Entry<SeriesKey, LastValue> eldest) {
+		return size() > LastValueIndex.this.capacity;
+	    }
+	};
+    }
+
+    /**
+     * Indicates whether a query identifies a single series by class name and
+     * exact labels, so that it can be answered from the index.
+     *
+     * @param queryParams
+     * @return
+     */
+    public boolean isIndexable(QueryParams queryParams) {
+	String className = queryParams.getClassName();
+	return className != null && !className.isEmpty() && !className.startsWith("~")
+		&& queryParams.getParameters().isEmpty() && !queryParams.getExactParameters().isEmpty();
+    }
+
+    /**
+     * Get the latest point of the series identified by a query.
+     *
+     * @param queryParams
+     * @return series with a single point or <code>null</code> if not indexed or
+     *         expired
+     */
+    public GTSOutput get(QueryParams queryParams) {
+	if (!isIndexable(queryParams)) {
+	    return null;
+	}
+	String className = queryParams.getClassName();
+	if (className.startsWith("=")) {
+	    className = className.substring(1);
+	}
+	Map<String, String> labels = new HashMap<>();
+	for (Map.Entry<String, String> label : queryParams.getExactParameters().entrySet()) {
+	    labels.put(encode(label.getKey()), encode(label.getValue()));
+	}
+	SeriesKey key = new SeriesKey(className, labels);
+	LastValue value;
+	synchronized (this) {
+	    value = values.get(key);
+	    if ((value != null) && value.isExpired(ttlNanos)) {
+		values.remove(key);
+		value = null;
+	    }
+	}
+	GTSOutput output = (value != null) ? value.toOutput() : null;
+	if (output == null) {
+	    misses.incrementAndGet();
+	    return null;
+	}
+	hits.incrementAndGet();
+	return output;
+    }
+
+    /**
+     * Index a point that has been accepted for storage.
+     *
+     * @param input
+     */
+    public void update(GTSInput input) {
+	Updates updates = newUpdates();
+	updates.add(input);
+	updates.apply();
+    }
+
+    /**
+     * Index the most recent point of a fetched series.
+     *
+     * @param series
+     */
+    public void update(GTSOutput series) {
+	if (series.size() == 0) {
+	    return;
+	}
+	int latest = 0;
+	for (int i = 1; i < series.size(); i++) {
+	    if (series.getTimestamp(i) > series.getTimestamp(latest)) {
+		latest = i;
+	    }
+	}
+	Map<String, String> labels = new HashMap<>();
+	for (Map.Entry<String, String> label : series.getLabels().entrySet()) {
+	    labels.put(encode(label.getKey()), encode(label.getValue()));
+	}
+	ValueType type = series.getValueType();
+	update(series.getClassName(), labels, series.getTimestamp(latest), series.getLatitude(latest),
+		series.getLongitude(latest), series.hasElevation(latest) ? series.getElevation(latest) : Double.NaN,
+		type, (type == ValueType.LONG || type == ValueType.BOOLEAN) ? series.getLongValue(latest) : 0,
+		(type == ValueType.DOUBLE) ? series.getDoubleValue(latest) : 0,
+		(type == ValueType.STRING) ? series.getValue(latest) : null);
+    }
+
+    /**
+     * Index a point given as primitive fields. Only the value field matching the
+     * type is used, with booleans passed as a long of 1 or 0. The labels are
+     * copied when a series is first indexed, so callers may reuse the map.
+     *
+     * @param className
+     * @param labels
+     *            encoded labels
+     * @param timestamp
+     *            timestamp in microseconds
+     * @param latitude
+     *            latitude or NaN if there is no location
+     * @param longitude
+     *            longitude or NaN if there is no location
+     * @param elevation
+     *            elevation or NaN if there is none
+     * @param type
+     * @param longValue
+     * @param doubleValue
+     * @param stringValue
+     */
+    public void update(String className, Map<String, String> labels, long timestamp, double latitude,
+	    double longitude, double elevation, ValueType type, long longValue, double doubleValue,
+	    String stringValue) {
+	LastValue value;
+	synchronized (this) {
+	    value = values.get(new SeriesKey(className, labels));
+	    if (value == null) {
+		value = new LastValue(className, labels);
+		values.put(new SeriesKey(className, new HashMap<>(labels)), value);
+	    }
+	}
+	value.set(timestamp, latitude, longitude, elevation, type, longValue, doubleValue, stringValue);
+    }
+
+    /**
+     * Create a set of updates to apply once the points they describe have been
+     * stored.
+     *
+     * @return
+     */
+    public Updates newUpdates() {
+	return new Updates();
+    }
+
+    /**
+     * Discard all indexed points, for instance after points have been deleted.
+     */
+    public synchronized void clear() {
+	values.clear();
+    }
+
+    public synchronized int size() {
+	return values.size();
+    }
+
+    public int getCapacity() {
+	return capacity;
+    }
+
+    public long getHits() {
+	return hits.get();
+    }
+
+    public long getMisses() {
+	return misses.get();
+    }
+
+    private static String encode(String value) {
+	try {
+	    return GTSInput.encode(value);
+	} catch (UnsupportedEncodingException e) {
+	    throw new IllegalStateException(e);
+	}
+    }
+
+    /**
+     * Latest point of each series written to an update request, collected while
+     * the request is encoded and applied to the index only once the request has
+     * been accepted. Instances are not thread-safe.
+     */
+    public class Updates {
+
+	/** Latest pending point of each series */
+	private Map<SeriesKey, Update> latest = new HashMap<>();
+
+	/**
+	 * Add a written point. The labels of the point are copied, so it may be
+	 * released to a pool once added.
+	 *
+	 * @param input
+	 */
+	public void add(GTSInput input) {
+	    if (input.getTs() == null) {
+		return;
+	    }
+	    double latitude = (input.getLat() != null && input.getLon() != null) ? input.getLat() : Double.NaN;
+	    double longitude = (input.getLat() != null && input.getLon() != null) ? input.getLon() : Double.NaN;
+	    double elevation = (input.getElev() != null) ? input.getElev() : Double.NaN;
+	    if (input.getLongValue() != null) {
+		add(input.getName(), input.getLabels(), input.getTs(), latitude, longitude, elevation, ValueType.LONG,
+			input.getLongValue(), 0, null);
+	    } else if (input.getDoubleValue() != null) {
+		add(input.getName(), input.getLabels(), input.getTs(), latitude, longitude, elevation,
+			ValueType.DOUBLE, 0, input.getDoubleValue(), null);
+	    } else if (input.getBooleanValue() != null) {
+		add(input.getName(), input.getLabels(), input.getTs(), latitude, longitude, elevation,
+			ValueType.BOOLEAN, input.getBooleanValue() ? 1 : 0, 0, null);
+	    } else if (input.getStringValue() != null) {
+		add(input.getName(), input.getLabels(), input.getTs(), latitude, longitude, elevation,
+			ValueType.STRING, 0, 0, input.getStringValue());
+	    }
+	}
+
+	/**
+	 * Add a written point, replacing any older point of the same series. The
+	 * labels are copied when a series is first added, so callers may reuse the
+	 * map.
+	 *
+	 * @param className
+	 * @param labels
+	 *            encoded labels
+	 * @param timestamp
+	 * @param latitude
+	 * @param longitude
+	 * @param elevation
+	 * @param type
+	 * @param longValue
+	 * @param doubleValue
+	 * @param stringValue
+	 */
+	public void add(String className, Map<String, String> labels, long timestamp, double latitude,
+		double longitude, double elevation, ValueType type, long longValue, double doubleValue,
+		String stringValue) {
+	    SeriesKey key = new SeriesKey(className, labels);
+	    Update update = latest.get(key);
+	    if (update == null) {
+		Map<String, String> copy = new HashMap<>(labels);
+		update = new Update(className, copy);
+		latest.put(new SeriesKey(className, copy), update);
+	    } else if (timestamp < update.timestamp) {
+		return;
+	    }
+	    update.timestamp = timestamp;
+	    update.latitude = latitude;
+	    update.longitude = longitude;
+	    update.elevation = elevation;
+	    update.type = type;
+	    update.longValue = longValue;
+	    update.doubleValue = doubleValue;
+	    update.stringValue = stringValue;
+	}
+
+	/**
+	 * Add the collected points to the index.
+	 */
+	public void apply() {
+	    for (Update u : latest.values()) {
+		update(u.className, u.labels, u.timestamp, u.latitude, u.longitude, u.elevation, u.type, u.longValue,
+			u.doubleValue, u.stringValue);
+	    }
+	    latest.clear();
+	}
+
+	public int size() {
+	    return latest.size();
+	}
+    }
+
+    /**
+     * Pending point of a series.
+     */
+    private static class Update {
+
+	private String className;
+
+	private Map<String, String> labels;
+
+	private long timestamp;
+
+	private double latitude;
+
+	private double longitude;
+
+	private double elevation;
+
+	private ValueType type;
+
+	private long longValue;
+
+	private double doubleValue;
+
+	private String stringValue;
+
+	public Update(String className, Map<String, String> labels) {
+	    this.className = className;
+	    this.labels = labels;
+	}
+    }
+
+    /**
+     * Latest point of a series. The output form is created on first lookup after
+     * each change, and is null until the first point is set.
+     */
+    private static class LastValue {
+
+	private String className;
+
+	private Map<String, String> labels;
+
+	private long timestamp = Long.MIN_VALUE;
+
+	private double latitude;
+
+	private double longitude;
+
+	private double elevation;
+
+	private ValueType type;
+
+	private long longValue;
+
+	private double doubleValue;
+
+	private String stringValue;
+
+	private GTSOutput output;
+
+	private long changedAt;
+
+	public LastValue(String className, Map<String, String> labels) {
+	    this.className = className;
+	    Map<String, String> decoded = new HashMap<>();
+	    for (Map.Entry<String, String> label : labels.entrySet()) {
+		decoded.put(GTSOutput.decode(label.getKey()), GTSOutput.decode(label.getValue()));
+	    }
+	    this.labels = Collections.unmodifiableMap(decoded);
+	}
+
+	public synchronized void set(long timestamp, double latitude, double longitude, double elevation,
+		ValueType type, long longValue, double doubleValue, String stringValue) {
+	    if (timestamp < this.timestamp) {
+		return;
+	    }
+	    this.timestamp = timestamp;
+	    this.latitude = latitude;
+	    this.longitude = longitude;
+	    this.elevation = elevation;
+	    this.type = type;
+	    this.longValue = longValue;
+	    this.doubleValue = doubleValue;
+	    this.stringValue = stringValue;
+	    this.output = null;
+	    this.changedAt = System.nanoTime();
+	}
+
+	public synchronized boolean isExpired(long ttlNanos) {
+	    return (ttlNanos > 0) && (type != null) && (System.nanoTime() - changedAt > ttlNanos);
+	}
+
+	public synchronized GTSOutput toOutput() {
+	    if (type == null) {
+		return null;
+	    }
+	    if (output == null) {
+		GTSOutput series = new GTSOutput();
+		series.setSeries(className, labels, Collections.emptyMap(), "");
+		series.addPoint(timestamp, latitude, longitude, elevation, type, longValue, doubleValue, stringValue);
+		series.trimToSize();
+		this.output = series;
+	    }
+	    return output;
+	}
+    }
+}
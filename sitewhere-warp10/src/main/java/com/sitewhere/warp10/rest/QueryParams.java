@@ -20,7 +20,9 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
@@ -33,17 +35,40 @@ public class QueryParams {
     private final String STOP_DATE = "stop";
     private final String NOW = "now";
     private final String TIMESTAMP = "timespan";
+    private final String COUNT = "count";
+    private final String SKIP = "skip";
     private final String INITIAL_DATE = "2000-01-01T00:00:00.000-00:00";
     private final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.sssssssss'Z'";
 
     private Map<String, String> parameters = new HashMap<String, String>();
 
+    /** Labels matched exactly rather than as regular expressions */
+    private Map<String, String> exactParameters = new HashMap<String, String>();
+
     private String className = "~.*";
 
     private Date startDate;
 
     private Date endDate;
 
+    /** End of explicit range in microseconds (overrides dates) */
+    private Long endTimestamp;
+
+    /** Length of explicit range in microseconds */
+    private Long timespan;
+
+    /** Max points returned per series */
+    private Integer count;
+
+    /** Number of most recent points skipped per series */
+    private Integer skip;
+
+    /** Coarsest spacing of points acceptable to the caller in microseconds */
+    private Long resolution;
+
+    /** Aggregation used when points are served at a coarser resolution */
+    private Aggregator aggregator = Aggregator.MEAN;
+
     public static QueryParams builder() {
         QueryParams queryParams = new QueryParams();
         return queryParams;
@@ -53,17 +78,60 @@ public class QueryParams {
         this.parameters.put(key, value);
     }
 
+    public void addExactParameter(String key, String value) {
+        this.exactParameters.put(key, value);
+    }
+
+    /**
+     * Create a copy of the query that can be changed independently.
+     * 
+     * @return
+     */
+    public QueryParams copy() {
+        QueryParams copy = new QueryParams();
+        copy.parameters.putAll(parameters);
+        copy.exactParameters.putAll(exactParameters);
+        copy.className = className;
+        copy.startDate = startDate;
+        copy.endDate = endDate;
+        copy.endTimestamp = endTimestamp;
+        copy.timespan = timespan;
+        copy.count = count;
+        copy.skip = skip;
+        copy.resolution = resolution;
+        copy.aggregator = aggregator;
+        return copy;
+    }
+
     @Override
     public String toString() {
         StringBuilder query = new StringBuilder();
         query.append(getDateFilter());
         query.append("&").append(SELECTOR).append("=");
-        query.append(className).append(getLabelParameters()).append("&format=json&showattr=true&dedup=true");
+        query.append(getSelector()).append("&format=json&showattr=true&dedup=true");
+        if (count != null) {
+            query.append("&").append(COUNT).append("=").append(count);
+        }
+        if (skip != null) {
+            query.append("&").append(SKIP).append("=").append(skip);
+        }
         return query.toString();
     }
 
+    /**
+     * Get the <code>CLASS{LABELS}</code> selector for the query.
+     * 
+     * @return
+     */
+    public String getSelector() {
+        return className + getLabelParameters();
+    }
+
     private String getLabelParameters() {
-        return "{" + parameters.entrySet().stream().map(entry -> entry.getKey() + '~' + entry.getValue()).collect(Collectors.joining(",")) + "}";
+        return "{" + Stream.concat(
+                parameters.entrySet().stream().map(entry -> entry.getKey() + '~' + entry.getValue()),
+                exactParameters.entrySet().stream().map(entry -> entry.getKey() + '=' + entry.getValue()))
+                .collect(Collectors.joining(",")) + "}";
     }
 
     private String getDateFilter() {
@@ -71,7 +139,9 @@ public class QueryParams {
         DateFormat df = new SimpleDateFormat(DATE_FORMAT);
         Date now = new Date();
 
-        if (startDate !=null && endDate != null) {
+        if (endTimestamp != null && timespan != null) {
+            filter.append(NOW).append("=").append(endTimestamp).append("&").append(TIMESTAMP).append("=").append(timespan);
+        } else if (startDate !=null && endDate != null) {
             filter.append(START_DATE).append("=").append(df.format(startDate)).append("&").append(STOP_DATE).append("=").append(df.format(endDate));
         } else if(startDate !=null && endDate == null) {
             filter.append(START_DATE).append("=").append(df.format(startDate)).append("&").append(STOP_DATE).append("=").append(df.format(now));
@@ -86,6 +156,14 @@ public class QueryParams {
         return filter.toString();
     }
 
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    public Map<String, String> getExactParameters() {
+        return exactParameters;
+    }
+
     public String getClassName() {
         return className;
     }
@@ -109,4 +187,67 @@ public class QueryParams {
     public void setEndDate(Date endDate) {
         this.endDate = endDate;
     }
+
+    /**
+     * Limit the query to the range ]endTimestamp - timespan, endTimestamp] given
+     * in microseconds. Takes precedence over start and end dates.
+     * 
+     * @param endTimestamp
+     * @param timespan
+     */
+    public void setRange(long endTimestamp, long timespan) {
+        this.endTimestamp = endTimestamp;
+        this.timespan = timespan;
+    }
+
+    public Long getEndTimestamp() {
+        return endTimestamp;
+    }
+
+    public Long getTimespan() {
+        return timespan;
+    }
+
+    public Integer getCount() {
+        return count;
+    }
+
+    public void setCount(Integer count) {
+        this.count = count;
+    }
+
+    public Integer getSkip() {
+        return skip;
+    }
+
+    public void setSkip(Integer skip) {
+        this.skip = skip;
+    }
+
+    public Long getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Allow points to be served from a rollup whose bucket span is no larger
+     * than the given resolution, rather than from the raw series.
+     * 
+     * @param duration
+     * @param unit
+     */
+    public void setResolution(long duration, TimeUnit unit) {
+        this.resolution = unit.toMicros(duration);
+    }
+
+    public void setResolution(Long resolution) {
+        this.resolution = resolution;
+    }
+
+    public Aggregator getAggregator() {
+        return aggregator;
+    }
+
+    public void setAggregator(Aggregator aggregator) {
+        this.aggregator = aggregator;
+    }
 }
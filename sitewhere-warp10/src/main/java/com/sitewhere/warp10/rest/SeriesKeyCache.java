@@ -0,0 +1,141 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.rest;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okio.ByteString;
+
+/**
+ * Bounded LRU cache of encoded <code>CLASS{LABELS}</code> prefixes keyed by
+ * series identity, so that a series is encoded once rather than once per point.
+ */
+public class SeriesKeyCache {
+
+    /** Max number of cached series */
+    private int capacity;
+
+    /** Encoded prefixes in access order */
+    private LinkedHashMap<SeriesKey, ByteString> prefixes;
+
+    /** Number of lookups that found an encoded prefix */
+    private AtomicLong hits = new AtomicLong();
+
+    /** Number of lookups that did not find an encoded prefix */
+    private AtomicLong misses = new AtomicLong();
+
+    public SeriesKeyCache(int capacity) {
+	this.capacity = capacity;
+	this.prefixes = new LinkedHashMap<SeriesKey, ByteString>(16, 0.75f, true) {
+
+	    private static final long serialVersionUID = 1L;
+
+	    @Override
+	    protected boolean removeEldestEntry(Map.Entry<SeriesKey, ByteString> eldest) {
+		return size() > SeriesKeyCache.this.capacity;
+	    }
+	};
+    }
+
+    /**
+     * Get the encoded prefix for a series.
+     *
+     * @param className
+     * @param labels
+     * @return encoded prefix or <code>null</code> if not cached
+     */
+    public ByteString get(String className, Map<String, String> labels) {
+	ByteString prefix;
+	synchronized (this) {
+	    prefix = prefixes.get(new SeriesKey(className, labels));
+	}
+	if (prefix != null) {
+	    hits.incrementAndGet();
+	} else {
+	    misses.incrementAndGet();
+	}
+	return prefix;
+    }
+
+    /**
+     * Store the encoded prefix for a series. The labels are copied so later
+     * changes to the caller's map do not affect the cache.
+     *
+     * @param className
+     * @param labels
+     * @param prefix
+     */
+    public void put(String className, Map<String, String> labels, ByteString prefix) {
+	SeriesKey key = new SeriesKey(className, new HashMap<>(labels));
+	synchronized (this) {
+	    prefixes.put(key, prefix);
+	}
+    }
+
+    public synchronized int size() {
+	return prefixes.size();
+    }
+
+    public int getCapacity() {
+	return capacity;
+    }
+
+    public long getHits() {
+	return hits.get();
+    }
+
+    public long getMisses() {
+	return misses.get();
+    }
+
+    /**
+     * Identity of a series based on class name and labels.
+     */
+    static class SeriesKey {
+
+	private String className;
+
+	private Map<String, String> labels;
+
+	private int hash;
+
+	public SeriesKey(String className, Map<String, String> labels) {
+	    this.className = className;
+	    this.labels = labels;
+	    this.hash = 31 * className.hashCode() + labels.hashCode();
+	}
+
+	@Override
+	public int hashCode() {
+	    return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+	    if (this == obj) {
+		return true;
+	    }
+	    if (!(obj instanceof SeriesKey)) {
+		return false;
+	    }
+	    SeriesKey other = (SeriesKey) obj;
+	    return hash == other.hash && className.equals(other.className) && labels.equals(other.labels);
+	}
+    }
+}
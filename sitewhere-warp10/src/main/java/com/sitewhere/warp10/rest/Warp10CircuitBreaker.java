@@ -0,0 +1,136 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.rest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stops sending requests to Warp 10 after a run of consecutive failures. Once
+ * open, requests are rejected right away until the open interval has passed,
+ * then a single trial request is allowed through. The breaker closes if the
+ * trial succeeds and opens again if it fails.
+ */
+public class Warp10CircuitBreaker {
+
+    /** Breaker states */
+    public static enum State {
+	CLOSED, OPEN, HALF_OPEN
+    }
+
+    /** Consecutive failures that open the breaker */
+    private int failureThreshold;
+
+    /** Time the breaker stays open before a trial request */
+    private long openNanos;
+
+    /** Current state */
+    private State state = State.CLOSED;
+
+    /** Consecutive failures */
+    private int consecutiveFailures;
+
+    /** Time the breaker was last opened */
+    private long openedAt;
+
+    /** Indicates a trial request is in flight */
+    private boolean trialInFlight;
+
+    /** Number of times the breaker has opened */
+    private AtomicLong openCount = new AtomicLong();
+
+    /** Requests rejected while open */
+    private AtomicLong rejected = new AtomicLong();
+
+    public Warp10CircuitBreaker(int failureThreshold, long openInterval, TimeUnit unit) {
+	this.failureThreshold = Math.max(1, failureThreshold);
+	this.openNanos = unit.toNanos(openInterval);
+    }
+
+    /**
+     * Indicates whether a request may be sent.
+     *
+     * @return
+     */
+    public synchronized boolean allow() {
+	switch (state) {
+	case CLOSED:
+	    return true;
+	case OPEN:
+	    if (System.nanoTime() - openedAt < openNanos) {
+		rejected.incrementAndGet();
+		return false;
+	    }
+	    state = State.HALF_OPEN;
+	    trialInFlight = true;
+	    return true;
+	default:
+	    if (trialInFlight) {
+		rejected.incrementAndGet();
+		return false;
+	    }
+	    trialInFlight = true;
+	    return true;
+	}
+    }
+
+    /**
+     * Record a successful request.
+     */
+    public synchronized void onSuccess() {
+	consecutiveFailures = 0;
+	trialInFlight = false;
+	state = State.CLOSED;
+    }
+
+    /**
+     * Record a failed request.
+     */
+    public synchronized void onFailure() {
+	consecutiveFailures++;
+	trialInFlight = false;
+	if ((state == State.HALF_OPEN) || (consecutiveFailures >= failureThreshold)) {
+	    if (state != State.OPEN) {
+		openCount.incrementAndGet();
+	    }
+	    state = State.OPEN;
+	    openedAt = System.nanoTime();
+	}
+    }
+
+    public synchronized State getState() {
+	if ((state == State.OPEN) && (System.nanoTime() - openedAt >= openNanos)) {
+	    return State.HALF_OPEN;
+	}
+	return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+	return consecutiveFailures;
+    }
+
+    public long getOpenCount() {
+	return openCount.get();
+    }
+
+    public long getRejected() {
+	return rejected.get();
+    }
+
+    public int getFailureThreshold() {
+	return failureThreshold;
+    }
+}
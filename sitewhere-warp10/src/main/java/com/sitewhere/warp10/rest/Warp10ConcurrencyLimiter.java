@@ -0,0 +1,146 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.rest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of concurrent requests to Warp 10 using additive increase
+ * and multiplicative decrease (AIMD). The limit grows by one for each request
+ * that completes within the latency threshold while at least half of the limit
+ * is in use, and shrinks by the backoff ratio when a request fails or is slower
+ * than the threshold. Callers wait up to a max time for a slot once the limit
+ * is reached, after which the request is rejected rather than queued behind a
+ * degraded backend.
+ */
+public class Warp10ConcurrencyLimiter {
+
+    /** Lowest limit */
+    private int minLimit;
+
+    /** Highest limit */
+    private int maxLimit;
+
+    /** Latency above which the limit is decreased */
+    private long latencyThresholdNanos;
+
+    /** Ratio applied to the limit when decreasing */
+    private double backoffRatio;
+
+    /** Max time to wait for a slot */
+    private long maxWaitNanos;
+
+    /** Current limit */
+    private double limit;
+
+    /** Requests in flight */
+    private int inFlight;
+
+    /** Requests rejected after waiting for a slot */
+    private AtomicLong rejected = new AtomicLong();
+
+    public Warp10ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long latencyThreshold,
+	    long maxWait, TimeUnit unit, double backoffRatio) {
+	this.minLimit = Math.max(1, minLimit);
+	this.maxLimit = Math.max(this.minLimit, maxLimit);
+	this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+	this.latencyThresholdNanos = unit.toNanos(latencyThreshold);
+	this.maxWaitNanos = unit.toNanos(maxWait);
+	this.backoffRatio = backoffRatio;
+    }
+
+    /**
+     * Acquire a slot, waiting up to the max wait time if the limit is reached.
+     *
+     * @return true if a slot was acquired
+     * @throws InterruptedException
+     */
+    public synchronized boolean acquire() throws InterruptedException {
+	long deadline = System.nanoTime() + maxWaitNanos;
+	while (inFlight >= (int) limit) {
+	    long remaining = deadline - System.nanoTime();
+	    if (remaining <= 0) {
+		rejected.incrementAndGet();
+		return false;
+	    }
+	    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+	}
+	inFlight++;
+	return true;
+    }
+
+    /**
+     * Release a slot and adjust the limit based on the outcome of the request.
+     *
+     * @param latencyNanos
+     * @param failed
+     */
+    public synchronized void release(long latencyNanos, boolean failed) {
+	boolean saturated = inFlight * 2 >= limit;
+	inFlight--;
+	if (failed || (latencyNanos > latencyThresholdNanos)) {
+	    limit = Math.max(minLimit, limit * backoffRatio);
+	} else if (saturated) {
+	    limit = Math.min(maxLimit, limit + 1);
+	}
+	notifyAll();
+    }
+
+    /**
+     * Release a slot for a request whose latency depends on the work it asks
+     * for rather than on backend load. The limit is only decreased if the
+     * request failed.
+     *
+     * @param failed
+     */
+    public synchronized void releaseUnmeasured(boolean failed) {
+	inFlight--;
+	if (failed) {
+	    limit = Math.max(minLimit, limit * backoffRatio);
+	}
+	notifyAll();
+    }
+
+    /**
+     * Release a slot for a request that was never sent without adjusting the
+     * limit.
+     */
+    public synchronized void cancel() {
+	inFlight--;
+	notifyAll();
+    }
+
+    public synchronized int getLimit() {
+	return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+	return inFlight;
+    }
+
+    public long getRejected() {
+	return rejected.get();
+    }
+
+    public int getMinLimit() {
+	return minLimit;
+    }
+
+    public int getMaxLimit() {
+	return maxLimit;
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.rest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sitewhere.spi.SiteWhereException;
+
+/**
+ * Group of Warp 10 nodes serving the same role, such as the ingress or egress
+ * nodes of a distributed deployment. Each request is sent to a node chosen by
+ * round robin or by the fewest outstanding requests. A node that fails several
+ * requests in a row is ejected for a while, and requests go to the other nodes
+ * until it is tried again.
+ */
+public class Warp10Endpoints {
+
+    /** Ways of choosing a node */
+    public static enum Balancing {
+	ROUND_ROBIN, LEAST_OUTSTANDING
+    }
+
+    /** Nodes in the group */
+    private List<Endpoint> endpoints;
+
+    /** Way of choosing a node */
+    private Balancing balancing;
+
+    /** Consecutive failures after which a node is ejected (zero disables) */
+    private int ejectFailures;
+
+    /** Time a node stays ejected */
+    private long ejectNanos;
+
+    /** Next node for round robin */
+    private AtomicInteger next = new AtomicInteger();
+
+    public Warp10Endpoints(List<String> urls, Balancing balancing, int ejectFailures, long ejectTime,
+	    TimeUnit unit) {
+	List<Endpoint> endpoints = new ArrayList<>();
+	for (String url : urls) {
+	    endpoints.add(new Endpoint(url));
+	}
+	this.endpoints = Collections.unmodifiableList(endpoints);
+	this.balancing = balancing;
+	this.ejectFailures = ejectFailures;
+	this.ejectNanos = unit.toNanos(ejectTime);
+    }
+
+    /**
+     * Create a group with a single node.
+     * 
+     * @param url
+     * @return
+     */
+    public static Warp10Endpoints single(String url) {
+	return new Warp10Endpoints(Collections.singletonList(url), Balancing.ROUND_ROBIN, 0, 0,
+		TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Parse a balancing setting such as <code>round-robin</code> or
+     * <code>least-outstanding</code>.
+     * 
+     * @param value
+     * @return
+     * @throws SiteWhereException
+     */
+    public static Balancing parseBalancing(String value) throws SiteWhereException {
+	try {
+	    return Balancing.valueOf(value.trim().toUpperCase().replace('-', '_'));
+	} catch (IllegalArgumentException e) {
+	    throw new SiteWhereException(String.format("Unknown Warp 10 endpoint balancing '%s'.", value));
+	}
+    }
+
+    /**
+     * Choose the node for the next request. If every node is ejected, the one
+     * whose ejection ends first is used.
+     * 
+     * @return
+     */
+    public Endpoint select() {
+	if (endpoints.size() == 1) {
+	    return endpoints.get(0);
+	}
+	long now = System.nanoTime();
+	Endpoint selected = null;
+	if (balancing == Balancing.LEAST_OUTSTANDING) {
+	    for (Endpoint endpoint : endpoints) {
+		if (!endpoint.isEjected(now)
+			&& ((selected == null) || (endpoint.getOutstanding() < selected.getOutstanding()))) {
+		    selected = endpoint;
+		}
+	    }
+	} else {
+	    int start = next.getAndIncrement();
+	    for (int i = 0; i < endpoints.size(); i++) {
+		Endpoint endpoint = endpoints.get(Math.floorMod(start + i, endpoints.size()));
+		if (!endpoint.isEjected(now)) {
+		    selected = endpoint;
+		    break;
+		}
+	    }
+	}
+	if (selected == null) {
+	    for (Endpoint endpoint : endpoints) {
+		if ((selected == null) || (endpoint.getEjectedUntil() - selected.getEjectedUntil() < 0)) {
+		    selected = endpoint;
+		}
+	    }
+	}
+	return selected;
+    }
+
+    /**
+     * Get the number of nodes not currently ejected.
+     * 
+     * @return
+     */
+    public int getHealthyCount() {
+	long now = System.nanoTime();
+	int healthy = 0;
+	for (Endpoint endpoint : endpoints) {
+	    if (!endpoint.isEjected(now)) {
+		healthy++;
+	    }
+	}
+	return healthy;
+    }
+
+    public List<Endpoint> getEndpoints() {
+	return endpoints;
+    }
+
+    public Balancing getBalancing() {
+	return balancing;
+    }
+
+    /**
+     * A single Warp 10 node.
+     */
+    public class Endpoint {
+
+	/** Base URL of the node API */
+	private String url;
+
+	/** Requests sent and not yet completed */
+	private AtomicInteger outstanding = new AtomicInteger();
+
+	/** Consecutive failed requests */
+	private AtomicInteger consecutiveFailures = new AtomicInteger();
+
+	/** Number of times the node was ejected */
+	private AtomicInteger ejections = new AtomicInteger();
+
+	/** Time at which an ejection ends */
+	private volatile long ejectedUntil = System.nanoTime();
+
+	public Endpoint(String url) {
+	    this.url = url;
+	}
+
+	/**
+	 * Record a request sent to the node.
+	 */
+	public void acquire() {
+	    outstanding.incrementAndGet();
+	}
+
+	/**
+	 * Record the outcome of a request sent to the node, ejecting the node after
+	 * the configured number of consecutive failures.
+	 * 
+	 * @param failed
+	 */
+	public void release(boolean failed) {
+	    outstanding.decrementAndGet();
+	    if (!failed) {
+		consecutiveFailures.set(0);
+	    } else if ((ejectFailures > 0) && (consecutiveFailures.incrementAndGet() >= ejectFailures)) {
+		consecutiveFailures.set(0);
+		ejectedUntil = System.nanoTime() + ejectNanos;
+		ejections.incrementAndGet();
+	    }
+	}
+
+	public boolean isEjected(long now) {
+	    return now - ejectedUntil < 0;
+	}
+
+	public String getUrl() {
+	    return url;
+	}
+
+	public int getOutstanding() {
+	    return outstanding.get();
+	}
+
+	public int getEjections() {
+	    return ejections.get();
+	}
+
+	public long getEjectedUntil() {
+	    return ejectedUntil;
+	}
+
+	@Override
+	public String toString() {
+	    return url;
+	}
+    }
+}
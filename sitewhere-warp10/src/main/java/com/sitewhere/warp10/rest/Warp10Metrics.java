@@ -0,0 +1,312 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.rest;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Response;
+
+/**
+ * Records latency, payload sizes, point counts, token retries and errors of
+ * Warp 10 requests as Prometheus metrics labelled by tenant and operation. The
+ * collectors are registered with the default registry, so they are exported
+ * along with the other metrics of the microservice, as are the outcomes and
+ * size of the fetch cache. Request timing and sizes
+ * are captured by listening to OkHttp call events, so they cover the full
+ * exchange including streaming of the response body.
+ */
+public class Warp10Metrics implements EventListener.Factory {
+
+    /** Request duration from call start until the response is consumed */
+    private static final Histogram REQUEST_DURATION = Histogram.build()
+	    .name("sitewhere_warp10_request_duration_seconds").help("Duration of Warp 10 requests.")
+	    .labelNames("tenant", "operation")
+	    .buckets(0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30).register();
+
+    /** Size of request bodies as sent */
+    private static final Histogram REQUEST_SIZE = Histogram.build().name("sitewhere_warp10_request_size_bytes")
+	    .help("Size of Warp 10 request bodies.").labelNames("tenant", "operation")
+	    .exponentialBuckets(256, 4, 10).register();
+
+    /** Size of response bodies as received */
+    private static final Histogram RESPONSE_SIZE = Histogram.build().name("sitewhere_warp10_response_size_bytes")
+	    .help("Size of Warp 10 response bodies.").labelNames("tenant", "operation")
+	    .exponentialBuckets(256, 4, 10).register();
+
+    private static final Counter BYTES_SENT = Counter.build().name("sitewhere_warp10_sent_bytes_total")
+	    .help("Bytes sent to Warp 10.").labelNames("tenant", "operation").register();
+
+    private static final Counter BYTES_RECEIVED = Counter.build().name("sitewhere_warp10_received_bytes_total")
+	    .help("Bytes received from Warp 10.").labelNames("tenant", "operation").register();
+
+    private static final Counter POINTS_WRITTEN = Counter.build().name("sitewhere_warp10_points_written_total")
+	    .help("Points stored by Warp 10 updates.").labelNames("tenant", "operation").register();
+
+    private static final Counter POINTS_PARSED = Counter.build().name("sitewhere_warp10_points_parsed_total")
+	    .help("Points parsed from Warp 10 responses.").labelNames("tenant", "operation").register();
+
+    private static final Counter RETRIES = Counter.build().name("sitewhere_warp10_token_retries_total")
+	    .help("Warp 10 requests retried after an expired token.").labelNames("tenant", "operation").register();
+
+    private static final Counter ERRORS = Counter.build().name("sitewhere_warp10_errors_total")
+	    .help("Warp 10 requests that failed.").labelNames("tenant", "operation", "cause").register();
+
+    private static final Counter FETCH_CACHE_REQUESTS = Counter.build()
+	    .name("sitewhere_warp10_fetch_cache_requests_total").help("Cacheable Warp 10 fetches by outcome.")
+	    .labelNames("tenant", "outcome").register();
+
+    private static final Counter FETCH_CACHE_EVICTIONS = Counter.build()
+	    .name("sitewhere_warp10_fetch_cache_evictions_total").help("Warp 10 fetch cache entries evicted.")
+	    .labelNames("tenant").register();
+
+    private static final Gauge FETCH_CACHE_BYTES = Gauge.build().name("sitewhere_warp10_fetch_cache_bytes")
+	    .help("Estimated bytes held by the Warp 10 fetch cache.").labelNames("tenant").register();
+
+    /** Tenant label value */
+    private String tenant;
+
+    /** Children resolved once per operation to avoid label lookups per request */
+    private Map<Operation, Children> children = new EnumMap<>(Operation.class);
+
+    private Counter.Child fetchCacheHits;
+
+    private Counter.Child fetchCacheTailRefreshes;
+
+    private Counter.Child fetchCacheMisses;
+
+    private Counter.Child fetchCacheEvictions;
+
+    private Gauge.Child fetchCacheBytes;
+
+    public Warp10Metrics(String tenant) {
+	this.tenant = tenant;
+	for (Operation operation : Operation.values()) {
+	    children.put(operation, new Children(tenant, operation.getLabel()));
+	}
+	this.fetchCacheHits = FETCH_CACHE_REQUESTS.labels(tenant, "hit");
+	this.fetchCacheTailRefreshes = FETCH_CACHE_REQUESTS.labels(tenant, "tail_refresh");
+	this.fetchCacheMisses = FETCH_CACHE_REQUESTS.labels(tenant, "miss");
+	this.fetchCacheEvictions = FETCH_CACHE_EVICTIONS.labels(tenant);
+	this.fetchCacheBytes = FETCH_CACHE_BYTES.labels(tenant);
+    }
+
+    /*
+     * @see okhttp3.EventListener.Factory#create(okhttp3.Call)
+     */
+    @Override
+    public EventListener create(Call call) {
+	Operation operation = call.request().tag(Operation.class);
+	return (operation != null) ? new CallListener(children.get(operation)) : EventListener.NONE;
+    }
+
+    /**
+     * Count points stored by a successful update.
+     *
+     * @param operation
+     * @param points
+     */
+    public void pointsWritten(Operation operation, long points) {
+	children.get(operation).pointsWritten.inc(points);
+    }
+
+    /**
+     * Count points parsed from a response.
+     *
+     * @param operation
+     * @param points
+     */
+    public void pointsParsed(Operation operation, long points) {
+	children.get(operation).pointsParsed.inc(points);
+    }
+
+    /**
+     * Count a fetch answered entirely from the fetch cache.
+     */
+    public void fetchCacheHit() {
+	fetchCacheHits.inc();
+    }
+
+    /**
+     * Count a fetch answered from the fetch cache after fetching newer points.
+     */
+    public void fetchCacheTailRefresh() {
+	fetchCacheTailRefreshes.inc();
+    }
+
+    /**
+     * Count a cacheable fetch that required a full fetch.
+     */
+    public void fetchCacheMiss() {
+	fetchCacheMisses.inc();
+    }
+
+    /**
+     * Count an entry evicted from the fetch cache.
+     */
+    public void fetchCacheEvicted() {
+	fetchCacheEvictions.inc();
+    }
+
+    /**
+     * Record the estimated bytes held by the fetch cache.
+     *
+     * @param bytes
+     */
+    public void fetchCacheBytes(long bytes) {
+	fetchCacheBytes.set(bytes);
+    }
+
+    /**
+     * Count a request retried after its token expired.
+     *
+     * @param operation
+     */
+    public void retried(Operation operation) {
+	children.get(operation).retries.inc();
+    }
+
+    /**
+     * Count a request rejected by the concurrency limiter or circuit breaker
+     * before it was sent.
+     *
+     * @param operation
+     */
+    public void rejected(Operation operation) {
+	children.get(operation).rejected.inc();
+    }
+
+    public String getTenant() {
+	return tenant;
+    }
+
+    /**
+     * Operations distinguished in metric labels.
+     */
+    public static enum Operation {
+
+	UPDATE("update"), META("meta"), FETCH("fetch"), FIND("find"), EXEC("exec"), DELETE("delete"),
+	TOKEN("token");
+
+	/** Label value */
+	private String label;
+
+	private Operation(String label) {
+	    this.label = label;
+	}
+
+	public String getLabel() {
+	    return label;
+	}
+    }
+
+    /**
+     * Records the events of a single call.
+     */
+    private static class CallListener extends EventListener {
+
+	private Children children;
+
+	private long started;
+
+	public CallListener(Children children) {
+	    this.children = children;
+	}
+
+	@Override
+	public void callStart(Call call) {
+	    this.started = System.nanoTime();
+	}
+
+	@Override
+	public void requestBodyEnd(Call call, long byteCount) {
+	    children.requestSize.observe(byteCount);
+	    children.bytesSent.inc(byteCount);
+	}
+
+	@Override
+	public void responseHeadersEnd(Call call, Response response) {
+	    if (response.code() >= 400) {
+		children.statusErrors.inc();
+	    }
+	}
+
+	@Override
+	public void responseBodyEnd(Call call, long byteCount) {
+	    children.responseSize.observe(byteCount);
+	    children.bytesReceived.inc(byteCount);
+	}
+
+	@Override
+	public void callEnd(Call call) {
+	    children.duration.observe((System.nanoTime() - started) / 1e9);
+	}
+
+	@Override
+	public void callFailed(Call call, IOException ioe) {
+	    children.duration.observe((System.nanoTime() - started) / 1e9);
+	    children.ioErrors.inc();
+	}
+    }
+
+    /**
+     * Metric children for one tenant and operation.
+     */
+    private static class Children {
+
+	private Histogram.Child duration;
+
+	private Histogram.Child requestSize;
+
+	private Histogram.Child responseSize;
+
+	private Counter.Child bytesSent;
+
+	private Counter.Child bytesReceived;
+
+	private Counter.Child pointsWritten;
+
+	private Counter.Child pointsParsed;
+
+	private Counter.Child retries;
+
+	private Counter.Child statusErrors;
+
+	private Counter.Child ioErrors;
+
+	private Counter.Child rejected;
+
+	public Children(String tenant, String operation) {
+	    this.duration = REQUEST_DURATION.labels(tenant, operation);
+	    this.requestSize = REQUEST_SIZE.labels(tenant, operation);
+	    this.responseSize = RESPONSE_SIZE.labels(tenant, operation);
+	    this.bytesSent = BYTES_SENT.labels(tenant, operation);
+	    this.bytesReceived = BYTES_RECEIVED.labels(tenant, operation);
+	    this.pointsWritten = POINTS_WRITTEN.labels(tenant, operation);
+	    this.pointsParsed = POINTS_PARSED.labels(tenant, operation);
+	    this.retries = RETRIES.labels(tenant, operation);
+	    this.statusErrors = ERRORS.labels(tenant, operation, "status");
+	    this.ioErrors = ERRORS.labels(tenant, operation, "io");
+	    this.rejected = ERRORS.labels(tenant, operation, "rejected");
+	}
+    }
+}
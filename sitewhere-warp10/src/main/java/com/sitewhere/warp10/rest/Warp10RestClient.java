@@ -17,37 +17,99 @@ package com.sitewhere.warp10.rest;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 import com.sitewhere.spi.SiteWhereException;
+import com.sitewhere.warp10.rest.Warp10Metrics.Operation;
 
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSource;
 
 public class Warp10RestClient {
 
     /** HTTP client */
     private OkHttpClient client = new OkHttpClient();
 
-    /** Base URL for request */
-    private String url;
+    /** Nodes receiving updates, meta updates and deletes */
+    private Warp10Endpoints ingressEndpoints;
+
+    /** Nodes receiving fetches, finds and scripts */
+    private Warp10Endpoints egressEndpoints;
 
     private String tokenSecret;
 
     private String application;
 
-    private Warp10Token readToken;
+    /** Caches and renews read and write tokens */
+    private Warp10TokenManager tokenManager = new Warp10TokenManager(this::getToken);
+
+    /** Indicates if update payloads are gzip compressed */
+    private boolean gzip;
+
+    /** Indicates if uncompressed responses are requested */
+    private boolean identityResponses;
+
+    /** Serializer for update payloads */
+    private GTSInputWriter writer = new GTSInputWriter();
+
+    /** Max asynchronous requests in flight */
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+
+    /** Limits asynchronous requests in flight */
+    private Semaphore inFlight = new Semaphore(DEFAULT_MAX_IN_FLIGHT);
+
+    /** Requests waiting for a slot without blocking the thread that queued them */
+    private Queue<DeferredRequest> deferred = new ConcurrentLinkedQueue<>();
 
-    private Warp10Token writeToken;
+    /** Runs follow-up work of asynchronous requests off the HTTP dispatcher */
+    private ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+	Thread thread = new Thread(runnable, "warp10-async-request");
+	thread.setDaemon(true);
+	return thread;
+    });
+
+    /** Adapts the number of concurrent update and meta requests (optional) */
+    private Warp10ConcurrencyLimiter ingressLimiter;
+
+    /** Adapts the number of concurrent read, exec and delete requests (optional) */
+    private Warp10ConcurrencyLimiter egressLimiter;
+
+    /** Rejects requests after consecutive failures (optional) */
+    private Warp10CircuitBreaker circuitBreaker;
+
+    /** Records latency, sizes and outcomes of requests (optional) */
+    private Warp10Metrics metrics;
 
     private static final String X_WARP_10_TOKEN = "X-Warp10-Token";
 
+    private static final String X_WARP_10_ERROR_MESSAGE = "X-Warp10-Error-Message";
+
+    /** Default max asynchronous requests in flight */
+    private static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
     public static Builder newBuilder() {
 	return new Builder();
     }
@@ -60,6 +122,10 @@ public class Warp10RestClient {
 	private Warp10RestClient client = new Warp10RestClient();
 
 	public Warp10RestClient build() {
+	    if (client.getMetrics() != null) {
+		client.setHttpClient(
+			client.getHttpClient().newBuilder().eventListenerFactory(client.getMetrics()).build());
+	    }
 	    return client;
 	}
 
@@ -69,27 +135,119 @@ public class Warp10RestClient {
 	    client.setApplication(application);
 	    return this;
 	}
+
+	public Builder withEndpoints(Warp10Endpoints ingressEndpoints, Warp10Endpoints egressEndpoints) {
+	    client.setIngressEndpoints(ingressEndpoints);
+	    client.setEgressEndpoints(egressEndpoints);
+	    return this;
+	}
+
+	public Builder withHttpClient(OkHttpClient httpClient) {
+	    client.setHttpClient(httpClient);
+	    return this;
+	}
+
+	public Builder withGzip(boolean gzip) {
+	    client.setGzip(gzip);
+	    return this;
+	}
+
+	public Builder withIdentityResponses(boolean identityResponses) {
+	    client.setIdentityResponses(identityResponses);
+	    return this;
+	}
+
+	public Builder withMaxInFlight(int maxInFlight) {
+	    client.setMaxInFlight(maxInFlight);
+	    return this;
+	}
+
+	public Builder withWriter(GTSInputWriter writer) {
+	    client.setWriter(writer);
+	    return this;
+	}
+
+	public Builder withConcurrencyLimiters(Warp10ConcurrencyLimiter ingressLimiter,
+		Warp10ConcurrencyLimiter egressLimiter) {
+	    client.setIngressLimiter(ingressLimiter);
+	    client.setEgressLimiter(egressLimiter);
+	    return this;
+	}
+
+	public Builder withCircuitBreaker(Warp10CircuitBreaker circuitBreaker) {
+	    client.setCircuitBreaker(circuitBreaker);
+	    return this;
+	}
+
+	public Builder withMetrics(Warp10Metrics metrics) {
+	    client.setMetrics(metrics);
+	    return this;
+	}
     }
 
     public int ingress(GTSInput data) throws SiteWhereException {
-	if (writeToken == null) {
-	    writeToken = getToken(TokenType.WRITE);
+	Buffer payload = new Buffer();
+	try {
+	    writer.write(data, payload);
+	} catch (IOException e) {
+	    throw new SiteWhereException("Unable to encode Warp 10 update.", e);
 	}
+	return ingress(payload);
+    }
+
+    /**
+     * Send a collection of points to the update endpoint in a single request. The
+     * points are serialized directly into the request stream.
+     * 
+     * @param data
+     * @return
+     * @throws SiteWhereException
+     */
+    public int ingress(Collection<GTSInput> data) throws SiteWhereException {
+	return update(new GTSInputRequestBody(data, writer));
+    }
+
+    /**
+     * Send a payload of one or more newline-separated GTS input lines to the
+     * update endpoint in a single request.
+     * 
+     * @param payload
+     * @return
+     * @throws SiteWhereException
+     */
+    public int ingress(Buffer payload) throws SiteWhereException {
+	return update(new GTSInputRequestBody(payload));
+    }
+
+    /**
+     * Send an update request, renewing the write token if it has expired.
+     * 
+     * @param body
+     * @return
+     * @throws SiteWhereException
+     */
+    protected int update(RequestBody body) throws SiteWhereException {
+	return update(body, true);
+    }
+
+    private int update(RequestBody body, boolean retryIfExpired) throws SiteWhereException {
+	Warp10Token token = tokenManager.getToken(TokenType.WRITE);
 
 	Response response = null;
 	try {
-	    MediaType textPlainMT = MediaType.parse("text/plain; charset=utf-8");
-	    Request request = new Request.Builder().url(url + "/update").header("Content-Type", "text/plain")
-		    .header(X_WARP_10_TOKEN, writeToken.getToken())
-		    .post(RequestBody.create(textPlainMT, data.toInputFormat())).build();
+	    Request request = newUpdateRequest(token, body);
 
-	    response = client.newCall(request).execute();
+	    response = execute(request);
 	    int responseCode = response.code();
-	    if (responseCode == 500 && response.peekBody(Long.MAX_VALUE).string().contains("Token Expired")) {
-		writeToken = null;
-		responseCode = ingress(data);
+	    if (retryIfExpired && isTokenExpired(response)) {
+		invalidate(response, TokenType.WRITE, token);
+		responseCode = update(body, false);
+	    } else if (responseCode == 200) {
+		written(body);
 	    }
 	    return responseCode;
+	} catch (SiteWhereException e) {
+	    throw e;
 	} catch (IOException e) {
 	    throw new SiteWhereException("Error sending Warp 10 request.", e);
 	} catch (Throwable e) {
@@ -101,24 +259,96 @@ public class Warp10RestClient {
 	}
     }
 
-    public List<GTSOutput> fetch(QueryParams queryParams) throws SiteWhereException {
-	if (readToken == null) {
-	    readToken = getToken(TokenType.READ);
+    /**
+     * Send series attributes to the meta endpoint. Each line of the payload has
+     * the form <code>CLASS{LABELS}{ATTRIBUTES}</code> and replaces the attributes
+     * of an existing series.
+     * 
+     * @param payload
+     * @return
+     * @throws SiteWhereException
+     */
+    public int meta(Buffer payload) throws SiteWhereException {
+	return meta(new GTSInputRequestBody(payload), true);
+    }
+
+    private int meta(RequestBody body, boolean retryIfExpired) throws SiteWhereException {
+	Warp10Token token = tokenManager.getToken(TokenType.WRITE);
+
+	Response response = null;
+	try {
+	    response = execute(newMetaRequest(token, body));
+	    int responseCode = response.code();
+	    if (retryIfExpired && isTokenExpired(response)) {
+		invalidate(response, TokenType.WRITE, token);
+		responseCode = meta(body, false);
+	    }
+	    return responseCode;
+	} catch (SiteWhereException e) {
+	    throw e;
+	} catch (IOException e) {
+	    throw new SiteWhereException("Error sending Warp 10 meta request.", e);
+	} catch (Throwable e) {
+	    throw new SiteWhereException("Unhandled exception sending Warp 10 meta request.", e);
+	} finally {
+	    if (response != null) {
+		response.body().close();
+	    }
 	}
+    }
+
+    public List<GTSOutput> fetch(QueryParams queryParams) throws SiteWhereException {
+	List<GTSOutput> gtsOutputs = new ArrayList<>();
+	fetch(queryParams, gtsOutputs::add);
+	return gtsOutputs;
+    }
+
+    /**
+     * Execute a fetch and pass each series to the handler as soon as it has been
+     * parsed from the response stream. OkHttp negotiates a compressed response
+     * and decompresses it transparently unless uncompressed responses have been
+     * requested. An error response is thrown as an
+     * exception rather than treated as an empty result.
+     * 
+     * @param queryParams
+     * @param handler
+     * @throws SiteWhereException
+     */
+    public void fetch(QueryParams queryParams, Consumer<GTSOutput> handler) throws SiteWhereException {
+	fetch(queryParams, handler, true);
+    }
+
+    private void fetch(QueryParams queryParams, Consumer<GTSOutput> handler, boolean retryIfExpired)
+	    throws SiteWhereException {
+	Warp10Token token = tokenManager.getToken(TokenType.READ);
 
 	Response response = null;
 	try {
-	    Request request = new Request.Builder().url(url + "/fetch?" + queryParams.toString())
-		    .header(X_WARP_10_TOKEN, readToken.getToken()).get().build();
+	    Request request = newFetchRequest(token, queryParams);
 
-	    response = client.newCall(request).execute();
-	    String respuestas = response.peekBody(Long.MAX_VALUE).string();
-	    List<GTSOutput> gtsOutputs = GTSOutput.fromOutputFormat(respuestas);
-	    if (response.code() == 500 && respuestas.contains("Token Expired")) {
-		readToken = null;
-		gtsOutputs = fetch(queryParams);
+	    response = execute(request);
+	    if (retryIfExpired && isTokenExpired(response)) {
+		invalidate(response, TokenType.READ, token);
+		response.body().close();
+		response = null;
+		fetch(queryParams, handler, false);
+		return;
+	    }
+	    if (!response.isSuccessful()) {
+		throw new SiteWhereException(String.format("Warp 10 fetch failed with status %d. %s", response.code(),
+			response.header(X_WARP_10_ERROR_MESSAGE)));
 	    }
-	    return gtsOutputs;
+	    try (GTSOutputReader reader = new GTSOutputReader(response.body().charStream())) {
+		long points = 0;
+		GTSOutput gts;
+		while ((gts = reader.read()) != null) {
+		    points += gts.size();
+		    handler.accept(gts);
+		}
+		parsed(request, points);
+	    }
+	} catch (SiteWhereException e) {
+	    throw e;
 	} catch (IOException e) {
 	    throw new SiteWhereException("Error executing Warp 10 fetch.", e);
 	} catch (Exception e) {
@@ -130,24 +360,271 @@ public class Warp10RestClient {
 	}
     }
 
-    public int delete(String query) throws SiteWhereException {
-	if (writeToken == null) {
-	    writeToken = getToken(TokenType.WRITE);
+    /**
+     * Find the series matching a selector without fetching any points. Each
+     * series is passed to the handler with its class, labels and attributes.
+     * 
+     * @param selector
+     * @param handler
+     * @throws SiteWhereException
+     */
+    public void find(String selector, Consumer<GTSOutput> handler) throws SiteWhereException {
+	find(selector, handler, true);
+    }
+
+    private void find(String selector, Consumer<GTSOutput> handler, boolean retryIfExpired)
+	    throws SiteWhereException {
+	Warp10Token token = tokenManager.getToken(TokenType.READ);
+
+	Response response = null;
+	try {
+	    Request request = newRequest(egressEndpoints, Operation.FIND, "/find",
+		    url -> url.addQueryParameter("selector", selector)).header(X_WARP_10_TOKEN, token.getToken()).get()
+		    .build();
+
+	    response = execute(request);
+	    if (retryIfExpired && isTokenExpired(response)) {
+		invalidate(response, TokenType.READ, token);
+		response.body().close();
+		response = null;
+		find(selector, handler, false);
+		return;
+	    }
+	    if (!response.isSuccessful()) {
+		throw new SiteWhereException(String.format("Warp 10 find failed with status %d. %s", response.code(),
+			response.header(X_WARP_10_ERROR_MESSAGE)));
+	    }
+	    BufferedSource source = response.body().source();
+	    String line;
+	    while ((line = source.readUtf8Line()) != null) {
+		if (!line.isEmpty()) {
+		    handler.accept(GTSOutput.fromSelector(line));
+		}
+	    }
+	} catch (SiteWhereException e) {
+	    throw e;
+	} catch (IOException e) {
+	    throw new SiteWhereException("Error executing Warp 10 find.", e);
+	} catch (Exception e) {
+	    throw new SiteWhereException("Unhandled exception executing Warp 10 find.", e);
+	} finally {
+	    if (response != null) {
+		response.body().close();
+	    }
+	}
+    }
+
+    public List<GTSOutput> aggregate(AggregationQuery query) throws SiteWhereException {
+	List<GTSOutput> gtsOutputs = new ArrayList<>();
+	aggregate(query, gtsOutputs::add);
+	return gtsOutputs;
+    }
+
+    /**
+     * Execute an aggregation on the server and pass each aggregated series to the
+     * handler as it is parsed. Queries that reduce series with an aggregator that
+     * cannot be reduced are rejected before anything is sent.
+     * 
+     * @param query
+     * @param handler
+     * @throws SiteWhereException
+     */
+    public void aggregate(AggregationQuery query, Consumer<GTSOutput> handler) throws SiteWhereException {
+	query.validate();
+	exec(query::toWarpScript, handler);
+    }
+
+    public List<GTSOutput> geo(GeoQuery query) throws SiteWhereException {
+	List<GTSOutput> gtsOutputs = new ArrayList<>();
+	geo(query, gtsOutputs::add);
+	return gtsOutputs;
+    }
+
+    /**
+     * Execute a geo query on the server and pass each series with points in the
+     * area to the handler as it is parsed.
+     * 
+     * @param query
+     * @param handler
+     * @throws SiteWhereException
+     */
+    public void geo(GeoQuery query, Consumer<GTSOutput> handler) throws SiteWhereException {
+	exec(query::toWarpScript, handler);
+    }
+
+    /**
+     * Fetch the latest point of the series matching each query in a single
+     * request and pass each series to the handler as it is parsed.
+     * 
+     * @param queries
+     * @param handler
+     * @throws SiteWhereException
+     */
+    public void latest(Collection<QueryParams> queries, Consumer<GTSOutput> handler) throws SiteWhereException {
+	exec(token -> {
+	    WarpScript script = WarpScript.builder();
+	    for (QueryParams queryParams : queries) {
+		script.latest(token, queryParams);
+	    }
+	    return script.toString();
+	}, handler);
+    }
+
+    /**
+     * Execute WarpScript built for the current read token and pass each series
+     * left on the stack to the handler.
+     * 
+     * @param script
+     *            creates the script given a read token
+     * @param handler
+     * @throws SiteWhereException
+     */
+    public void exec(Function<String, String> script, Consumer<GTSOutput> handler) throws SiteWhereException {
+	exec(script, handler, true);
+    }
+
+    private void exec(Function<String, String> script, Consumer<GTSOutput> handler, boolean retryIfExpired)
+	    throws SiteWhereException {
+	Warp10Token token = tokenManager.getToken(TokenType.READ);
+
+	Response response = null;
+	try {
+	    Request request = newExecRequest(script.apply(token.getToken()));
+
+	    response = execute(request);
+	    if (retryIfExpired && isTokenExpired(response)) {
+		invalidate(response, TokenType.READ, token);
+		response.body().close();
+		response = null;
+		exec(script, handler, false);
+		return;
+	    }
+	    if (!response.isSuccessful()) {
+		throw new SiteWhereException(String.format("Warp 10 script failed with status %d. %s", response.code(),
+			response.header(X_WARP_10_ERROR_MESSAGE)));
+	    }
+	    try (GTSOutputReader reader = new GTSOutputReader(response.body().charStream())) {
+		long points = 0;
+		GTSOutput gts;
+		while ((gts = reader.read()) != null) {
+		    points += gts.size();
+		    handler.accept(gts);
+		}
+		parsed(request, points);
+	    }
+	} catch (SiteWhereException e) {
+	    throw e;
+	} catch (IOException e) {
+	    throw new SiteWhereException("Error executing Warp 10 script.", e);
+	} catch (Exception e) {
+	    throw new SiteWhereException("Unhandled exception executing Warp 10 script.", e);
+	} finally {
+	    if (response != null) {
+		response.body().close();
+	    }
+	}
+    }
+
+    /**
+     * Execute WarpScript that stores data, built for the current read and write
+     * tokens. Any output left on the stack is ignored.
+     * 
+     * @param script
+     *            creates the script given a read token and a write token
+     * @throws SiteWhereException
+     */
+    public void execUpdate(BiFunction<String, String, String> script) throws SiteWhereException {
+	execUpdate(script, true);
+    }
+
+    private void execUpdate(BiFunction<String, String, String> script, boolean retryIfExpired)
+	    throws SiteWhereException {
+	Warp10Token readToken = tokenManager.getToken(TokenType.READ);
+	Warp10Token writeToken = tokenManager.getToken(TokenType.WRITE);
+
+	Response response = null;
+	try {
+	    Request request = newExecRequest(script.apply(readToken.getToken(), writeToken.getToken()));
+
+	    response = execute(request);
+	    if (retryIfExpired && isTokenExpired(response)) {
+		invalidate(response, TokenType.READ, readToken);
+		tokenManager.invalidate(TokenType.WRITE, writeToken);
+		response.body().close();
+		response = null;
+		execUpdate(script, false);
+		return;
+	    }
+	    if (!response.isSuccessful()) {
+		throw new SiteWhereException(String.format("Warp 10 script failed with status %d. %s", response.code(),
+			response.header(X_WARP_10_ERROR_MESSAGE)));
+	    }
+	} catch (SiteWhereException e) {
+	    throw e;
+	} catch (IOException e) {
+	    throw new SiteWhereException("Error executing Warp 10 script.", e);
+	} catch (Exception e) {
+	    throw new SiteWhereException("Unhandled exception executing Warp 10 script.", e);
+	} finally {
+	    if (response != null) {
+		response.body().close();
+	    }
 	}
+    }
+
+    public int delete(String query) throws SiteWhereException {
+	return delete(url -> url.encodedQuery(query), response -> response.code(), true);
+    }
+
+    /**
+     * Delete points of the series matching a selector with timestamps from the
+     * start to the end, both inclusive and in microseconds, matching the range
+     * semantics of the Warp 10 delete endpoint.
+     * 
+     * @param selector
+     * @param start
+     * @param end
+     * @return number of series affected
+     * @throws SiteWhereException
+     */
+    public int delete(String selector, long start, long end) throws SiteWhereException {
+	Consumer<HttpUrl.Builder> query = url -> url.addQueryParameter("selector", selector)
+		.addQueryParameter("start", String.valueOf(start)).addQueryParameter("end", String.valueOf(end));
+	return delete(query, response -> {
+	    if (!response.isSuccessful()) {
+		throw new SiteWhereException(String.format("Warp 10 delete failed with status %d. %s",
+			response.code(), response.header(X_WARP_10_ERROR_MESSAGE)));
+	    }
+	    int series = 0;
+	    BufferedSource source = response.body().source();
+	    String line;
+	    while ((line = source.readUtf8Line()) != null) {
+		if (!line.isEmpty()) {
+		    series++;
+		}
+	    }
+	    return series;
+	}, true);
+    }
+
+    private <T> T delete(Consumer<HttpUrl.Builder> query, ResponseParser<T> parser, boolean retryIfExpired)
+	    throws SiteWhereException {
+	Warp10Token token = tokenManager.getToken(TokenType.WRITE);
 
 	Request request = null;
 	Response response = null;
 	try {
-	    request = new Request.Builder().url(url + "/delete?" + query).header(X_WARP_10_TOKEN, writeToken.getToken())
-		    .get().build();
-	    response = client.newCall(request).execute();
+	    request = newRequest(ingressEndpoints, Operation.DELETE, "/delete", query)
+		    .header(X_WARP_10_TOKEN, token.getToken()).get().build();
+	    response = execute(request);
 
-	    int responseCode = response.code();
-	    if (responseCode == 500 && response.peekBody(Long.MAX_VALUE).string().contains("Token Expired")) {
-		writeToken = null;
-		responseCode = delete(query);
+	    if (retryIfExpired && isTokenExpired(response)) {
+		invalidate(response, TokenType.WRITE, token);
+		return delete(query, parser, false);
 	    }
-	    return responseCode;
+	    return parser.parse(response);
+	} catch (SiteWhereException e) {
+	    throw e;
 	} catch (IOException e) {
 	    throw new SiteWhereException("Error executing Warp 10 delete.", e);
 	} catch (Exception e) {
@@ -159,19 +636,549 @@ public class Warp10RestClient {
 	}
     }
 
-    private Warp10Token getToken(TokenType tokenType) throws SiteWhereException {
+    /**
+     * Send points to the update endpoint without blocking the caller on the
+     * response. The caller blocks only while the number of requests in flight is
+     * at its limit.
+     * 
+     * @param data
+     * @return future completed with the response code
+     */
+    public CompletableFuture<Integer> ingressAsync(Collection<GTSInput> data) {
+	return ingressAsync(new GTSInputRequestBody(data, writer));
+    }
+
+    /**
+     * Send already encoded lines to the update endpoint without blocking the
+     * caller on the response.
+     * 
+     * @param payload
+     * @return future completed with the response code
+     */
+    public CompletableFuture<Integer> ingressAsync(Buffer payload) {
+	return ingressAsync(new GTSInputRequestBody(payload));
+    }
+
+    protected CompletableFuture<Integer> ingressAsync(RequestBody body) {
+	return enqueue(TokenType.WRITE, token -> newUpdateRequest(token, body), response -> {
+	    if (response.code() == 200) {
+		written(body);
+	    }
+	    return response.code();
+	});
+    }
+
+    /**
+     * Send series attributes to the meta endpoint without blocking the caller,
+     * even while no request slot is available. This allows meta updates to be
+     * sent from the completion of another asynchronous request.
+     * 
+     * @param payload
+     * @return future completed with the response code
+     */
+    public CompletableFuture<Integer> metaAsync(Buffer payload) {
+	RequestBody body = new GTSInputRequestBody(payload);
+	return defer(TokenType.WRITE, token -> newMetaRequest(token, body), response -> response.code());
+    }
+
+    /**
+     * Execute a fetch without blocking the caller on the response.
+     * 
+     * @param queryParams
+     * @return future completed with the parsed series, or completed
+     *         exceptionally if the fetch fails
+     */
+    public CompletableFuture<List<GTSOutput>> fetchAsync(QueryParams queryParams) {
+	return enqueue(TokenType.READ, token -> newFetchRequest(token, queryParams), response -> {
+	    if (!response.isSuccessful()) {
+		throw new SiteWhereException(String.format("Warp 10 fetch failed with status %d. %s", response.code(),
+			response.header(X_WARP_10_ERROR_MESSAGE)));
+	    }
+	    try (GTSOutputReader reader = new GTSOutputReader(response.body().charStream())) {
+		List<GTSOutput> gtsOutputs = reader.readAll();
+		long points = 0;
+		for (GTSOutput gts : gtsOutputs) {
+		    points += gts.size();
+		}
+		parsed(response.request(), points);
+		return gtsOutputs;
+	    }
+	});
+    }
+
+    /**
+     * Wait for all asynchronous requests in flight to complete.
+     * 
+     * @param timeout
+     * @param unit
+     * @return true if all requests completed before the timeout
+     * @throws InterruptedException
+     */
+    public boolean awaitInFlight(long timeout, TimeUnit unit) throws InterruptedException {
+	if (inFlight.tryAcquire(maxInFlight, timeout, unit)) {
+	    release(maxInFlight);
+	    return true;
+	}
+	return false;
+    }
+
+    /**
+     * Enqueue a request once a slot is available. The slot is held until the
+     * response has been parsed, including a retry after an expired token. Since
+     * a retry may wait on a new token or on the concurrency limiter, it is sent
+     * from the executor rather than from the dispatcher thread delivering the
+     * response.
+     * 
+     * @param tokenType
+     * @param factory
+     * @param parser
+     * @return
+     */
+    protected <T> CompletableFuture<T> enqueue(TokenType tokenType, RequestFactory factory,
+	    ResponseParser<T> parser) {
+	CompletableFuture<T> future = new CompletableFuture<>();
+	try {
+	    inFlight.acquire();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    future.completeExceptionally(new SiteWhereException("Interrupted waiting to send Warp 10 request.", e));
+	    return future;
+	}
+	send(tokenType, factory, parser, future, true);
+	return future;
+    }
+
+    /**
+     * Queue a request to be sent from the executor once a slot is available. Never
+     * blocks, so it is safe to call from an OkHttp callback.
+     * 
+     * @param tokenType
+     * @param factory
+     * @param parser
+     * @return
+     */
+    protected <T> CompletableFuture<T> defer(TokenType tokenType, RequestFactory factory,
+	    ResponseParser<T> parser) {
+	CompletableFuture<T> future = new CompletableFuture<>();
+	deferred.add(new DeferredRequest(() -> send(tokenType, factory, parser, future, true), future));
+	dispatchDeferred();
+	return future;
+    }
+
+    /**
+     * Hand deferred requests to the executor while slots are available. Requests
+     * that the executor rejects after {@link #close()} are failed.
+     */
+    protected void dispatchDeferred() {
+	while (!deferred.isEmpty() && inFlight.tryAcquire()) {
+	    DeferredRequest request = deferred.poll();
+	    if (request == null) {
+		inFlight.release();
+		return;
+	    }
+	    try {
+		executor.execute(request.getTask());
+	    } catch (RejectedExecutionException e) {
+		inFlight.release();
+		request.getFuture().completeExceptionally(new SiteWhereException("Warp 10 client is closed.", e));
+	    }
+	}
+    }
+
+    /**
+     * Stop the executor used for asynchronous requests and fail any requests
+     * still waiting for a slot. Requests already sent complete normally.
+     */
+    public void close() {
+	executor.shutdown();
+	DeferredRequest request;
+	while ((request = deferred.poll()) != null) {
+	    request.getFuture().completeExceptionally(new SiteWhereException("Warp 10 client is closed."));
+	}
+    }
+
+    /**
+     * Release request slots and start any deferred requests they allow.
+     * 
+     * @param permits
+     */
+    protected void release(int permits) {
+	inFlight.release(permits);
+	dispatchDeferred();
+    }
+
+    private <T> void send(TokenType tokenType, RequestFactory factory, ResponseParser<T> parser,
+	    CompletableFuture<T> future, boolean retryIfExpired) {
+	Warp10Token token;
+	Request request;
+	try {
+	    token = tokenManager.getToken(tokenType);
+	    request = factory.create(token);
+	} catch (SiteWhereException e) {
+	    release(1);
+	    future.completeExceptionally(e);
+	    return;
+	} catch (RuntimeException e) {
+	    release(1);
+	    future.completeExceptionally(new SiteWhereException("Unable to create Warp 10 request.", e));
+	    return;
+	}
+	try {
+	    admit(request);
+	} catch (SiteWhereException e) {
+	    release(1);
+	    future.completeExceptionally(e);
+	    return;
+	}
+	long started = System.nanoTime();
+	try {
+	    call(request, started, tokenType, token, factory, parser, future, retryIfExpired);
+	} catch (RuntimeException e) {
+	    complete(request, started, true);
+	    release(1);
+	    future.completeExceptionally(new SiteWhereException("Unable to send Warp 10 request.", e));
+	}
+    }
+
+    /**
+     * Enqueue an admitted request with a callback that completes the future and
+     * releases its slot.
+     */
+    private <T> void call(Request request, long started, TokenType tokenType, Warp10Token token,
+	    RequestFactory factory, ResponseParser<T> parser, CompletableFuture<T> future, boolean retryIfExpired) {
+	client.newCall(request).enqueue(new Callback() {
+
+	    @Override
+	    public void onFailure(Call call, IOException e) {
+		complete(request, started, true);
+		release(1);
+		future.completeExceptionally(new SiteWhereException("Error executing Warp 10 request.", e));
+	    }
+
+	    @Override
+	    public void onResponse(Call call, Response response) {
+		complete(request, started, isFailure(response));
+		T result;
+		try {
+		    if (retryIfExpired && isTokenExpired(response)) {
+			invalidate(response, tokenType, token);
+			response.close();
+			executor.execute(() -> send(tokenType, factory, parser, future, false));
+			return;
+		    }
+		    result = parser.parse(response);
+		} catch (SiteWhereException e) {
+		    release(1);
+		    future.completeExceptionally(e);
+		    return;
+		} catch (Throwable t) {
+		    release(1);
+		    future.completeExceptionally(
+			    new SiteWhereException("Unhandled exception processing Warp 10 response.", t));
+		    return;
+		} finally {
+		    response.close();
+		}
+		release(1);
+		future.complete(result);
+	    }
+	});
+    }
+
+    protected Request newUpdateRequest(Warp10Token token, RequestBody body) {
+	Request.Builder builder = newRequest(ingressEndpoints, Operation.UPDATE, "/update")
+		.header(X_WARP_10_TOKEN, token.getToken());
+	if (gzip) {
+	    builder.header("Content-Type", "application/gzip").post(new GzipRequestBody(body));
+	} else {
+	    builder.header("Content-Type", "text/plain").post(body);
+	}
+	return builder.build();
+    }
+
+    protected Request newMetaRequest(Warp10Token token, RequestBody body) {
+	return newRequest(ingressEndpoints, Operation.META, "/meta").header(X_WARP_10_TOKEN, token.getToken())
+		.post(body).build();
+    }
+
+    protected Request newFetchRequest(Warp10Token token, QueryParams queryParams) {
+	Request.Builder builder = newRequest(egressEndpoints, Operation.FETCH, "/fetch?" + queryParams.toString())
+		.header(X_WARP_10_TOKEN, token.getToken()).get();
+	if (identityResponses) {
+	    builder.header("Accept-Encoding", "identity");
+	}
+	return builder.build();
+    }
+
+    protected Request newExecRequest(String script) {
+	Request.Builder builder = newRequest(egressEndpoints, Operation.EXEC, "/exec")
+		.post(RequestBody.create(GTSInputRequestBody.TEXT_PLAIN, script));
+	if (identityResponses) {
+	    builder.header("Accept-Encoding", "identity");
+	}
+	return builder.build();
+    }
+
+    /**
+     * Start a request to a node chosen from the group. The node and operation are
+     * attached to the request so that the outcome can be recorded against them.
+     * 
+     * @param endpoints
+     * @param operation
+     * @param path
+     * @return
+     */
+    protected Request.Builder newRequest(Warp10Endpoints endpoints, Operation operation, String path) {
+	Warp10Endpoints.Endpoint endpoint = endpoints.select();
+	return new Request.Builder().url(endpoint.getUrl() + path).tag(Warp10Endpoints.Endpoint.class, endpoint)
+		.tag(Operation.class, operation);
+    }
+
+    /**
+     * Create a request to an endpoint with query parameters added and encoded by
+     * a callback.
+     * 
+     * @param endpoints
+     * @param operation
+     * @param path
+     * @param query
+     * @return
+     */
+    protected Request.Builder newRequest(Warp10Endpoints endpoints, Operation operation, String path,
+	    Consumer<HttpUrl.Builder> query) {
+	Warp10Endpoints.Endpoint endpoint = endpoints.select();
+	HttpUrl.Builder url = HttpUrl.get(endpoint.getUrl() + path).newBuilder();
+	query.accept(url);
+	return new Request.Builder().url(url.build()).tag(Warp10Endpoints.Endpoint.class, endpoint)
+		.tag(Operation.class, operation);
+    }
+
+    /**
+     * Invalidate an expired token before a request is retried.
+     * 
+     * @param response
+     * @param tokenType
+     * @param token
+     */
+    protected void invalidate(Response response, TokenType tokenType, Warp10Token token) {
+	tokenManager.invalidate(tokenType, token);
+	Operation operation = response.request().tag(Operation.class);
+	if ((metrics != null) && (operation != null)) {
+	    metrics.retried(operation);
+	}
+    }
+
+    /**
+     * Record the points stored by a successful update.
+     * 
+     * @param body
+     */
+    protected void written(RequestBody body) {
+	if ((metrics != null) && (body instanceof GTSInputRequestBody)) {
+	    metrics.pointsWritten(Operation.UPDATE, ((GTSInputRequestBody) body).getPointCount());
+	}
+    }
+
+    /**
+     * Record the points parsed from a response.
+     * 
+     * @param request
+     * @param points
+     */
+    protected void parsed(Request request, long points) {
+	Operation operation = request.tag(Operation.class);
+	if ((metrics != null) && (operation != null)) {
+	    metrics.pointsParsed(operation, points);
+	}
+    }
+
+    protected boolean isTokenExpired(Response response) throws IOException {
+	return response.code() == 500 && response.peekBody(Long.MAX_VALUE).string().contains("Token Expired");
+    }
+
+    /**
+     * Execute a request once admitted by the circuit breaker and concurrency
+     * limiter, recording its outcome with both.
+     * 
+     * @param request
+     * @return
+     * @throws IOException
+     * @throws SiteWhereException
+     */
+    protected Response execute(Request request) throws IOException, SiteWhereException {
+	admit(request);
+	long started = System.nanoTime();
+	Response response;
+	try {
+	    response = client.newCall(request).execute();
+	} catch (IOException | RuntimeException e) {
+	    complete(request, started, true);
+	    throw e;
+	}
+	complete(request, started, isFailure(response));
+	return response;
+    }
+
+    /**
+     * Wait for a slot from the concurrency limiter and check that the circuit
+     * breaker allows the request. Each successful call must be followed by a
+     * call to {@link #complete(Request, long, boolean)}.
+     * 
+     * @param request
+     * @throws SiteWhereException
+     */
+    protected void admit(Request request) throws SiteWhereException {
+	Warp10ConcurrencyLimiter concurrencyLimiter = getLimiter(request);
+	if (concurrencyLimiter != null) {
+	    boolean acquired;
+	    try {
+		acquired = concurrencyLimiter.acquire();
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		throw new SiteWhereException("Interrupted waiting to send Warp 10 request.", e);
+	    }
+	    if (!acquired) {
+		rejected(request);
+		throw new SiteWhereException(String.format("Warp 10 request rejected at concurrency limit of %d.",
+			concurrencyLimiter.getLimit()));
+	    }
+	}
+	if ((circuitBreaker != null) && !circuitBreaker.allow()) {
+	    if (concurrencyLimiter != null) {
+		concurrencyLimiter.cancel();
+	    }
+	    rejected(request);
+	    throw new SiteWhereException("Warp 10 request rejected while circuit breaker is open.");
+	}
+	Warp10Endpoints.Endpoint endpoint = request.tag(Warp10Endpoints.Endpoint.class);
+	if (endpoint != null) {
+	    endpoint.acquire();
+	}
+    }
+
+    /**
+     * Get the limiter for a request. Writes and reads are limited separately so
+     * that slow reads do not throttle ingest.
+     * 
+     * @param request
+     * @return
+     */
+    protected Warp10ConcurrencyLimiter getLimiter(Request request) {
+	Operation operation = request.tag(Operation.class);
+	if (operation == null) {
+	    return null;
+	}
+	switch (operation) {
+	case UPDATE:
+	case META:
+	    return ingressLimiter;
+	case FETCH:
+	case FIND:
+	case EXEC:
+	case DELETE:
+	    return egressLimiter;
+	default:
+	    return null;
+	}
+    }
+
+    /**
+     * Indicates whether the latency of a request reflects backend load. Scripts
+     * and deletes may legitimately take much longer than the latency threshold,
+     * so they only adjust the limit when they fail.
+     * 
+     * @param request
+     * @return
+     */
+    protected boolean isMeasured(Request request) {
+	Operation operation = request.tag(Operation.class);
+	return (operation != Operation.EXEC) && (operation != Operation.DELETE);
+    }
+
+    /**
+     * Record a request that was not admitted.
+     * 
+     * @param request
+     */
+    protected void rejected(Request request) {
+	Operation operation = request.tag(Operation.class);
+	if ((metrics != null) && (operation != null)) {
+	    metrics.rejected(operation);
+	}
+    }
+
+    /**
+     * Record the outcome of an admitted request.
+     * 
+     * @param request
+     * @param started
+     * @param failed
+     */
+    protected void complete(Request request, long started, boolean failed) {
+	Warp10Endpoints.Endpoint endpoint = request.tag(Warp10Endpoints.Endpoint.class);
+	if (endpoint != null) {
+	    endpoint.release(failed);
+	}
+	Warp10ConcurrencyLimiter concurrencyLimiter = getLimiter(request);
+	if ((concurrencyLimiter != null) && isMeasured(request)) {
+	    concurrencyLimiter.release(System.nanoTime() - started, failed);
+	} else if (concurrencyLimiter != null) {
+	    concurrencyLimiter.releaseUnmeasured(failed);
+	}
+	if (circuitBreaker != null) {
+	    if (failed) {
+		circuitBreaker.onFailure();
+	    } else {
+		circuitBreaker.onSuccess();
+	    }
+	}
+    }
+
+    /**
+     * Indicates whether a response shows that the backend is failing or
+     * overloaded. Expired tokens are not counted as failures.
+     * 
+     * @param response
+     * @return
+     */
+    protected boolean isFailure(Response response) {
+	if (response.code() == 429) {
+	    return true;
+	}
+	if (response.code() < 500) {
+	    return false;
+	}
+	try {
+	    return !isTokenExpired(response);
+	} catch (IOException e) {
+	    return true;
+	}
+    }
+
+    /**
+     * Request a new token from the server. Tokens are normally obtained through
+     * the {@link Warp10TokenManager} which caches and renews them.
+     * 
+     * @param tokenType
+     * @return
+     * @throws SiteWhereException
+     */
+    protected Warp10Token getToken(TokenType tokenType) throws SiteWhereException {
 	String responseContent = null;
 	try {
 	    TokenRequest tokenRequest = createTokenRequest(tokenType);
 	    MediaType textPlainMT = MediaType.parse("application/octet-stream");
-	    Request request = new Request.Builder().url(url + "/exec").header("Content-Type", "text/plain")
-		    .post(RequestBody.create(textPlainMT, tokenRequest.toString())).build();
-
-	    Response response = client.newCall(request).execute();
-	    Gson gson = new Gson();
-	    responseContent = response.peekBody(Long.MAX_VALUE).string();
-	    Warp10Token[] warp10Tokens = gson.fromJson(responseContent, Warp10Token[].class);
-	    return warp10Tokens[0];
+	    Request request = new Request.Builder().url(egressEndpoints.select().getUrl() + "/exec")
+		    .header("Content-Type", "text/plain")
+		    .post(RequestBody.create(textPlainMT, tokenRequest.toString()))
+		    .tag(Operation.class, Operation.TOKEN).build();
+
+	    try (Response response = client.newCall(request).execute()) {
+		Gson gson = new Gson();
+		responseContent = response.peekBody(Long.MAX_VALUE).string();
+		Warp10Token[] warp10Tokens = gson.fromJson(responseContent, Warp10Token[].class);
+		return warp10Tokens[0];
+	    }
 	} catch (JsonSyntaxException e) {
 	    throw new SiteWhereException(String.format("Invalid Warp 10 token respnse. %s", responseContent), e);
 	} catch (IOException e) {
@@ -200,16 +1207,120 @@ public class Warp10RestClient {
 	return tokenRequest;
     }
 
+    public int getMaxInFlight() {
+	return maxInFlight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+	this.maxInFlight = maxInFlight;
+	this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    public int getAvailableInFlight() {
+	return inFlight.availablePermits();
+    }
+
+    public Warp10ConcurrencyLimiter getIngressLimiter() {
+	return ingressLimiter;
+    }
+
+    public void setIngressLimiter(Warp10ConcurrencyLimiter ingressLimiter) {
+	this.ingressLimiter = ingressLimiter;
+    }
+
+    public Warp10ConcurrencyLimiter getEgressLimiter() {
+	return egressLimiter;
+    }
+
+    public void setEgressLimiter(Warp10ConcurrencyLimiter egressLimiter) {
+	this.egressLimiter = egressLimiter;
+    }
+
+    public Warp10CircuitBreaker getCircuitBreaker() {
+	return circuitBreaker;
+    }
+
+    public void setCircuitBreaker(Warp10CircuitBreaker circuitBreaker) {
+	this.circuitBreaker = circuitBreaker;
+    }
+
+    public Warp10Metrics getMetrics() {
+	return metrics;
+    }
+
+    public void setMetrics(Warp10Metrics metrics) {
+	this.metrics = metrics;
+    }
+
+    public OkHttpClient getHttpClient() {
+	return client;
+    }
+
+    public void setHttpClient(OkHttpClient client) {
+	this.client = client;
+    }
+
+    public boolean isGzip() {
+	return gzip;
+    }
+
+    public void setGzip(boolean gzip) {
+	this.gzip = gzip;
+    }
+
+    public boolean isIdentityResponses() {
+	return identityResponses;
+    }
+
+    public void setIdentityResponses(boolean identityResponses) {
+	this.identityResponses = identityResponses;
+    }
+
+    public GTSInputWriter getWriter() {
+	return writer;
+    }
+
+    public void setWriter(GTSInputWriter writer) {
+	this.writer = writer;
+    }
+
+    /**
+     * Send all requests to a single node.
+     * 
+     * @param url
+     */
     public void setUrl(String url) {
-	this.url = url;
+	Warp10Endpoints endpoints = Warp10Endpoints.single(url);
+	this.ingressEndpoints = endpoints;
+	this.egressEndpoints = endpoints;
+    }
+
+    public Warp10Endpoints getIngressEndpoints() {
+	return ingressEndpoints;
+    }
+
+    public void setIngressEndpoints(Warp10Endpoints ingressEndpoints) {
+	this.ingressEndpoints = ingressEndpoints;
+    }
+
+    public Warp10Endpoints getEgressEndpoints() {
+	return egressEndpoints;
+    }
+
+    public void setEgressEndpoints(Warp10Endpoints egressEndpoints) {
+	this.egressEndpoints = egressEndpoints;
     }
 
     public void setReadToken(Warp10Token readToken) {
-	this.readToken = readToken;
+	tokenManager.setToken(TokenType.READ, readToken);
     }
 
     public void setWriteToken(Warp10Token writeToken) {
-	this.writeToken = writeToken;
+	tokenManager.setToken(TokenType.WRITE, writeToken);
+    }
+
+    public Warp10TokenManager getTokenManager() {
+	return tokenManager;
     }
 
     public void setTokenSecret(String tokenSecret) {
@@ -223,4 +1334,46 @@ public class Warp10RestClient {
     public void setApplication(String application) {
 	this.application = application;
     }
+
+    /**
+     * Request waiting for a slot along with the future to fail if it cannot be
+     * sent.
+     */
+    private static class DeferredRequest {
+
+	private Runnable task;
+
+	private CompletableFuture<?> future;
+
+	public DeferredRequest(Runnable task, CompletableFuture<?> future) {
+	    this.task = task;
+	    this.future = future;
+	}
+
+	public Runnable getTask() {
+	    return task;
+	}
+
+	public CompletableFuture<?> getFuture() {
+	    return future;
+	}
+    }
+
+    /**
+     * Creates a request using the current token.
+     */
+    @FunctionalInterface
+    protected interface RequestFactory {
+
+	public Request create(Warp10Token token);
+    }
+
+    /**
+     * Converts a response into a result.
+     */
+    @FunctionalInterface
+    protected interface ResponseParser<T> {
+
+	public T parse(Response response) throws IOException, SiteWhereException;
+    }
 }
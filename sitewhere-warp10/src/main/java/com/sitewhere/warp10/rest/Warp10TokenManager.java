@@ -0,0 +1,223 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.rest;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+
+import com.sitewhere.spi.SiteWhereException;
+
+/**
+ * Caches read and write tokens along with their expiry and renews them in the
+ * background before they expire. Request threads only wait on a token request
+ * when no valid token is cached, and concurrent callers share a single renewal
+ * per token type.
+ */
+public class Warp10TokenManager {
+
+    /** Lifetime of generated tokens (matches the expiry in the token request) */
+    public static final long TOKEN_LIFETIME_MS = TimeUnit.DAYS.toMillis(30);
+
+    /** Default time before expiry at which a token is renewed */
+    public static final long DEFAULT_REFRESH_MARGIN_MS = TimeUnit.DAYS.toMillis(1);
+
+    /** Interval between checks for tokens close to expiry */
+    private static final long CHECK_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    /** Issues new tokens */
+    private TokenIssuer issuer;
+
+    /** Time before expiry at which a token is renewed */
+    private long refreshMarginMs;
+
+    /** Current token for each type */
+    private Map<TokenType, AtomicReference<CachedToken>> tokens = new EnumMap<>(TokenType.class);
+
+    /** Runs background renewal */
+    private ScheduledExecutorService scheduler;
+
+    /** Logger of the owning component */
+    private Logger logger;
+
+    public Warp10TokenManager(TokenIssuer issuer) {
+	this(issuer, DEFAULT_REFRESH_MARGIN_MS);
+    }
+
+    public Warp10TokenManager(TokenIssuer issuer, long refreshMarginMs) {
+	this.issuer = issuer;
+	this.refreshMarginMs = refreshMarginMs;
+	for (TokenType type : TokenType.values()) {
+	    tokens.put(type, new AtomicReference<>());
+	}
+    }
+
+    /**
+     * Start renewing tokens in the background. Tokens are requested right away so
+     * that the first request does not wait on token generation.
+     *
+     * @param logger
+     *            logger used to report failed renewals
+     */
+    public synchronized void start(Logger logger) {
+	if (scheduler != null) {
+	    return;
+	}
+	this.logger = logger;
+	scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+	    Thread thread = new Thread(runnable, "warp10-token-refresh");
+	    thread.setDaemon(true);
+	    return thread;
+	});
+	scheduler.scheduleWithFixedDelay(this::refreshExpiring, 0, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop background renewal.
+     */
+    public synchronized void stop() {
+	if (scheduler != null) {
+	    scheduler.shutdownNow();
+	    scheduler = null;
+	}
+    }
+
+    /**
+     * Get a valid token of the given type, requesting one only if none is cached
+     * or the cached token has expired.
+     *
+     * @param type
+     * @return
+     * @throws SiteWhereException
+     */
+    public Warp10Token getToken(TokenType type) throws SiteWhereException {
+	CachedToken cached = tokens.get(type).get();
+	if (cached != null && !cached.isExpired(System.currentTimeMillis())) {
+	    return cached.getToken();
+	}
+	return renew(type, cached);
+    }
+
+    /**
+     * Discard a token that the server has reported as expired. Has no effect if
+     * the token has already been replaced by another thread.
+     *
+     * @param type
+     * @param token
+     */
+    public void invalidate(TokenType type, Warp10Token token) {
+	AtomicReference<CachedToken> current = tokens.get(type);
+	CachedToken cached = current.get();
+	if (cached != null && cached.getToken() == token) {
+	    current.compareAndSet(cached, null);
+	}
+    }
+
+    /**
+     * Replace the token of the given type.
+     *
+     * @param type
+     * @param token
+     */
+    public void setToken(TokenType type, Warp10Token token) {
+	tokens.get(type).set(new CachedToken(token, System.currentTimeMillis() + TOKEN_LIFETIME_MS));
+    }
+
+    /**
+     * Request a new token unless another thread already replaced the stale one
+     * while this thread was waiting.
+     *
+     * @param type
+     * @param stale
+     * @return
+     * @throws SiteWhereException
+     */
+    protected Warp10Token renew(TokenType type, CachedToken stale) throws SiteWhereException {
+	AtomicReference<CachedToken> current = tokens.get(type);
+	synchronized (current) {
+	    CachedToken cached = current.get();
+	    if (cached != null && cached != stale && !cached.isExpired(System.currentTimeMillis())) {
+		return cached.getToken();
+	    }
+	    long issuedAt = System.currentTimeMillis();
+	    Warp10Token token = issuer.issue(type);
+	    current.set(new CachedToken(token, issuedAt + TOKEN_LIFETIME_MS));
+	    return token;
+	}
+    }
+
+    /**
+     * Renew tokens that are missing or within the refresh margin of expiring.
+     */
+    protected void refreshExpiring() {
+	long refreshAt = System.currentTimeMillis() + refreshMarginMs;
+	for (TokenType type : TokenType.values()) {
+	    CachedToken cached = tokens.get(type).get();
+	    if (cached == null || cached.isExpired(refreshAt)) {
+		try {
+		    renew(type, cached);
+		} catch (SiteWhereException e) {
+		    logger.warn(String.format("Unable to renew Warp 10 %s token.", type.name()), e);
+		}
+	    }
+	}
+    }
+
+    public long getRefreshMarginMs() {
+	return refreshMarginMs;
+    }
+
+    /**
+     * Requests a new token from the server.
+     */
+    @FunctionalInterface
+    public interface TokenIssuer {
+
+	public Warp10Token issue(TokenType type) throws SiteWhereException;
+    }
+
+    /**
+     * Token along with the time at which it expires.
+     */
+    protected static class CachedToken {
+
+	private Warp10Token token;
+
+	private long expiresAt;
+
+	public CachedToken(Warp10Token token, long expiresAt) {
+	    this.token = token;
+	    this.expiresAt = expiresAt;
+	}
+
+	public boolean isExpired(long now) {
+	    return now >= expiresAt;
+	}
+
+	public Warp10Token getToken() {
+	    return token;
+	}
+
+	public long getExpiresAt() {
+	    return expiresAt;
+	}
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.rest;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Helpers for building WarpScript that is executed through the
+ * <code>/exec</code> endpoint.
+ */
+public class WarpScript {
+
+    /** Start of range used when only an end date is given (2000-01-01) */
+    private static final long INITIAL_TIMESTAMP = TimeUnit.MILLISECONDS.toMicros(946684800000L);
+
+    /** Number of points fetched when no date range is given */
+    private static final int DEFAULT_COUNT = 10;
+
+    /** Script being built */
+    private StringBuilder script = new StringBuilder();
+
+    public static WarpScript builder() {
+	return new WarpScript();
+    }
+
+    /**
+     * Append raw WarpScript followed by a space.
+     *
+     * @param code
+     * @return
+     */
+    public WarpScript append(String code) {
+	script.append(code).append(' ');
+	return this;
+    }
+
+    /**
+     * Append a string constant.
+     *
+     * @param value
+     * @return
+     */
+    public WarpScript string(String value) {
+	return append(quote(value));
+    }
+
+    /**
+     * Append a long constant.
+     *
+     * @param value
+     * @return
+     */
+    public WarpScript number(long value) {
+	return append(Long.toString(value));
+    }
+
+    /**
+     * Append a double constant.
+     *
+     * @param value
+     * @return
+     */
+    public WarpScript decimal(double value) {
+	return append(Double.toString(value));
+    }
+
+    /**
+     * Append a list of string constants.
+     *
+     * @param values
+     * @return
+     */
+    public WarpScript strings(Collection<String> values) {
+	script.append("[ ");
+	for (String value : values) {
+	    string(value);
+	}
+	return append("]");
+    }
+
+    /**
+     * Append a FETCH of the series matching the query, leaving the list of series
+     * on the stack. An explicit range takes precedence over dates.
+     *
+     * @param token
+     * @param queryParams
+     * @return
+     */
+    public WarpScript fetch(String token, QueryParams queryParams) {
+	selection(token, queryParams);
+	Date start = queryParams.getStartDate();
+	Date end = queryParams.getEndDate();
+	if (queryParams.getEndTimestamp() != null && queryParams.getTimespan() != null) {
+	    string("end").number(queryParams.getEndTimestamp());
+	    string("timespan").number(queryParams.getTimespan());
+	} else if (start == null && end == null) {
+	    string("end").append("NOW");
+	    string("timespan").number(-DEFAULT_COUNT);
+	} else {
+	    string("start").number(start != null ? toMicros(start) : INITIAL_TIMESTAMP);
+	    if (end != null) {
+		string("end").number(toMicros(end));
+	    } else {
+		string("end").append("NOW");
+	    }
+	}
+	return append("} FETCH");
+    }
+
+    /**
+     * Append a FETCH of the latest point of each series matching the query,
+     * ignoring its date range.
+     *
+     * @param token
+     * @param queryParams
+     * @return
+     */
+    public WarpScript latest(String token, QueryParams queryParams) {
+	selection(token, queryParams);
+	string("end").append("NOW");
+	string("timespan").number(-1);
+	return append("} FETCH");
+    }
+
+    /**
+     * Open the parameter map of a FETCH with the token and series selector.
+     *
+     * @param token
+     * @param queryParams
+     * @return
+     */
+    protected WarpScript selection(String token, QueryParams queryParams) {
+	script.append("{ ");
+	string("token").string(token);
+	string("class").string(queryParams.getClassName());
+	return string("labels").labelSelectors(queryParams.getParameters(), queryParams.getExactParameters());
+    }
+
+    /**
+     * Append a map of label selectors.
+     *
+     * @param regex
+     *            labels matched as regular expressions
+     * @param exact
+     *            labels matched exactly
+     * @return
+     */
+    protected WarpScript labelSelectors(Map<String, String> regex, Map<String, String> exact) {
+	script.append("{ ");
+	for (Map.Entry<String, String> label : regex.entrySet()) {
+	    string(label.getKey()).string("~" + label.getValue());
+	}
+	for (Map.Entry<String, String> label : exact.entrySet()) {
+	    string(label.getKey()).string("=" + label.getValue());
+	}
+	return append("}");
+    }
+
+    /**
+     * Quote a string constant. Characters that could end the constant are percent
+     * encoded since WarpScript decodes string constants.
+     *
+     * @param value
+     * @return
+     */
+    public static String quote(String value) {
+	StringBuilder quoted = new StringBuilder(value.length() + 2);
+	quoted.append('\'');
+	for (int i = 0; i < value.length(); i++) {
+	    char c = value.charAt(i);
+	    switch (c) {
+	    case '\'':
+		quoted.append("%27");
+		break;
+	    case '%':
+		quoted.append("%25");
+		break;
+	    case '\n':
+		quoted.append("%0A");
+		break;
+	    case '\r':
+		quoted.append("%0D");
+		break;
+	    default:
+		quoted.append(c);
+	    }
+	}
+	return quoted.append('\'').toString();
+    }
+
+    /**
+     * Convert a date to Warp 10 time units (microseconds).
+     *
+     * @param date
+     * @return
+     */
+    public static long toMicros(Date date) {
+	return TimeUnit.MILLISECONDS.toMicros(date.getTime());
+    }
+
+    @Override
+    public String toString() {
+	return script.toString().trim();
+    }
+}
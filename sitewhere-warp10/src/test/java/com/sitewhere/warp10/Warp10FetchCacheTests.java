@@ -0,0 +1,173 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sitewhere.spi.SiteWhereException;
+import com.sitewhere.warp10.rest.GTSOutput;
+import com.sitewhere.warp10.rest.QueryParams;
+
+public class Warp10FetchCacheTests {
+
+    /** Stored points by timestamp in microseconds */
+    private TreeMap<Long, Long> points = new TreeMap<>();
+
+    /** Queries sent to the backend */
+    private List<QueryParams> requests = new ArrayList<>();
+
+    @Before
+    public void setup() {
+	for (long second = 1; second <= 10; second++) {
+	    points.put(TimeUnit.SECONDS.toMicros(second), second);
+	}
+    }
+
+    @Test
+    public void testFetchesOnlyTail() throws Exception {
+	Warp10FetchCache cache = new Warp10FetchCache(1024 * 1024, 0, null);
+	assertTimestamps(cache.find(query(1, 5), this::fetch), 5, 4, 3, 2, 1);
+	assertEquals(1, cache.getMisses());
+
+	List<GTSOutput> refreshed = cache.find(query(2, 8), this::fetch);
+	assertEquals(1, cache.getTailRefreshes());
+	assertEquals(2, requests.size());
+	QueryParams tail = requests.get(1);
+	assertEquals(Long.valueOf(TimeUnit.SECONDS.toMicros(8)), tail.getEndTimestamp());
+	assertEquals(Long.valueOf(TimeUnit.SECONDS.toMicros(3)), tail.getTimespan());
+	assertTimestamps(refreshed, 8, 7, 6, 5, 4, 3, 2);
+    }
+
+    @Test
+    public void testSelectsCachedRange() throws Exception {
+	Warp10FetchCache cache = new Warp10FetchCache(1024 * 1024, 0, null);
+	cache.find(query(1, 8), this::fetch);
+
+	List<GTSOutput> selected = cache.find(query(3, 6), this::fetch);
+	assertEquals(1, cache.getHits());
+	assertEquals(1, requests.size());
+	assertTimestamps(selected, 6, 5, 4, 3);
+
+	selected.get(0).getLabels().put("site", "changed");
+	assertEquals("a", cache.find(query(3, 6), this::fetch).get(0).getLabels().get("site"));
+    }
+
+    @Test
+    public void testFetchesEarlierStartInFull() throws Exception {
+	Warp10FetchCache cache = new Warp10FetchCache(1024 * 1024, 0, null);
+	cache.find(query(4, 8), this::fetch);
+	assertTimestamps(cache.find(query(2, 8), this::fetch), 8, 7, 6, 5, 4, 3, 2);
+	assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testFetchesExpiredEntryInFull() throws Exception {
+	Warp10FetchCache cache = new Warp10FetchCache(1024 * 1024, 1, null);
+	cache.find(query(1, 5), this::fetch);
+	Thread.sleep(10);
+	cache.find(query(1, 5), this::fetch);
+	assertEquals(2, cache.getMisses());
+	assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testBypassesPagedQueries() throws Exception {
+	Warp10FetchCache cache = new Warp10FetchCache(1024 * 1024, 0, null);
+	QueryParams paged = query(1, 5);
+	paged.setCount(2);
+	assertFalse(cache.isCacheable(paged));
+	cache.find(paged, this::fetch);
+	cache.find(paged, this::fetch);
+	assertEquals(2, requests.size());
+	assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEvictsWhenFull() throws Exception {
+	Warp10FetchCache cache = new Warp10FetchCache(1024 * 1024, 0, null);
+	cache.find(query(1, 10), this::fetch);
+	long bytes = cache.getBytesHeld();
+	assertTrue(bytes > 0);
+
+	Warp10FetchCache small = new Warp10FetchCache(bytes, 0, null);
+	small.find(query(1, 10), this::fetch);
+	small.find(query(1, 10, "b"), this::fetch);
+	assertEquals(1, small.size());
+	assertEquals(1, small.getEvictions());
+	assertTrue(small.getBytesHeld() <= bytes);
+    }
+
+    protected QueryParams query(int startSecond, int endSecond) {
+	return query(startSecond, endSecond, "a");
+    }
+
+    protected QueryParams query(int startSecond, int endSecond, String site) {
+	QueryParams query = QueryParams.builder();
+	query.setClassName("temp");
+	query.addExactParameter("site", site);
+	query.setStartDate(new Date(TimeUnit.SECONDS.toMillis(startSecond)));
+	query.setEndDate(new Date(TimeUnit.SECONDS.toMillis(endSecond)));
+	return query;
+    }
+
+    /**
+     * Return stored points in a range, newest first like Warp 10.
+     *
+     * @param query
+     * @return
+     * @throws SiteWhereException
+     */
+    protected List<GTSOutput> fetch(QueryParams query) throws SiteWhereException {
+	requests.add(query);
+	long from;
+	long to;
+	if (query.getEndTimestamp() != null) {
+	    to = query.getEndTimestamp();
+	    from = to - query.getTimespan() + 1;
+	} else {
+	    from = TimeUnit.MILLISECONDS.toMicros(query.getStartDate().getTime());
+	    to = TimeUnit.MILLISECONDS.toMicros(query.getEndDate().getTime());
+	}
+	StringBuilder values = new StringBuilder();
+	for (Long timestamp : points.subMap(from, true, to, true).descendingKeySet()) {
+	    values.append((values.length() > 0) ? "," : "").append("[").append(timestamp).append(",")
+		    .append(points.get(timestamp)).append("]");
+	}
+	String site = query.getExactParameters().get("site");
+	return GTSOutput.fromOutputFormat(
+		"[{\"c\":\"temp\",\"l\":{\"site\":\"" + site + "\"},\"a\":{},\"v\":[" + values + "]}]");
+    }
+
+    protected void assertTimestamps(List<GTSOutput> series, long... seconds) {
+	assertEquals(1, series.size());
+	GTSOutput gts = series.get(0);
+	assertEquals(seconds.length, gts.size());
+	for (int i = 0; i < seconds.length; i++) {
+	    assertEquals(TimeUnit.SECONDS.toMicros(seconds[i]), gts.getTimestamp(i));
+	}
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import com.sitewhere.spi.SiteWhereException;
+import com.sitewhere.warp10.rest.GTSOutput;
+import com.sitewhere.warp10.rest.QueryParams;
+
+public class Warp10ShardedFetchTests {
+
+    /** Number of stored points, with timestamps from 1 */
+    private static final int POINTS = 100;
+
+    @Test
+    public void testSplitsFullPages() {
+	FakeBackend backend = new FakeBackend();
+	Warp10ShardedFetch fetch = new Warp10ShardedFetch(backend, query(), 25, TimeUnit.MICROSECONDS, 2, 10);
+	List<GTSOutput> merged = GTSOutput.merge(fetch);
+
+	assertEquals(1, merged.size());
+	GTSOutput series = merged.get(0);
+	assertEquals(POINTS, series.size());
+	for (int i = 0; i < POINTS; i++) {
+	    assertEquals(i + 1, series.getTimestamp(i));
+	}
+	assertTrue(backend.requests.size() > 4);
+	assertTrue(backend.maxOutstanding <= 2);
+    }
+
+    @Test
+    public void testReturnsFragmentsInTimeOrder() {
+	FakeBackend backend = new FakeBackend();
+	Warp10ShardedFetch fetch = new Warp10ShardedFetch(backend, query(), 10, TimeUnit.MICROSECONDS, 3, 0);
+	long previous = 0;
+	int fragments = 0;
+	while (fetch.hasNext()) {
+	    GTSOutput fragment = fetch.next();
+	    for (int i = 0; i < fragment.size(); i++) {
+		assertTrue(fragment.getTimestamp(i) > previous);
+		previous = fragment.getTimestamp(i);
+	    }
+	    fragments++;
+	}
+	assertEquals(POINTS, previous);
+	assertEquals(10, fragments);
+	assertTrue(backend.maxOutstanding <= 3);
+	for (QueryParams request : backend.requests) {
+	    assertNull(request.getCount());
+	}
+    }
+
+    @Test
+    public void testLimitsInitialRequests() {
+	FakeBackend backend = new FakeBackend();
+	new Warp10ShardedFetch(backend, query(), 10, TimeUnit.MICROSECONDS, 4, 10);
+	assertEquals(4, backend.requests.size());
+	assertEquals(Long.valueOf(10), backend.requests.get(0).getEndTimestamp());
+	assertEquals(Long.valueOf(10), backend.requests.get(0).getTimespan());
+	assertEquals(Integer.valueOf(10), backend.requests.get(0).getCount());
+    }
+
+    @Test
+    public void testUnshardedQuery() {
+	FakeBackend backend = new FakeBackend();
+	QueryParams query = QueryParams.builder();
+	query.setClassName("temp");
+	Warp10ShardedFetch fetch = new Warp10ShardedFetch(backend, query, 10, TimeUnit.MICROSECONDS, 4, 10);
+	List<GTSOutput> merged = GTSOutput.merge(fetch);
+	assertEquals(1, backend.requests.size());
+	assertNull(backend.requests.get(0).getEndTimestamp());
+	assertEquals(POINTS, merged.get(0).size());
+    }
+
+    @Test
+    public void testReportsErrors() {
+	FakeBackend backend = new FakeBackend();
+	backend.failAfter = 2;
+	Warp10ShardedFetch fetch = new Warp10ShardedFetch(backend, query(), 10, TimeUnit.MICROSECONDS, 2, 0);
+	try {
+	    while (fetch.hasNext()) {
+		fetch.next();
+	    }
+	    fail("Failed request was not reported.");
+	} catch (CompletionException e) {
+	    assertTrue(e.getCause() instanceof SiteWhereException);
+	}
+    }
+
+    protected QueryParams query() {
+	QueryParams query = QueryParams.builder();
+	query.setClassName("temp");
+	query.addExactParameter("site", "a");
+	query.setRange(POINTS, POINTS);
+	return query;
+    }
+
+    /**
+     * Serves a single series with one point per microsecond, newest first and
+     * limited to the requested count like Warp 10. Tracks how many requests have
+     * been sent but not yet consumed.
+     */
+    private static class FakeBackend implements Function<QueryParams, CompletableFuture<List<GTSOutput>>> {
+
+	/** Requests in order */
+	private List<QueryParams> requests = new ArrayList<>();
+
+	/** Number of results consumed */
+	private int consumed;
+
+	/** Max requests sent but not consumed */
+	private int maxOutstanding;
+
+	/** Number of requests that succeed before all others fail (-1 for none) */
+	private int failAfter = -1;
+
+	@Override
+	public CompletableFuture<List<GTSOutput>> apply(QueryParams query) {
+	    requests.add(query);
+	    maxOutstanding = Math.max(maxOutstanding, requests.size() - consumed);
+	    CompletableFuture<List<GTSOutput>> result = new CompletableFuture<List<GTSOutput>>() {
+
+		@Override
+		public List<GTSOutput> join() {
+		    consumed++;
+		    return super.join();
+		}
+	    };
+	    if ((failAfter >= 0) && (requests.size() > failAfter)) {
+		result.completeExceptionally(new SiteWhereException("Fetch failed."));
+		return result;
+	    }
+	    long end = (query.getEndTimestamp() != null) ? query.getEndTimestamp() : POINTS;
+	    long start = (query.getTimespan() != null) ? end - query.getTimespan() : 0;
+	    int limit = (query.getCount() != null) ? query.getCount() : Integer.MAX_VALUE;
+	    StringBuilder values = new StringBuilder();
+	    int count = 0;
+	    for (long ts = Math.min(end, POINTS); (ts > start) && (ts > 0) && (count < limit); ts--, count++) {
+		values.append((count > 0) ? "," : "").append("[").append(ts).append(",").append(ts * 10).append("]");
+	    }
+	    try {
+		result.complete((count == 0) ? new ArrayList<>()
+			: GTSOutput.fromOutputFormat(
+				"[{\"c\":\"temp\",\"l\":{\"site\":\"a\"},\"a\":{},\"v\":[" + values + "]}]"));
+	    } catch (SiteWhereException e) {
+		result.completeExceptionally(e);
+	    }
+	    return result;
+	}
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import okio.Buffer;
+
+public class Warp10SpoolTests {
+
+    /** Size of each segment */
+    private static final int SEGMENT_BYTES = 4096;
+
+    /** Size of segment header */
+    private static final int HEADER_BYTES = 8;
+
+    /** Size of record length */
+    private static final int LENGTH_BYTES = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Client providing spool configuration */
+    private Warp10Client client;
+
+    /** Spool directory */
+    private Path directory;
+
+    /** Spool under test */
+    private Warp10Spool spool;
+
+    @Before
+    public void setup() throws Exception {
+	Warp10Configuration configuration = new Warp10Configuration(null);
+	configuration.setSpoolMaxBytes(1024 * 1024);
+	configuration.setSpoolSegmentBytes(SEGMENT_BYTES);
+	configuration.setSpoolReplayBatchBytes(1);
+	client = new Warp10Client(configuration);
+	directory = folder.getRoot().toPath().resolve("spool");
+	spool = open();
+    }
+
+    @After
+    public void teardown() {
+	spool.stop();
+    }
+
+    @Test
+    public void testReplaysInOrderAfterRestart() throws Exception {
+	append("a 1\n");
+	append("b 2\n");
+	append("c 3\n");
+	commit(readNext(), "a 1\n");
+
+	spool.stop();
+	spool = open();
+	assertFalse(spool.isAvailable());
+	commit(readNext(), "b 2\n");
+	commit(readNext(), "c 3\n");
+	assertNull(spool.readOrMarkAvailable());
+	assertTrue(spool.isAvailable());
+    }
+
+    @Test
+    public void testIgnoresTornRecord() throws Exception {
+	append("a 1\n");
+	append("b 2\n");
+	int end = HEADER_BYTES + 2 * (LENGTH_BYTES + 4);
+	spool.stop();
+
+	try (RandomAccessFile file = new RandomAccessFile(segmentFile(), "rw")) {
+	    // Lines of a record whose length was never written.
+	    file.seek(end + LENGTH_BYTES);
+	    file.write("c 3\n".getBytes("UTF-8"));
+	}
+	spool = open();
+	assertEquals(end - HEADER_BYTES, spool.getPendingBytes());
+	spool.stop();
+
+	try (RandomAccessFile file = new RandomAccessFile(segmentFile(), "rw")) {
+	    // Length running past the end of the segment.
+	    file.seek(end);
+	    file.writeInt(SEGMENT_BYTES);
+	}
+	spool = open();
+	assertEquals(end - HEADER_BYTES, spool.getPendingBytes());
+
+	append("d 4\n");
+	commit(readNext(), "a 1\n");
+	commit(readNext(), "b 2\n");
+	commit(readNext(), "d 4\n");
+	assertNull(spool.readOrMarkAvailable());
+    }
+
+    @Test
+    public void testRecoversTruncatedSegment() throws Exception {
+	append("a 1\n");
+	append("b 2 with a longer value\n");
+	spool.stop();
+
+	try (RandomAccessFile file = new RandomAccessFile(segmentFile(), "rw")) {
+	    file.setLength(HEADER_BYTES + LENGTH_BYTES + 4 + LENGTH_BYTES + 10);
+	}
+	spool = open();
+	assertEquals(LENGTH_BYTES + 4, spool.getPendingBytes());
+	commit(readNext(), "a 1\n");
+	assertNull(spool.readOrMarkAvailable());
+
+	append("c 3\n");
+	commit(readNext(), "c 3\n");
+    }
+
+    @Test
+    public void testResetsInvalidReplayOffset() throws Exception {
+	append("a 1\n");
+	spool.stop();
+
+	try (RandomAccessFile file = new RandomAccessFile(segmentFile(), "rw")) {
+	    file.writeLong(SEGMENT_BYTES * 2);
+	}
+	spool = open();
+	commit(readNext(), "a 1\n");
+    }
+
+    @Test
+    public void testAppendKeepsBatchesBehindSpool() throws Exception {
+	assertTrue(spool.isAvailable());
+	append("a 1\n");
+	assertFalse(spool.isAvailable());
+
+	Warp10Spool.Replay replay = spool.readOrMarkAvailable();
+	assertFalse(spool.isAvailable());
+	spool.commit(replay);
+	assertNull(spool.readOrMarkAvailable());
+	assertTrue(spool.isAvailable());
+    }
+
+    @Test
+    public void testDropsBatchesWhenFull() throws Exception {
+	spool.stop();
+	client.getConfiguration().setSpoolMaxBytes(SEGMENT_BYTES);
+	spool = open();
+	Buffer large = new Buffer().write(new byte[SEGMENT_BYTES]);
+	assertFalse(spool.append(large));
+	assertEquals(1, spool.getDroppedBatches());
+	assertTrue(spool.append(new Buffer().writeUtf8("a 1\n")));
+    }
+
+    protected Warp10Spool open() throws Exception {
+	Warp10Spool opened = new Warp10Spool(client, null, directory);
+	opened.open();
+	return opened;
+    }
+
+    protected void append(String lines) {
+	assertTrue(spool.append(new Buffer().writeUtf8(lines)));
+    }
+
+    protected Warp10Spool.Replay readNext() {
+	Warp10Spool.Replay replay = spool.readOrMarkAvailable();
+	assertNotNull(replay);
+	return replay;
+    }
+
+    protected void commit(Warp10Spool.Replay replay, String expected) {
+	assertEquals(expected, replay.getLines().readUtf8());
+	spool.commit(replay);
+    }
+
+    protected File segmentFile() {
+	return directory.resolve(String.format("%020d.spool", 0)).toFile();
+    }
+}
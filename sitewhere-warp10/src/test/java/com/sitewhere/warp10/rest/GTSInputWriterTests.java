@@ -0,0 +1,137 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import okio.Buffer;
+import okio.ByteString;
+
+public class GTSInputWriterTests {
+
+    /** Writer under test */
+    private GTSInputWriter writer;
+
+    @Before
+    public void setup() {
+	writer = new GTSInputWriter(new SeriesKeyCache(16));
+    }
+
+    @Test
+    public void testDoubleRoundTrip() throws Exception {
+	double[] values = { 0.0, -0.0, 0.1, -0.1, 0.001, 0.000999, 1.5, 100.0, 21.123456789, 9999999.999999999,
+		1e7, 1e-7, 123456789.123, Double.MIN_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, Math.PI,
+		Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+	for (double value : values) {
+	    assertRoundTrip(value);
+	}
+	Random random = new Random(42);
+	for (int i = 0; i < 100000; i++) {
+	    assertRoundTrip((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(20) - 8));
+	    assertRoundTrip(Double.longBitsToDouble(random.nextLong()));
+	    assertRoundTrip(Math.round(random.nextDouble() * 1e6) / 1e4);
+	}
+    }
+
+    @Test
+    public void testPlainDoubles() throws Exception {
+	assertEquals("0.001", writeDouble(0.001));
+	assertEquals("1.5", writeDouble(1.5));
+	assertEquals("-21.25", writeDouble(-21.25));
+	assertEquals("100.0", writeDouble(100.0));
+	assertEquals("1.0E-4", writeDouble(0.0001));
+	assertEquals("1.0E7", writeDouble(1e7));
+    }
+
+    @Test
+    public void testFullLine() throws Exception {
+	GTSInput input = GTSInput.builder();
+	input.setName("temp");
+	input.setLabel("site", "a b");
+	input.setTs(1000L);
+	input.setLat(48.5);
+	input.setLon(2.25);
+	input.setElev(250L);
+	input.setValue(21L);
+	Buffer lines = new Buffer();
+	writer.write(input, lines);
+	assertEquals("1000/48.5:2.25/250 temp{site=a+b} 21\n", lines.readUtf8());
+    }
+
+    @Test
+    public void testContinuationLines() throws Exception {
+	GTSInput input = GTSInput.builder();
+	input.setName("temp");
+	input.setLabel("site", "a");
+	input.setLat(null);
+	input.setLon(null);
+	input.setElev(5L);
+	Buffer lines = new Buffer();
+
+	input.setTs(1000L);
+	input.setValue((Long) null);
+	input.setValue(21.5);
+	ByteString prefix = writer.getSeriesPrefix(input);
+	writer.write(input, prefix, lines);
+
+	input.setTs(2000L);
+	input.setValue(22.0);
+	writer.writeContinuation(input, lines);
+
+	input.setTs(3000L);
+	input.setLat(48.5);
+	input.setLon(2.25);
+	input.setValue((Double) null);
+	input.setValue("it's hot");
+	writer.writeContinuation(input, lines);
+
+	assertEquals("1000//5 temp{site=a} 21.5\n" + "=2000//5 22.0\n" + "=3000/48.5:2.25/5 'it%27s+hot'\n",
+		lines.readUtf8());
+    }
+
+    @Test
+    public void testPrimitiveContinuationLines() throws Exception {
+	ByteString prefix = ByteString.encodeUtf8("temp{site=a}");
+	Buffer lines = new Buffer();
+	writer.beginPoint(1000, Double.NaN, Double.NaN, Double.NaN, prefix, lines);
+	writer.endPoint(1L, lines);
+	writer.beginPoint(2000, 48.5, 2.25, 250, null, lines);
+	writer.endPoint(true, lines);
+	writer.beginPoint(3000, Double.NaN, Double.NaN, Double.NaN, null, lines);
+	writer.endPoint(0.5, lines);
+	assertEquals("1000// temp{site=a} 1\n" + "=2000/48.5:2.25/250 T\n" + "=3000// 0.5\n", lines.readUtf8());
+    }
+
+    protected String writeDouble(double value) throws Exception {
+	Buffer buffer = new Buffer();
+	writer.writeDouble(value, buffer);
+	return buffer.readUtf8();
+    }
+
+    protected void assertRoundTrip(double value) throws Exception {
+	String written = writeDouble(value);
+	assertEquals(written, 0, Double.compare(value, Double.parseDouble(written)));
+	if (!Double.isNaN(value) && !Double.isInfinite(value) && (value != 0)) {
+	    assertFalse(written, written.contains("E") && (Math.abs(value) >= 1e-3) && (Math.abs(value) < 1e7));
+	}
+    }
+}
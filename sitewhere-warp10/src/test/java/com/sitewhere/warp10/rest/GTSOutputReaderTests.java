@@ -0,0 +1,144 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.sitewhere.spi.SiteWhereException;
+import com.sitewhere.warp10.rest.GTSOutput.ValueType;
+
+public class GTSOutputReaderTests {
+
+    @Test
+    public void testValueOnly() throws Exception {
+	GTSOutput gts = readSingle("[{\"c\":\"temp\",\"l\":{\"site\":\"a\"},\"a\":{},\"v\":[[20,5],[10,6]]}]");
+	assertEquals("temp", gts.getClassName());
+	assertEquals("a", gts.getLabels().get("site"));
+	assertEquals(2, gts.size());
+	assertEquals(20, gts.getTimestamp(0));
+	assertEquals(5, gts.getLongValue(0));
+	assertFalse(gts.hasLocation(0));
+	assertFalse(gts.hasElevation(0));
+    }
+
+    @Test
+    public void testElevation() throws Exception {
+	GTSOutput gts = readSingle("[{\"c\":\"temp\",\"v\":[[10,250,5]]}]");
+	assertFalse(gts.hasLocation(0));
+	assertTrue(gts.hasElevation(0));
+	assertEquals(250, gts.getElevation(0), 0);
+	assertEquals(5, gts.getLongValue(0));
+    }
+
+    @Test
+    public void testLocation() throws Exception {
+	GTSOutput gts = readSingle("[{\"c\":\"temp\",\"v\":[[10,48.5,2.25,5]]}]");
+	assertTrue(gts.hasLocation(0));
+	assertEquals(48.5, gts.getLatitude(0), 0);
+	assertEquals(2.25, gts.getLongitude(0), 0);
+	assertFalse(gts.hasElevation(0));
+	assertEquals(5, gts.getLongValue(0));
+    }
+
+    @Test
+    public void testLocationAndElevation() throws Exception {
+	GTSOutput gts = readSingle("[{\"c\":\"temp\",\"v\":[[10,48.5,2.25,250,5]]}]");
+	assertEquals(48.5, gts.getLatitude(0), 0);
+	assertEquals(2.25, gts.getLongitude(0), 0);
+	assertEquals(250, gts.getElevation(0), 0);
+	assertEquals(5, gts.getLongValue(0));
+    }
+
+    @Test
+    public void testLongAndDoubleValues() throws Exception {
+	GTSOutput longs = readSingle("[{\"c\":\"count\",\"v\":[[10,42]]}]");
+	assertEquals(ValueType.LONG, longs.getValueType());
+	assertEquals(42, longs.getLongValue(0));
+
+	GTSOutput doubles = readSingle("[{\"c\":\"temp\",\"v\":[[10,42.0],[5,1e3]]}]");
+	assertEquals(ValueType.DOUBLE, doubles.getValueType());
+	assertEquals(42.0, doubles.getDoubleValue(0), 0);
+	assertEquals(1000.0, doubles.getDoubleValue(1), 0);
+    }
+
+    @Test
+    public void testLargeLongs() throws Exception {
+	GTSOutput gts = readSingle("[{\"c\":\"count\",\"v\":[[10,1234567890123456789],[5,-9223372036854775808]]}]");
+	assertEquals(ValueType.LONG, gts.getValueType());
+	assertEquals(1234567890123456789L, gts.getLongValue(0));
+	assertEquals(Long.MIN_VALUE, gts.getLongValue(1));
+	assertEquals("1234567890123456789", gts.getValue(0));
+
+	GTSOutput overflow = readSingle("[{\"c\":\"count\",\"v\":[[10,12345678901234567890]]}]");
+	assertEquals(ValueType.DOUBLE, overflow.getValueType());
+	assertEquals(12345678901234567890.0, overflow.getDoubleValue(0), 0);
+    }
+
+    @Test
+    public void testBooleanAndStringValues() throws Exception {
+	GTSOutput booleans = readSingle("[{\"c\":\"on\",\"v\":[[10,true],[5,false]]}]");
+	assertEquals(ValueType.BOOLEAN, booleans.getValueType());
+	assertTrue(booleans.getBooleanValue(0));
+	assertFalse(booleans.getBooleanValue(1));
+
+	GTSOutput strings = readSingle("[{\"c\":\"alert\",\"v\":[[10,\"high\"]]}]");
+	assertEquals(ValueType.STRING, strings.getValueType());
+	assertEquals("high", strings.getValue(0));
+    }
+
+    @Test
+    public void testMultipleSeries() throws Exception {
+	List<GTSOutput> series = read(
+		"[{\"c\":\"a\",\"v\":[[10,1]]},{\"c\":\"b\",\"v\":[]},{\"c\":\"c\",\"v\":[[10,3],[5,4]]}]");
+	assertEquals(3, series.size());
+	assertEquals("b", series.get(1).getClassName());
+	assertEquals(0, series.get(1).size());
+	assertNull(series.get(1).getValueType());
+	assertEquals(2, series.get(2).size());
+    }
+
+    @Test
+    public void testMalformedResponse() {
+	try {
+	    GTSOutput.fromOutputFormat("[{\"c\":\"a\",\"v\":[[10,1],[5");
+	    fail("Truncated response was parsed.");
+	} catch (SiteWhereException e) {
+	    // Expected.
+	}
+    }
+
+    protected List<GTSOutput> read(String json) throws IOException {
+	try (GTSOutputReader reader = new GTSOutputReader(new StringReader(json))) {
+	    return reader.readAll();
+	}
+    }
+
+    protected GTSOutput readSingle(String json) throws IOException {
+	List<GTSOutput> series = read(json);
+	assertEquals(1, series.size());
+	return series.get(0);
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.sitewhere.warp10.rest.GTSOutput.ValueType;
+
+public class LastValueIndexTests {
+
+    @Test
+    public void testKeepsMostRecentPoint() throws Exception {
+	LastValueIndex index = new LastValueIndex(10, 0);
+	index.update(point("temp", "a b", 2000, 21));
+	index.update(point("temp", "a b", 1000, 20));
+	assertLatest(index, "temp", "a b", 2000, 21);
+
+	index.update(point("temp", "a b", 2000, 22));
+	assertLatest(index, "temp", "a b", 2000, 22);
+
+	index.update(point("temp", "a b", 3000, 23));
+	assertLatest(index, "temp", "a b", 3000, 23);
+    }
+
+    @Test
+    public void testUsesLatestFetchedPoint() throws Exception {
+	LastValueIndex index = new LastValueIndex(10, 0);
+	index.update(point("temp", "a", 2500, 25));
+
+	GTSOutput fetched = new GTSOutput();
+	fetched.setSeries("temp", Collections.singletonMap("site", "a"), Collections.emptyMap(), "");
+	fetched.addPoint(3000, Double.NaN, Double.NaN, Double.NaN, ValueType.LONG, 30, 0, null);
+	fetched.addPoint(1000, Double.NaN, Double.NaN, Double.NaN, ValueType.LONG, 10, 0, null);
+	fetched.addPoint(2000, Double.NaN, Double.NaN, Double.NaN, ValueType.LONG, 20, 0, null);
+	index.update(fetched);
+	assertLatest(index, "temp", "a", 3000, 30);
+    }
+
+    @Test
+    public void testUpdatesAppliedOnlyOnce() throws Exception {
+	LastValueIndex index = new LastValueIndex(10, 0);
+	LastValueIndex.Updates updates = index.newUpdates();
+	GTSInput input = point("temp", "a", 2000, 21);
+	updates.add(input);
+	input.reset();
+	updates.add(point("temp", "a", 1000, 20));
+	updates.add(point("temp", "b", 1000, 10));
+	assertEquals(2, updates.size());
+	assertNull(index.get(query("temp", "a")));
+
+	updates.apply();
+	assertEquals(0, updates.size());
+	assertLatest(index, "temp", "a", 2000, 21);
+	assertLatest(index, "temp", "b", 1000, 10);
+    }
+
+    @Test
+    public void testIndexableQueries() {
+	LastValueIndex index = new LastValueIndex(10, 0);
+	assertTrue(index.isIndexable(query("temp", "a")));
+	assertTrue(index.isIndexable(query("=temp", "a")));
+	assertFalse(index.isIndexable(query("~temp.*", "a")));
+
+	QueryParams noLabels = QueryParams.builder();
+	noLabels.setClassName("temp");
+	assertFalse(index.isIndexable(noLabels));
+
+	QueryParams regexLabel = query("temp", "a");
+	regexLabel.addParameter("zone", "~z.*");
+	assertFalse(index.isIndexable(regexLabel));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+	LastValueIndex index = new LastValueIndex(2, 0);
+	index.update(point("temp", "a", 1000, 1));
+	index.update(point("temp", "b", 1000, 2));
+	assertLatest(index, "temp", "a", 1000, 1);
+	index.update(point("temp", "c", 1000, 3));
+	assertEquals(2, index.size());
+	assertNull(index.get(query("temp", "b")));
+	assertLatest(index, "temp", "a", 1000, 1);
+    }
+
+    @Test
+    public void testExpiresPoints() throws Exception {
+	LastValueIndex index = new LastValueIndex(10, 50);
+	index.update(point("temp", "a", 1000, 1));
+	assertLatest(index, "temp", "a", 1000, 1);
+	Thread.sleep(100);
+	assertNull(index.get(query("temp", "a")));
+	assertEquals(0, index.size());
+	assertEquals(1, index.getHits());
+	assertEquals(1, index.getMisses());
+    }
+
+    protected GTSInput point(String className, String site, long timestamp, long value) throws Exception {
+	GTSInput input = GTSInput.builder();
+	input.setName(className);
+	input.setLabel("site", site);
+	input.setTs(timestamp);
+	input.setValue(value);
+	return input;
+    }
+
+    protected QueryParams query(String className, String site) {
+	QueryParams query = QueryParams.builder();
+	query.setClassName(className);
+	query.addExactParameter("site", site);
+	return query;
+    }
+
+    protected void assertLatest(LastValueIndex index, String className, String site, long timestamp, long value) {
+	GTSOutput latest = index.get(query(className, site));
+	Map<String, String> labels = new HashMap<>();
+	labels.put("site", site);
+	assertEquals(className, latest.getClassName());
+	assertEquals(labels, latest.getLabels());
+	assertEquals(1, latest.size());
+	assertEquals(timestamp, latest.getTimestamp(0));
+	assertEquals(value, latest.getLongValue(0));
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.sitewhere.warp10.rest.Warp10CircuitBreaker.State;
+
+public class Warp10CircuitBreakerTests {
+
+    /** Time the breaker stays open */
+    private static final long OPEN_MS = 50;
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+	Warp10CircuitBreaker breaker = new Warp10CircuitBreaker(3, OPEN_MS, TimeUnit.MILLISECONDS);
+	breaker.onFailure();
+	breaker.onFailure();
+	breaker.onSuccess();
+	breaker.onFailure();
+	breaker.onFailure();
+	assertEquals(State.CLOSED, breaker.getState());
+	assertTrue(breaker.allow());
+
+	breaker.onFailure();
+	assertEquals(State.OPEN, breaker.getState());
+	assertEquals(1, breaker.getOpenCount());
+	assertFalse(breaker.allow());
+	assertEquals(1, breaker.getRejected());
+    }
+
+    @Test
+    public void testClosesAfterSuccessfulTrial() throws Exception {
+	Warp10CircuitBreaker breaker = open();
+	Thread.sleep(OPEN_MS * 2);
+	assertEquals(State.HALF_OPEN, breaker.getState());
+	assertTrue(breaker.allow());
+	assertFalse(breaker.allow());
+
+	breaker.onSuccess();
+	assertEquals(State.CLOSED, breaker.getState());
+	assertEquals(0, breaker.getConsecutiveFailures());
+	assertTrue(breaker.allow());
+	assertTrue(breaker.allow());
+    }
+
+    @Test
+    public void testReopensAfterFailedTrial() throws Exception {
+	Warp10CircuitBreaker breaker = open();
+	Thread.sleep(OPEN_MS * 2);
+	assertTrue(breaker.allow());
+
+	breaker.onFailure();
+	assertEquals(State.OPEN, breaker.getState());
+	assertEquals(2, breaker.getOpenCount());
+	assertFalse(breaker.allow());
+    }
+
+    protected Warp10CircuitBreaker open() {
+	Warp10CircuitBreaker breaker = new Warp10CircuitBreaker(1, OPEN_MS, TimeUnit.MILLISECONDS);
+	breaker.onFailure();
+	assertEquals(State.OPEN, breaker.getState());
+	return breaker;
+    }
+}
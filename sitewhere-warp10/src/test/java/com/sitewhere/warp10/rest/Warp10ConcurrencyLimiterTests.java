@@ -0,0 +1,125 @@
+/**
+ * Copyright © 2014-2021 The SiteWhere Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sitewhere.warp10.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class Warp10ConcurrencyLimiterTests {
+
+    /** Latency threshold in milliseconds */
+    private static final long THRESHOLD_MS = 100;
+
+    /** Latency under the threshold */
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /** Latency over the threshold */
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+
+    @Test
+    public void testRejectsAtLimit() throws Exception {
+	Warp10ConcurrencyLimiter limiter = newLimiter(2, 1, 10);
+	assertTrue(limiter.acquire());
+	assertTrue(limiter.acquire());
+	assertFalse(limiter.acquire());
+	assertEquals(1, limiter.getRejected());
+	assertEquals(2, limiter.getInFlight());
+
+	limiter.cancel();
+	assertTrue(limiter.acquire());
+    }
+
+    @Test
+    public void testIncreasesWhenSaturated() throws Exception {
+	Warp10ConcurrencyLimiter limiter = newLimiter(2, 1, 3);
+	limiter.acquire();
+	limiter.release(FAST, false);
+	assertEquals(3, limiter.getLimit());
+
+	for (int i = 0; i < 3; i++) {
+	    limiter.acquire();
+	}
+	for (int i = 0; i < 3; i++) {
+	    limiter.release(FAST, false);
+	}
+	assertEquals(3, limiter.getLimit());
+    }
+
+    @Test
+    public void testKeepsLimitWhenIdle() throws Exception {
+	Warp10ConcurrencyLimiter limiter = newLimiter(8, 1, 16);
+	limiter.acquire();
+	limiter.release(FAST, false);
+	assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void testBacksOffOnFailureOrLatency() throws Exception {
+	Warp10ConcurrencyLimiter limiter = newLimiter(8, 2, 16);
+	limiter.acquire();
+	limiter.release(FAST, true);
+	assertEquals(4, limiter.getLimit());
+
+	limiter.acquire();
+	limiter.release(SLOW, false);
+	assertEquals(2, limiter.getLimit());
+
+	limiter.acquire();
+	limiter.release(SLOW, false);
+	assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void testUnmeasuredReleaseIgnoresLatency() throws Exception {
+	Warp10ConcurrencyLimiter limiter = newLimiter(8, 1, 16);
+	limiter.acquire();
+	limiter.releaseUnmeasured(false);
+	assertEquals(8, limiter.getLimit());
+	assertEquals(0, limiter.getInFlight());
+
+	limiter.acquire();
+	limiter.releaseUnmeasured(true);
+	assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testWaiterGetsReleasedSlot() throws Exception {
+	Warp10ConcurrencyLimiter limiter = new Warp10ConcurrencyLimiter(1, 1, 1, THRESHOLD_MS, 5000,
+		TimeUnit.MILLISECONDS, 0.5);
+	assertTrue(limiter.acquire());
+	Thread releaser = new Thread(() -> {
+	    try {
+		Thread.sleep(50);
+	    } catch (InterruptedException e) {
+		return;
+	    }
+	    limiter.release(FAST, false);
+	});
+	releaser.start();
+	assertTrue(limiter.acquire());
+	releaser.join();
+	assertEquals(0, limiter.getRejected());
+    }
+
+    protected Warp10ConcurrencyLimiter newLimiter(int initial, int min, int max) {
+	return new Warp10ConcurrencyLimiter(initial, min, max, THRESHOLD_MS, 0, TimeUnit.MILLISECONDS, 0.5);
+    }
+}